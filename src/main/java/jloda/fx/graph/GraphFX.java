@@ -26,6 +26,9 @@ import javafx.beans.property.*;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import jloda.graph.*;
+import jloda.util.Pair;
+
+import java.util.ArrayList;
 
 /**
  * provides observable list of nodes and adjacentEdges, and label properties
@@ -110,6 +113,27 @@ public class GraphFX<G extends Graph> {
                     incrementLastUpdate();
                 }
 
+                @Override
+                public void batchCompleted() {
+                    var nodes = graph.getNodesAsList();
+                    var edges = graph.getEdgesAsList();
+                    var nodeLabels = new ArrayList<Pair<StringProperty, String>>();
+                    for (var v : node2LabelProperty.keys())
+                        nodeLabels.add(new Pair<>(node2LabelProperty.get(v), graph.getLabel(v)));
+                    var edgeLabels = new ArrayList<Pair<StringProperty, String>>();
+                    for (var e : edge2LabelProperty.keys())
+                        edgeLabels.add(new Pair<>(edge2LabelProperty.get(e), graph.getLabel(e)));
+                    Platform.runLater(() -> {
+                        nodeList.setAll(nodes);
+                        edgeList.setAll(edges);
+                        for (var pair : nodeLabels)
+                            pair.getFirst().set(pair.getSecond());
+                        for (var pair : edgeLabels)
+                            pair.getFirst().set(pair.getSecond());
+                    });
+                    incrementLastUpdate();
+                }
+
                 @Override
                 public void nodeLabelChanged(Node v, String newLabel) {
                     try {
@@ -0,0 +1,283 @@
+/*
+ * CompactGraphView.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph;
+
+import java.util.Arrays;
+
+/**
+ * An immutable compressed-sparse-row (CSR) snapshot of a graph, for read-only algorithm passes.
+ * Nodes and edges are given dense indices 0..n-1 and 0..m-1, in the order in which they appear in the graph.
+ * Out- and in-adjacencies are stored in separate primitive arrays, in the adjacency order of each node.
+ * Hidden nodes and edges are not contained in the view.
+ * <p>
+ * The view is not updated when the graph changes, it must be recomputed using Graph.freeze()
+ * <p>
+ * Typical loop over all out-neighbors of node index v:
+ * <pre>
+ * for (var k = view.outStart(v); k &lt; view.outEnd(v); k++) {
+ *     var w = view.outTarget(k);
+ *     var e = view.outEdge(k);
+ * }
+ * </pre>
+ * Daniel Huson, 2023
+ */
+public final class CompactGraphView {
+	private final Graph graph;
+	private final Node[] nodes;
+	private final Edge[] edges;
+	private final int[] nodeId2Index;
+	private final int[] edgeId2Index;
+
+	private final int[] edgeSource;
+	private final int[] edgeTarget;
+
+	private final int[] outOffset;
+	private final int[] outTarget;
+	private final int[] outEdge;
+
+	private final int[] inOffset;
+	private final int[] inSource;
+	private final int[] inEdge;
+
+	/**
+	 * builds the compact view of the given graph
+	 *
+	 * @param graph the graph
+	 */
+	public CompactGraphView(Graph graph) {
+		this.graph = graph;
+
+		nodeId2Index = new int[graph.getMaxNodeId() + 1];
+		Arrays.fill(nodeId2Index, -1);
+		nodes = new Node[graph.getNumberOfNodes()];
+		var n = 0;
+		for (var it = graph.nodeIteratorIncludingHidden(); it.hasNext(); ) {
+			var v = it.next();
+			if (!v.isHidden()) {
+				nodeId2Index[v.getId()] = n;
+				nodes[n++] = v;
+			}
+		}
+
+		edgeId2Index = new int[graph.getMaxEdgeId() + 1];
+		Arrays.fill(edgeId2Index, -1);
+		var edgeList = new Edge[graph.getNumberOfEdges()];
+		var m = 0;
+		for (var it = graph.edgeIteratorIncludingHidden(); it.hasNext(); ) {
+			var e = it.next();
+			if (!e.isHidden() && getIndex(e.getSource()) != -1 && getIndex(e.getTarget()) != -1) {
+				edgeId2Index[e.getId()] = m;
+				edgeList[m++] = e;
+			}
+		}
+		edges = (m == edgeList.length ? edgeList : Arrays.copyOf(edgeList, m));
+
+		edgeSource = new int[m];
+		edgeTarget = new int[m];
+		outOffset = new int[n + 1];
+		inOffset = new int[n + 1];
+		for (var j = 0; j < m; j++) {
+			edgeSource[j] = nodeId2Index[edges[j].getSource().getId()];
+			edgeTarget[j] = nodeId2Index[edges[j].getTarget().getId()];
+			outOffset[edgeSource[j] + 1]++;
+			inOffset[edgeTarget[j] + 1]++;
+		}
+		for (var i = 0; i < n; i++) {
+			outOffset[i + 1] += outOffset[i];
+			inOffset[i + 1] += inOffset[i];
+		}
+
+		outTarget = new int[m];
+		outEdge = new int[m];
+		inSource = new int[m];
+		inEdge = new int[m];
+		// fill adjacencies in the adjacency order of each node:
+		for (var i = 0; i < n; i++) {
+			var v = nodes[i];
+			var outPos = outOffset[i];
+			var inPos = inOffset[i];
+			for (var e = v.getFirstAdjacentEdge(); e != null; e = v.getNextAdjacentEdge(e)) {
+				var j = getIndex(e);
+				if (j != -1) {
+					if (edgeSource[j] == i) {
+						outTarget[outPos] = edgeTarget[j];
+						outEdge[outPos++] = j;
+					} else {
+						inSource[inPos] = edgeSource[j];
+						inEdge[inPos++] = j;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the graph that this is a view of
+	 */
+	public Graph getGraph() {
+		return graph;
+	}
+
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+
+	public int getNumberOfEdges() {
+		return edges.length;
+	}
+
+	/**
+	 * @param v node index
+	 * @return node
+	 */
+	public Node getNode(int v) {
+		return nodes[v];
+	}
+
+	/**
+	 * @param e edge index
+	 * @return edge
+	 */
+	public Edge getEdge(int e) {
+		return edges[e];
+	}
+
+	/**
+	 * gets the index of a node
+	 *
+	 * @param v node
+	 * @return index or -1, if node not contained in view
+	 */
+	public int getIndex(Node v) {
+		var id = v.getId();
+		return id < nodeId2Index.length ? nodeId2Index[id] : -1;
+	}
+
+	/**
+	 * gets the index of an edge
+	 *
+	 * @param e edge
+	 * @return index or -1, if edge not contained in view
+	 */
+	public int getIndex(Edge e) {
+		var id = e.getId();
+		return id < edgeId2Index.length ? edgeId2Index[id] : -1;
+	}
+
+	/**
+	 * @param e edge index
+	 * @return index of source node
+	 */
+	public int getSource(int e) {
+		return edgeSource[e];
+	}
+
+	/**
+	 * @param e edge index
+	 * @return index of target node
+	 */
+	public int getTarget(int e) {
+		return edgeTarget[e];
+	}
+
+	/**
+	 * @param e edge index
+	 * @param v node index
+	 * @return index of opposite node
+	 */
+	public int getOpposite(int e, int v) {
+		return edgeSource[e] == v ? edgeTarget[e] : edgeSource[e];
+	}
+
+	public int getOutDegree(int v) {
+		return outOffset[v + 1] - outOffset[v];
+	}
+
+	public int getInDegree(int v) {
+		return inOffset[v + 1] - inOffset[v];
+	}
+
+	public int getDegree(int v) {
+		return getOutDegree(v) + getInDegree(v);
+	}
+
+	/**
+	 * @return first position of out-adjacencies of node v
+	 */
+	public int outStart(int v) {
+		return outOffset[v];
+	}
+
+	/**
+	 * @return position after last out-adjacency of node v
+	 */
+	public int outEnd(int v) {
+		return outOffset[v + 1];
+	}
+
+	/**
+	 * @param k position in out-adjacency array
+	 * @return index of target node
+	 */
+	public int outTarget(int k) {
+		return outTarget[k];
+	}
+
+	/**
+	 * @param k position in out-adjacency array
+	 * @return index of edge
+	 */
+	public int outEdge(int k) {
+		return outEdge[k];
+	}
+
+	/**
+	 * @return first position of in-adjacencies of node v
+	 */
+	public int inStart(int v) {
+		return inOffset[v];
+	}
+
+	/**
+	 * @return position after last in-adjacency of node v
+	 */
+	public int inEnd(int v) {
+		return inOffset[v + 1];
+	}
+
+	/**
+	 * @param k position in in-adjacency array
+	 * @return index of source node
+	 */
+	public int inSource(int k) {
+		return inSource[k];
+	}
+
+	/**
+	 * @param k position in in-adjacency array
+	 * @return index of edge
+	 */
+	public int inEdge(int k) {
+		return inEdge[k];
+	}
+}
+
+// EOF
@@ -0,0 +1,79 @@
+/*
+ * DeletionLog.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph;
+
+import java.util.function.IntConsumer;
+
+/**
+ * records the ids of the most recently deleted nodes or edges of a graph. Arrays and sets use this to remove their outdated
+ * entries by looking only at the ids deleted since they last checked, rather than scanning all of their entries.
+ * The ids are kept in a ring buffer that grows until it is larger than the largest deleted id. So, older deletions are only
+ * forgotten after at least that many newer deletions, and the full scan that is then required is paid for by those deletions
+ * Daniel Huson, 2023
+ */
+final class DeletionLog {
+	private int[] ids = new int[16]; // length is always a power of 2
+	private int count = 0; // total number of deletions
+	private int recorded = 0; // number of deletions currently recorded
+	private int maxId = 0; // largest deleted id
+
+	/**
+	 * record the deletion of the given id
+	 */
+	void add(int id) {
+		maxId = Math.max(maxId, id);
+		if (recorded == ids.length && ids.length <= maxId && ids.length < (1 << 30)) {
+			var newIds = new int[2 * ids.length];
+			for (var k = count - recorded; k != count; k++) {
+				newIds[k & (newIds.length - 1)] = ids[k & (ids.length - 1)];
+			}
+			ids = newIds;
+		}
+		ids[count & (ids.length - 1)] = id;
+		count++;
+		if (recorded < ids.length)
+			recorded++;
+	}
+
+	/**
+	 * gets the total number of deletions
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * applies the consumer to all ids deleted since the total number of deletions was the given count
+	 *
+	 * @return false, if some of these deletions are no longer recorded, in which case the consumer is not applied
+	 */
+	boolean forEachSince(int since, IntConsumer consumer) {
+		var number = count - since;
+		if (number < 0 || number > recorded)
+			return false;
+		for (var k = since; k != count; k++) {
+			consumer.accept(ids[k & (ids.length - 1)]);
+		}
+		return true;
+	}
+}
+
+// EOF
@@ -34,23 +34,35 @@ import java.util.function.Function;
 
 public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>, Function<Edge, T>, AutoCloseable {
 	private T[] data;
-	private int size = 0;
+	private int[] generations; // generation of the id in the graph at the time the entry was set
+	private int size = 0; // number of non-null entries, including outdated ones
+	private int deletionsSeen; // number of edge deletions in graph at time of last purge
 
 	/**
 	 * Construct an edge array with default value null
 	 */
 	public EdgeArray(Graph g) {
-		setOwner(g);
-		data = (T[]) new Object[g.getMaxEdgeId() + 1];
-		g.registerEdgeArray(this);
+		this(g, g.getEdgeArrayCapacity());
     }
 
+	/**
+	 * Construct an edge array with the given initial capacity. Used by subclasses that keep their values
+	 * in a primitive array and thus don't need any object storage
+	 */
+	EdgeArray(Graph g, int capacity) {
+		setOwner(g);
+		data = (T[]) new Object[capacity];
+		generations = new int[capacity];
+		deletionsSeen = g.getNumberOfEdgeDeletions();
+	}
+
     /**
      * Clear all entries.
      */
     public void clear() {
         Arrays.fill(data, null);
         size = 0;
+        deletionsSeen = getOwner().getNumberOfEdgeDeletions();
     }
 
     /**
@@ -60,12 +72,20 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
      */
     public EdgeArray(EdgeArray<T> src) {
         setOwner(src.getOwner());
-        data = (T[]) new Object[src.data.length];
-        System.arraycopy(src.data, 0, data, 0, data.length);
-        size = src.size;
+        if (src instanceof EdgeIntArray || src instanceof EdgeFloatArray || src instanceof EdgeDoubleArray) { // source keeps its values in a primitive array
+            data = (T[]) new Object[getOwner().getEdgeArrayCapacity()];
+            generations = new int[data.length];
+            deletionsSeen = getOwner().getNumberOfEdgeDeletions();
+            for (var a : src.keys())
+                put(a, src.get(a));
+        } else {
+            data = Arrays.copyOf(src.data, src.data.length);
+            generations = Arrays.copyOf(src.generations, src.generations.length);
+            size = src.size;
+            deletionsSeen = src.deletionsSeen;
+        }
     }
 
-
     /**
      * Set the entry for edge e to obj.
      *
@@ -83,10 +103,12 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
         if (data[id] == null) {
             if (object != null) {
                 data[id] = object;
+                generations[id] = getOwner().getEdgeGeneration(id);
                 size++;
             }
-        } else if (data[id] != null) {
+        } else {
             data[id] = object;
+            generations[id] = getOwner().getEdgeGeneration(id);
             if (object == null) {
                 size--;
             }
@@ -108,6 +130,7 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
             T[] newData = (T[]) new Object[newSize];
             System.arraycopy(data, 0, newData, 0, data.length);
             data = newData;
+            generations = Arrays.copyOf(generations, newSize);
         }
     }
 
@@ -125,7 +148,8 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
 
                 @Override
                 public T next() {
-                    return data[i++];
+                    var id = i++;
+                    return isValid(id) ? data[id] : null;
                 }
             });
     }
@@ -143,7 +167,7 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
 
                 {
                     while (a != null) {
-                        if (a.getId() < data.length && data[a.getId()] != null)
+                        if (isValid(a.getId()))
                             break;
                         a = a.getNext();
                     }
@@ -161,7 +185,7 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
                     Edge result = a;
                     a = a.getNext();
                     while (a != null) {
-                        if (a.getId() < data.length && data[a.getId()] != null)
+                        if (isValid(a.getId()))
                             break;
                         a = a.getNext();
                     }
@@ -173,12 +197,45 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
 
     @Override
     public int size() {
+        purge();
         return size;
     }
 
+    /**
+     * is the entry for the given id set and not outdated?
+     */
+    private boolean isValid(int id) {
+        return id < data.length && data[id] != null && generations[id] == getOwner().getEdgeGeneration(id);
+    }
+
+    /**
+     * removes all outdated entries, if there have been any edge deletions since the last call. Usually, only the ids deleted since then are checked
+     */
+    private void purge() {
+        var log = getOwner().getEdgeDeletionLog();
+        if (log.getCount() != deletionsSeen) {
+            if (!log.forEachSince(deletionsSeen, this::purge)) {
+                for (var id = 0; id < data.length; id++) {
+                    purge(id);
+                }
+            }
+            deletionsSeen = log.getCount();
+        }
+    }
+
+    /**
+     * removes the entry for the given id, if it is outdated
+     */
+    private void purge(int id) {
+        if (id < data.length && data[id] != null && !isValid(id)) {
+            data[id] = null;
+            size--;
+        }
+    }
+
     @Override
     public boolean isEmpty() {
-        return size == 0;
+        return size() == 0;
     }
 
     @Override
@@ -215,7 +272,7 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
     public T get(Object key) {
         if (key instanceof Edge) {
             var a = (Edge) key;
-            if (a.getId() < data.length && data[a.getId()] != null)
+            if (isValid(a.getId()))
                 return data[a.getId()];
             else
                 return null;
@@ -278,7 +335,7 @@ public class EdgeArray<T> extends GraphBase implements Iterable<T>, Map<Edge, T>
 
 	@Override
 	public void close() {
-		getOwner().close(this);
+		// nothing to do, arrays are not registered with the graph
 	}
 }
 
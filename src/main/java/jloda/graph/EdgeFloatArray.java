@@ -20,16 +20,26 @@
 
 package jloda.graph;
 
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 /**
- * edge float array
- * Daniel Huson, 11.2017
+ * Edge float array
+ * Values are kept in a primitive float array, so get and set don't allocate
+ * Daniel Huson, 2003, 2023
  */
+
 public class EdgeFloatArray extends EdgeArray<Float> {
+    private final FloatValues values;
+
     /**
      * Construct an edge array with default value null
      */
     public EdgeFloatArray(Graph g) {
-        super(g);
+        super(g, 0);
+        values = new FloatValues(g.getEdgeArrayCapacity(), g::getEdgeGeneration, g.getEdgeDeletionLog());
     }
 
     /**
@@ -38,17 +48,121 @@ public class EdgeFloatArray extends EdgeArray<Float> {
      * @param src EdgeArray
      */
     public EdgeFloatArray(EdgeArray<Float> src) {
-        super(src);
+        this(src.getOwner());
+        if (src instanceof EdgeFloatArray other)
+            values.copy(other.values);
+        else {
+            for (var e : src.keys())
+                put(e, src.get(e));
+        }
     }
 
-
+    /**
+     * Get the entry for edge e or 0
+     *
+     * @param e Edge
+     * @return value or 0
+     */
     public float getFloat(Edge e) {
-        var value = get(e);
-        return value != null ? value : 0f;
+        checkOwner(e);
+        return values.get(e.getId());
     }
 
     public void set(Edge e, float value) {
-        put(e, value);
+        checkOwner(e);
+        values.set(e.getId(), value);
+    }
+
+    @Override
+    public Float put(Edge e, Float value) {
+        checkOwner(e);
+        if (value == null)
+            values.unmark(e.getId());
+        else
+            values.set(e.getId(), value);
+        return value;
+    }
+
+    @Override
+    public Float get(Object key) {
+        if (key instanceof Edge e) {
+            checkOwner(e);
+            if (values.has(e.getId()))
+                return values.get(e.getId());
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Edge e && e.getOwner() == getOwner() && values.has(e.getId());
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.size() == 0;
+    }
+
+    @Override
+    public Iterator<Float> iterator() {
+        return new Iterator<>() {
+            private int id = values.nextId(0);
+
+            @Override
+            public boolean hasNext() {
+                return id != -1;
+            }
+
+            @Override
+            public Float next() {
+                if (id == -1)
+                    throw new NoSuchElementException();
+                var result = values.get(id);
+                id = values.nextId(id + 1);
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Edge> keys() {
+        if (isEmpty())
+            return Collections::emptyIterator;
+        else
+            return () -> new Iterator<>() {
+                private Edge e = getOwner().getFirstEdge();
+
+                {
+                    while (e != null && !values.has(e.getId()))
+                        e = e.getNext();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return e != null;
+                }
+
+                @Override
+                public Edge next() {
+                    if (e == null)
+                        throw new NoSuchElementException();
+                    var result = e;
+                    e = e.getNext();
+                    while (e != null && !values.has(e.getId()))
+                        e = e.getNext();
+                    return result;
+                }
+            };
     }
 }
 
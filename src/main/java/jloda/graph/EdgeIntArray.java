@@ -21,16 +21,25 @@
 package jloda.graph;
 
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 /**
- * edge float array
- * Daniel Huson, 2003
+ * Edge integer array
+ * Values are kept in a primitive int array, so get, set and increment don't allocate
+ * Daniel Huson, 2003, 2023
  */
+
 public class EdgeIntArray extends EdgeArray<Integer> {
+    private final IntValues values;
+
     /**
      * Construct an edge array with default value null
      */
     public EdgeIntArray(Graph g) {
-        super(g);
+        super(g, 0);
+        values = new IntValues(g.getEdgeArrayCapacity(), g::getEdgeGeneration, g.getEdgeDeletionLog());
     }
 
     /**
@@ -39,22 +48,29 @@ public class EdgeIntArray extends EdgeArray<Integer> {
      * @param src EdgeArray
      */
     public EdgeIntArray(EdgeArray<Integer> src) {
-        super(src);
+        this(src.getOwner());
+        if (src instanceof EdgeIntArray other)
+            values.copy(other.values);
+        else {
+            for (var e : src.keys())
+                put(e, src.get(e));
+        }
     }
 
-
     /**
-     * get the entry for edge e
+     * Get the entry for edge e or 0
      *
-     * @return integer or 0
+     * @param e Edge
+     * @return value or 0
      */
     public int getInt(Edge e) {
-        var value = get(e);
-        return value != null ? value : 0;
+        checkOwner(e);
+        return values.get(e.getId());
     }
 
     public void set(Edge e, int value) {
-        put(e, value);
+        checkOwner(e);
+        values.set(e.getId(), value);
     }
 
     /**
@@ -62,7 +78,7 @@ public class EdgeIntArray extends EdgeArray<Integer> {
      *
 	 */
     public void increment(Edge e) {
-        set(e, getInt(e) + 1);
+        increment(e, 1);
     }
 
     /**
@@ -70,7 +86,8 @@ public class EdgeIntArray extends EdgeArray<Integer> {
      *
 	 */
     public void increment(Edge e, int value) {
-        set(e, getInt(e) + value);
+        checkOwner(e);
+        values.add(e.getId(), value);
     }
 
     /**
@@ -78,7 +95,7 @@ public class EdgeIntArray extends EdgeArray<Integer> {
      *
 	 */
     public void decrement(Edge e) {
-        set(e, getInt(e) - 1);
+        increment(e, -1);
     }
 
     /**
@@ -86,7 +103,99 @@ public class EdgeIntArray extends EdgeArray<Integer> {
      *
 	 */
     public void decrement(Edge e, int value) {
-        set(e, getInt(e) - value);
+        increment(e, -value);
+    }
+
+    @Override
+    public Integer put(Edge e, Integer value) {
+        checkOwner(e);
+        if (value == null)
+            values.unmark(e.getId());
+        else
+            values.set(e.getId(), value);
+        return value;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (key instanceof Edge e) {
+            checkOwner(e);
+            if (values.has(e.getId()))
+                return values.get(e.getId());
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Edge e && e.getOwner() == getOwner() && values.has(e.getId());
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.size() == 0;
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<>() {
+            private int id = values.nextId(0);
+
+            @Override
+            public boolean hasNext() {
+                return id != -1;
+            }
+
+            @Override
+            public Integer next() {
+                if (id == -1)
+                    throw new NoSuchElementException();
+                var result = values.get(id);
+                id = values.nextId(id + 1);
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Edge> keys() {
+        if (isEmpty())
+            return Collections::emptyIterator;
+        else
+            return () -> new Iterator<>() {
+                private Edge e = getOwner().getFirstEdge();
+
+                {
+                    while (e != null && !values.has(e.getId()))
+                        e = e.getNext();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return e != null;
+                }
+
+                @Override
+                public Edge next() {
+                    if (e == null)
+                        throw new NoSuchElementException();
+                    var result = e;
+                    e = e.getNext();
+                    while (e != null && !values.has(e.getId()))
+                        e = e.getNext();
+                    return result;
+                }
+            };
     }
 }
 
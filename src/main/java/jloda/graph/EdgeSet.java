@@ -27,6 +27,8 @@ import java.util.*;
  */
 public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, AutoCloseable {
 	final BitSet bits;
+	private int[] generations = new int[0]; // generation of the id in the graph at the time the edge was added
+	private int deletionsSeen; // number of edge deletions in graph at time of last purge
 
 	/**
 	 * Constructs a new empty EdgeSet for Graph G.
@@ -35,8 +37,8 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
 	 */
 	public EdgeSet(Graph graph) {
 		setOwner(graph);
-		graph.registerEdgeSet(this);
         bits = new BitSet();
+        deletionsSeen = graph.getNumberOfEdgeDeletions();
     }
 
     /**
@@ -46,7 +48,7 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      * @return a boolean value
      */
     public boolean contains(Object e) {
-        return e instanceof Edge && bits.get(((Edge) e).getId());
+        return e instanceof Edge && isValid(((Edge) e).getId());
     }
 
     /**
@@ -56,10 +58,11 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      * @return true, if new
      */
     public boolean add(Edge e) {
-        if (bits.get(e.getId()))
+        if (isValid(e.getId()))
             return false;
         else {
             bits.set(e.getId(), true);
+            setGeneration(e.getId());
             return true;
         }
     }
@@ -70,12 +73,13 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      * @param e Edge
      */
     public boolean remove(Object e) {
-        if (e instanceof Edge && bits.get(((Edge) e).getId())) {
-            bits.set(((Edge) e).getId(), false);
-            return true;
+        if (e instanceof Edge) {
+            var id = ((Edge) e).getId();
+            var contained = isValid(id);
+            bits.set(id, false);
+            return contained;
         } else
             return false;
-
     }
 
     /**
@@ -136,6 +140,7 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      * @return true, if set changes
      */
     public boolean retainAll(Collection collection) {
+        purge();
         final int old = bits.cardinality();
         final BitSet newBits = new BitSet();
 
@@ -153,6 +158,7 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      */
     public void clear() {
         bits.clear();
+        deletionsSeen = getOwner().getNumberOfEdgeDeletions();
     }
 
     /**
@@ -161,6 +167,7 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      * @return true, if empty
      */
     public boolean isEmpty() {
+        purge();
         return bits.isEmpty();
     }
 
@@ -197,6 +204,7 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      * @return size
      */
     public int size() {
+        purge();
         return bits.cardinality();
     }
 
@@ -264,6 +272,8 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
      * @return true, if intersection is non-empty
      */
     public boolean intersects(EdgeSet aset) {
+        purge();
+        aset.purge();
         return bits.intersects(aset.bits);
     }
 
@@ -293,9 +303,41 @@ public class EdgeSet extends GraphBase implements Iterable<Edge>, Set<Edge>, Aut
 		return null;
 	}
 
+	/**
+	 * is the id contained in the set and not outdated?
+	 */
+	private boolean isValid(int id) {
+		return bits.get(id) && id < generations.length && generations[id] == getOwner().getEdgeGeneration(id);
+	}
+
+	private void setGeneration(int id) {
+		if (id >= generations.length)
+			generations = Arrays.copyOf(generations, PrimitiveValues.newCapacity(generations.length, id));
+		generations[id] = getOwner().getEdgeGeneration(id);
+	}
+
+	/**
+	 * removes all outdated ids, if there have been any edge deletions since the last call. Usually, only the ids deleted since then are checked
+	 */
+	private void purge() {
+		var log = getOwner().getEdgeDeletionLog();
+		if (log.getCount() != deletionsSeen) {
+			if (!log.forEachSince(deletionsSeen, id -> {
+				if (bits.get(id) && !isValid(id))
+					bits.clear(id);
+			})) {
+				for (var id = bits.nextSetBit(0); id != -1; id = bits.nextSetBit(id + 1)) {
+					if (!isValid(id))
+						bits.clear(id);
+				}
+			}
+			deletionsSeen = log.getCount();
+		}
+	}
+
 	@Override
 	public void close() {
-		getOwner().close(this);
+		// nothing to do, sets are not registered with the graph
 	}
 }
 
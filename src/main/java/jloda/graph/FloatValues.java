@@ -0,0 +1,76 @@
+/*
+ * FloatValues.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * primitive float store used by node and edge float arrays
+ * Daniel Huson, 2023
+ */
+final class FloatValues extends PrimitiveValues {
+	private float[] values;
+
+	FloatValues(int capacity, IntUnaryOperator generation, DeletionLog deletions) {
+		super(capacity, generation, deletions);
+		values = new float[capacity];
+	}
+
+	/**
+	 * get the value for the given id, or 0
+	 */
+	float get(int id) {
+		return has(id) ? values[id] : 0f;
+	}
+
+	void set(int id, float value) {
+		mark(id);
+		values[id] = value;
+	}
+
+	float add(int id, float delta) {
+		mark(id);
+		return values[id] += delta;
+	}
+
+	void copy(FloatValues src) {
+		values = Arrays.copyOf(src.values, src.values.length);
+		copyStamps(src);
+	}
+
+	@Override
+	void resize(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	void zero(int id) {
+		values[id] = 0f;
+	}
+
+	@Override
+	void zeroAll() {
+		Arrays.fill(values, 0f);
+	}
+}
+
+// EOF
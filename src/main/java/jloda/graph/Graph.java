@@ -24,7 +24,6 @@ import jloda.util.Basic;
 import jloda.util.INamed;
 import jloda.util.IteratorUtils;
 
-import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -55,6 +54,15 @@ public class Graph extends GraphBase implements INamed {
     private int maxEdgeId; // max id assigned to any edge
 
     private boolean ignoreGraphHasChanged = false; // set this when we are deleting a whole graph
+    private long modificationCount = 0; // incremented whenever the graph changes, also during a batch
+
+    private int batchDepth = 0; // while positive, no events are sent to listeners
+    private int expectedMaxNodeId = 0; // used to pre-size arrays created during a batch
+    private int expectedMaxEdgeId = 0;
+
+    // all nodes and edges, including hidden ones, in dense arrays, used by parallel streams. Deletion moves the last element into the gap
+    private Node[] denseNodes = new Node[0];
+    private Edge[] denseEdges = new Edge[0];
 
     private final List<GraphUpdateListener> graphUpdateListeners = new LinkedList<>();  //List of listeners that are fired when the graph changes.
 
@@ -66,16 +74,13 @@ public class Graph extends GraphBase implements INamed {
     private EdgeArray<String> edgeLabel;
     private EdgeArray<Object> edgeData;
 
-    private final List<WeakReference<NodeSet>> nodeSets = new LinkedList<>();
-    // created node arrays are kept here. When an node is deleted, it's
-    // entry in all node arrays is set to null
-    private final List<WeakReference<NodeArray<?>>> nodeArrays = new LinkedList<>();
-
-    // created edge arrays are kept here. When an edge is deleted, it's
-    // entry in all edge arrays is set to null
-    private final List<WeakReference<EdgeArray<?>>> edgeArrays = new LinkedList<>();
-    // keep track of edge sets
-    private final List<WeakReference<EdgeSet>> edgeSets = new LinkedList<>();
+    // node and edge arrays and sets are not registered with the graph. Instead, for each id, the graph keeps a generation
+    // counter that is incremented whenever a node or edge with that id is deleted. Arrays and sets record the generation
+    // along with each entry and treat entries with an outdated generation as absent, so deletion is O(1).
+    private int[] nodeGenerations = new int[0];
+    private final DeletionLog nodeDeletionLog = new DeletionLog();
+    private int[] edgeGenerations = new int[0];
+    private final DeletionLog edgeDeletionLog = new DeletionLog();
 
     /**
      * Constructs a new empty graph.
@@ -123,6 +128,10 @@ public class Graph extends GraphBase implements INamed {
         if (lastNode != null)
             lastNode.next = v;
         lastNode = v;
+        if (numberNodes == denseNodes.length)
+            denseNodes = Arrays.copyOf(denseNodes, PrimitiveValues.newCapacity(denseNodes.length, numberNodes));
+        v.denseIndex = numberNodes;
+        denseNodes[numberNodes] = v;
         numberNodes++;
     }
 
@@ -269,6 +278,10 @@ public class Graph extends GraphBase implements INamed {
         if (lastEdge != null)
             lastEdge.next = e;
         lastEdge = e;
+        if (numberEdges == denseEdges.length)
+            denseEdges = Arrays.copyOf(denseEdges, PrimitiveValues.newCapacity(denseEdges.length, numberEdges));
+        e.denseIndex = numberEdges;
+        denseEdges[numberEdges] = e;
         numberEdges++;
     }
 
@@ -292,8 +305,8 @@ public class Graph extends GraphBase implements INamed {
         checkOwner(e);
         if (e.isHidden())
             numberOfEdgesThatAreHidden--;
-        deleteEdgeFromArrays(e);
-        deleteEdgeFromSets(e);
+        edgeGenerations = incrementGeneration(edgeGenerations, e.getId());
+        edgeDeletionLog.add(e.getId());
 
         getSource(e).decrementOutDegree();
         getTarget(e).decrementInDegree();
@@ -302,6 +315,9 @@ public class Graph extends GraphBase implements INamed {
         if (lastEdge == e)
             lastEdge = (Edge) e.prev;
         numberEdges--;
+        denseEdges[e.denseIndex] = denseEdges[numberEdges];
+        denseEdges[e.denseIndex].denseIndex = e.denseIndex;
+        denseEdges[numberEdges] = null;
         if (numberEdges == 0)
             maxEdgeId = 0;
     }
@@ -323,8 +339,8 @@ public class Graph extends GraphBase implements INamed {
      */
     void unregisterNode(Node v) {
         checkOwner(v);
-        deleteNodeFromArrays(v);
-        deleteNodeFromSets(v);
+        nodeGenerations = incrementGeneration(nodeGenerations, v.getId());
+        nodeDeletionLog.add(v.getId());
         if (v.isHidden())
             numberOfNodesThatAreHidden--;
 
@@ -333,6 +349,9 @@ public class Graph extends GraphBase implements INamed {
         if (lastNode == v)
             lastNode = (Node) v.prev;
         numberNodes--;
+        denseNodes[v.denseIndex] = denseNodes[numberNodes];
+        denseNodes[v.denseIndex].denseIndex = v.denseIndex;
+        denseNodes[numberNodes] = null;
         if (numberNodes == 0)
             maxNodeId = 0;
     }
@@ -873,6 +892,8 @@ public class Graph extends GraphBase implements INamed {
      */
     protected void fireNewNode(Node v) {
         checkOwner(v);
+        if (batchDepth > 0)
+            return;
 
         for (GraphUpdateListener gul : graphUpdateListeners) {
             gul.newNode(v);
@@ -885,6 +906,8 @@ public class Graph extends GraphBase implements INamed {
 
     protected void fireDeleteNode(Node v) {
         checkOwner(v);
+        if (batchDepth > 0)
+            return;
 
         for (GraphUpdateListener gul : graphUpdateListeners) {
             gul.deleteNode(v);
@@ -899,6 +922,8 @@ public class Graph extends GraphBase implements INamed {
      */
     protected void fireNodeLabelChanged(Node v, String label) {
         checkOwner(v);
+        if (batchDepth > 0)
+            return;
 
         for (GraphUpdateListener gul : graphUpdateListeners) {
             gul.nodeLabelChanged(v, label);
@@ -911,6 +936,8 @@ public class Graph extends GraphBase implements INamed {
 
     protected void fireNewEdge(Edge e) {
         checkOwner(e);
+        if (batchDepth > 0)
+            return;
 
         for (GraphUpdateListener gul : graphUpdateListeners) {
             gul.newEdge(e);
@@ -923,6 +950,8 @@ public class Graph extends GraphBase implements INamed {
 
     protected void fireDeleteEdge(Edge e) {
         checkOwner(e);
+        if (batchDepth > 0)
+            return;
 
         for (GraphUpdateListener gul : graphUpdateListeners) {
             gul.deleteEdge(e);
@@ -937,6 +966,8 @@ public class Graph extends GraphBase implements INamed {
      */
     protected void fireEdgeLabelChanged(Edge e, String label) {
         checkOwner(e);
+        if (batchDepth > 0)
+            return;
 
         for (GraphUpdateListener gul : graphUpdateListeners) {
             gul.edgeLabelChanged(e, label);
@@ -947,7 +978,8 @@ public class Graph extends GraphBase implements INamed {
      */
 
     protected void fireGraphHasChanged() {
-        if (!ignoreGraphHasChanged) {
+        modificationCount++;
+        if (!ignoreGraphHasChanged && batchDepth == 0) {
 
             for (GraphUpdateListener gul : graphUpdateListeners) {
                 gul.graphHasChanged();
@@ -955,6 +987,85 @@ public class Graph extends GraphBase implements INamed {
         }
     }
 
+    /**
+     * gets the number of changes made to the graph so far. Use this to determine whether cached values
+     * computed from the graph are still valid
+     *
+     * @return modification count
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * begins a batch of changes. Until the matching call of endBatch(), no events are sent to graph update listeners.
+     * At the end of the outermost batch, each listener receives a single call of GraphUpdateListener.batchCompleted().
+     * Batches can be nested.
+     */
+    public void beginBatch() {
+        beginBatch(0, 0);
+    }
+
+    /**
+     * begins a batch of changes, see beginBatch(). Node and edge arrays created during the batch are
+     * pre-sized to hold the given numbers of additional nodes and edges
+     *
+     * @param expectedNodes number of nodes expected to be created in the batch
+     * @param expectedEdges number of edges expected to be created in the batch
+     */
+    public void beginBatch(int expectedNodes, int expectedEdges) {
+        if (batchDepth++ == 0) {
+            expectedMaxNodeId = (int) Math.min(Basic.MAX_ARRAY_SIZE - 1, (long) maxNodeId + Math.max(0, expectedNodes));
+            expectedMaxEdgeId = (int) Math.min(Basic.MAX_ARRAY_SIZE - 1, (long) maxEdgeId + Math.max(0, expectedEdges));
+            if (expectedNodes > 0) {
+                nodeGenerations = Arrays.copyOf(nodeGenerations, Math.max(nodeGenerations.length, expectedMaxNodeId + 1));
+                denseNodes = Arrays.copyOf(denseNodes, (int) Math.max(denseNodes.length, Math.min(Basic.MAX_ARRAY_SIZE, (long) numberNodes + expectedNodes)));
+            }
+            if (expectedEdges > 0) {
+                edgeGenerations = Arrays.copyOf(edgeGenerations, Math.max(edgeGenerations.length, expectedMaxEdgeId + 1));
+                denseEdges = Arrays.copyOf(denseEdges, (int) Math.max(denseEdges.length, Math.min(Basic.MAX_ARRAY_SIZE, (long) numberEdges + expectedEdges)));
+            }
+        }
+    }
+
+    /**
+     * ends a batch of changes. If this ends the outermost batch, then all graph update listeners are informed
+     */
+    public void endBatch() {
+        if (batchDepth == 0)
+            throw new IllegalStateException("endBatch() without beginBatch()");
+        if (--batchDepth == 0) {
+            expectedMaxNodeId = 0;
+            expectedMaxEdgeId = 0;
+            for (var gul : graphUpdateListeners) {
+                gul.batchCompleted();
+            }
+        }
+    }
+
+    /**
+     * is a batch of changes in progress?
+     *
+     * @return true, if in batch
+     */
+    public boolean isInBatch() {
+        return batchDepth > 0;
+    }
+
+    /**
+     * initial capacity for a new node array or set
+     */
+    int getNodeArrayCapacity() {
+        return Math.max(maxNodeId, expectedMaxNodeId) + 1;
+    }
+
+    /**
+     * initial capacity for a new edge array or set
+     */
+    int getEdgeArrayCapacity() {
+        return Math.max(maxEdgeId, expectedMaxEdgeId) + 1;
+    }
+
     /**
      * copies a graph
      */
@@ -1225,156 +1336,63 @@ public class Graph extends GraphBase implements INamed {
     }
 
     /**
-     * called from constructor of node array to register with graph
+     * increments the generation of an id, growing the array, if necessary
      *
-     * @param array node array
+     * @return the array
      */
-    void registerNodeArray(NodeArray<?> array) {
-        synchronized (nodeArrays) {
-            final var toDelete = new LinkedList<WeakReference<NodeArray<?>>>();
-            for (var ref : nodeArrays) {
-                if (ref.get() == null)
-                    toDelete.add(ref); // reference is dead
-            }
-            nodeArrays.removeAll(toDelete);
-            nodeArrays.add(new WeakReference<>(array));
-        }
+    private static int[] incrementGeneration(int[] generations, int id) {
+        if (id >= generations.length)
+            generations = Arrays.copyOf(generations, PrimitiveValues.newCapacity(generations.length, id));
+        generations[id]++;
+        return generations;
     }
 
     /**
-     * called from deleteNode to clean all array entries for the node
+     * gets the generation of a node id. This is incremented whenever a node with the id is deleted
      *
-     * @param v node
+     * @param id node id
+     * @return generation
      */
-    void deleteNodeFromArrays(Node v) {
-        checkOwner(v);
-        synchronized (nodeArrays) {
-            var toDelete = new LinkedList<WeakReference<NodeArray<?>>>();
-            for (var ref : nodeArrays) {
-				var as = ref.get();
-                if (as == null)
-                    toDelete.add(ref); // reference is dead
-                else {
-                    as.put(v, null);
-                }
-            }
-            nodeArrays.removeAll(toDelete);
-        }
+    int getNodeGeneration(int id) {
+        return id < nodeGenerations.length ? nodeGenerations[id] : 0;
     }
 
     /**
-     * called from constructor of NodeSet to register with graph
+     * gets the generation of an edge id. This is incremented whenever an edge with the id is deleted
      *
-     * @param set node set
+     * @param id edge id
+     * @return generation
      */
-    void registerNodeSet(NodeSet set) {
-        synchronized (nodeSets) {
-            final var toDelete = new LinkedList<WeakReference<NodeSet>>();
-            for (var ref : nodeSets) {
-                if (ref.get() == null)
-                    toDelete.add(ref); // reference is dead
-            }
-            nodeSets.removeAll(toDelete);
-            nodeSets.add(new WeakReference<>(set));
-        }
+    int getEdgeGeneration(int id) {
+        return id < edgeGenerations.length ? edgeGenerations[id] : 0;
     }
 
     /**
-     * called from deleteNode to clean all array entries for the node
-     *
-     * @param v node
+     * gets the total number of node deletions, used by arrays and sets to decide whether they contain outdated entries
      */
-    private void deleteNodeFromSets(Node v) {
-        checkOwner(v);
-        synchronized (nodeSets) {
-            final var toDelete = new LinkedList<WeakReference<NodeSet>>();
-            for (var ref : nodeSets) {
-                if (ref != null) {
-                    final NodeSet set = ref.get();
-                    if (set == null)
-                        toDelete.add(ref); // reference is dead
-                    else {
-                        set.remove(v);
-                    }
-                }
-            }
-            nodeSets.removeAll(toDelete);
-        }
+    int getNumberOfNodeDeletions() {
+        return nodeDeletionLog.getCount();
     }
 
     /**
-     * called from constructor of EdgeAssociation to register with graph
-     *
-	 */
-    void registerEdgeArray(EdgeArray<?> array) {
-        synchronized (edgeArrays) {
-            final var toDelete = new LinkedList<WeakReference<EdgeArray<?>>>();
-            for (var ref : edgeArrays) {
-                if (ref.get() == null)
-                    toDelete.add(ref); // reference is dead
-            }
-            edgeArrays.removeAll(toDelete);
-            edgeArrays.add(new WeakReference<>(array));
-        }
-    }
-
-    /**
-     * called from deleteEdge to clean all array entries for the edge
-     *
-     * @param e edge
+     * gets the log of recently deleted node ids, used by arrays and sets to find their outdated entries
      */
-    void deleteEdgeFromArrays(Edge e) {
-        checkOwner(e);
-        synchronized (edgeArrays) {
-            var toDelete = new LinkedList<WeakReference<EdgeArray<?>>>();
-            for (var ref : edgeArrays) {
-                EdgeArray<?> as = ref.get();
-                if (as == null)
-                    toDelete.add(ref); // reference is dead
-                else {
-                    as.put(e, null);
-                }
-            }
-            edgeArrays.removeAll(toDelete);
-        }
+    DeletionLog getNodeDeletionLog() {
+        return nodeDeletionLog;
     }
 
     /**
-     * called from constructor of EdgeSet to register with graph
-     *
-     * @param set edge set
+     * gets the total number of edge deletions, used by arrays and sets to decide whether they contain outdated entries
      */
-    void registerEdgeSet(EdgeSet set) {
-        synchronized (edgeSets) {
-            final var toDelete = new LinkedList<WeakReference<EdgeSet>>();
-            for (var ref : edgeSets) {
-                if (ref.get() == null)
-                    toDelete.add(ref); // reference is dead
-            }
-            edgeSets.removeAll(toDelete);
-            edgeSets.add(new WeakReference<>(set));
-        }
+    int getNumberOfEdgeDeletions() {
+        return edgeDeletionLog.getCount();
     }
 
     /**
-     * called from deleteEdge to clean all array entries for the edge
-     *
-     * @param e edge
+     * gets the log of recently deleted edge ids, used by arrays and sets to find their outdated entries
      */
-    void deleteEdgeFromSets(Edge e) {
-        checkOwner(e);
-        synchronized (edgeSets) {
-            var toDelete = new LinkedList<WeakReference<EdgeSet>>();
-            for (var ref : edgeSets) {
-                var set = ref.get();
-                if (set == null)
-                    toDelete.add(ref); // reference is dead
-                else {
-                    set.remove(e);
-                }
-            }
-            edgeSets.removeAll(toDelete);
-        }
+    DeletionLog getEdgeDeletionLog() {
+        return edgeDeletionLog;
     }
 
     /**
@@ -1465,8 +1483,15 @@ public class Graph extends GraphBase implements INamed {
         return StreamSupport.stream(edges(afterMe).spliterator(), false);
     }
 
+    /**
+     * gets a parallel edge stream. If afterMe is null, then the stream is based on a spliterator that splits
+     * the set of all edges evenly and is sized, if no edges are hidden. In this case, the stream is unordered
+     */
     public Stream<Edge> edgeParallelStream(Edge afterMe) {
-        return StreamSupport.stream(edges(afterMe).spliterator(), true);
+        if (afterMe == null)
+            return StreamSupport.stream(new GraphSpliterator<>(denseEdges, 0, numberEdges, numberOfEdgesThatAreHidden == 0), true);
+        else
+            return StreamSupport.stream(edges(afterMe).spliterator(), true);
     }
 
     /**
@@ -1536,11 +1561,14 @@ public class Graph extends GraphBase implements INamed {
     }
 
     /**
-     * gets a node stream
-     *
-	 */
+     * gets a parallel node stream. If afterMe is null, then the stream is based on a spliterator that splits
+     * the set of all nodes evenly and is sized, if no nodes are hidden. In this case, the stream is unordered
+     */
     public Stream<Node> nodeParallelStream(Node afterMe) {
-        return StreamSupport.stream(nodes(afterMe).spliterator(), true);
+        if (afterMe == null)
+            return StreamSupport.stream(new GraphSpliterator<>(denseNodes, 0, numberNodes, numberOfNodesThatAreHidden == 0), true);
+        else
+            return StreamSupport.stream(nodes(afterMe).spliterator(), true);
     }
 
     /**
@@ -1673,6 +1701,16 @@ public class Graph extends GraphBase implements INamed {
         return new EdgeDoubleArray(this);
     }
 
+    /**
+     * creates an immutable compact (CSR) snapshot of the graph for read-only algorithm passes.
+     * The snapshot does not reflect later changes to the graph
+     *
+     * @return compact view
+     */
+    public CompactGraphView freeze() {
+        return new CompactGraphView(this);
+    }
+
     /**
      * assigns a number to each node indicating which connected component it is in (0-based)
      *
@@ -1837,50 +1875,6 @@ public class Graph extends GraphBase implements INamed {
         return t;
     }
 
-	void close(NodeSet set) {
-		synchronized (nodeSets) {
-			for (var ref : nodeSets) {
-				if (ref.get() == set) {
-					nodeSets.remove(ref);
-					return;
-				}
-			}
-		}
-	}
-
-	void close(EdgeSet set) {
-		synchronized (edgeSets) {
-			for (var ref : edgeSets) {
-				if (ref.get() == set) {
-					edgeSets.remove(ref);
-					return;
-				}
-			}
-		}
-	}
-
-	void close(NodeArray<?> array) {
-		synchronized (nodeArrays) {
-			for (var ref : nodeArrays) {
-				if (ref.get() == array) {
-					nodeArrays.remove(ref);
-					return;
-				}
-			}
-		}
-	}
-
-    void close(EdgeArray<?> array) {
-        synchronized (edgeArrays) {
-            for (var ref : edgeArrays) {
-                if (ref.get() == array) {
-                    edgeArrays.remove(ref);
-                    return;
-                }
-            }
-        }
-    }
-
     /**
      * iterates over all nodes of degree 1
      */
@@ -0,0 +1,95 @@
+/*
+ * GraphSpliterator.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * spliterator over a range of the dense array of nodes or edges kept by a graph. Splits the range in halves
+ * and skips hidden elements. Sized, if the range contains no hidden elements
+ * Daniel Huson, 2023
+ */
+class GraphSpliterator<T extends NodeEdge> implements Spliterator<T> {
+	private final T[] array;
+	private int origin;
+	private final int fence;
+	private final boolean sized;
+
+	/**
+	 * constructor
+	 *
+	 * @param array  the dense array of elements
+	 * @param origin first position
+	 * @param fence  position after the last
+	 * @param sized  true, if the range contains no hidden elements
+	 */
+	GraphSpliterator(T[] array, int origin, int fence, boolean sized) {
+		this.array = array;
+		this.origin = origin;
+		this.fence = fence;
+		this.sized = sized;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		while (origin < fence) {
+			var a = array[origin++];
+			if (!a.isHidden()) {
+				action.accept(a);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		var a = array;
+		for (var i = origin; i < fence; i++) {
+			if (!a[i].isHidden())
+				action.accept(a[i]);
+		}
+		origin = fence;
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		var mid = (origin + fence) >>> 1;
+		if (mid <= origin)
+			return null;
+		var prefix = new GraphSpliterator<>(array, origin, mid, sized);
+		origin = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return fence - origin;
+	}
+
+	@Override
+	public int characteristics() {
+		return NONNULL | DISTINCT | (sized ? SIZED | SUBSIZED : 0);
+	}
+}
+
+// EOF
@@ -72,4 +72,13 @@ public interface GraphUpdateListener {
 	 */
     void edgeLabelChanged(Edge e, String newLabel);
 
+    /**
+     * A batch of changes has been completed, see Graph.beginBatch().
+     * No other events are sent while a batch is in progress.
+     * By default, calls graphHasChanged()
+     */
+    default void batchCompleted() {
+        graphHasChanged();
+    }
+
 }
@@ -0,0 +1,76 @@
+/*
+ * IntValues.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * primitive int store used by node and edge int arrays
+ * Daniel Huson, 2023
+ */
+final class IntValues extends PrimitiveValues {
+	private int[] values;
+
+	IntValues(int capacity, IntUnaryOperator generation, DeletionLog deletions) {
+		super(capacity, generation, deletions);
+		values = new int[capacity];
+	}
+
+	/**
+	 * get the value for the given id, or 0
+	 */
+	int get(int id) {
+		return has(id) ? values[id] : 0;
+	}
+
+	void set(int id, int value) {
+		mark(id);
+		values[id] = value;
+	}
+
+	int add(int id, int delta) {
+		mark(id);
+		return values[id] += delta;
+	}
+
+	void copy(IntValues src) {
+		values = Arrays.copyOf(src.values, src.values.length);
+		copyStamps(src);
+	}
+
+	@Override
+	void resize(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	void zero(int id) {
+		values[id] = 0;
+	}
+
+	@Override
+	void zeroAll() {
+		Arrays.fill(values, 0);
+	}
+}
+
+// EOF
@@ -34,23 +34,35 @@ import java.util.function.Function;
 
 public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>, Function<Node, T>, AutoCloseable {
 	private T[] data;
-	private int size = 0;
+	private int[] generations; // generation of the id in the graph at the time the entry was set
+	private int size = 0; // number of non-null entries, including outdated ones
+	private int deletionsSeen; // number of node deletions in graph at time of last purge
 
 	/**
 	 * Construct an node array with default value null
 	 */
 	public NodeArray(Graph g) {
-		setOwner(g);
-		data = (T[]) new Object[g.getMaxNodeId() + 1];
-		g.registerNodeArray(this);
+		this(g, g.getNodeArrayCapacity());
     }
 
+	/**
+	 * Construct an node array with the given initial capacity. Used by subclasses that keep their values
+	 * in a primitive array and thus don't need any object storage
+	 */
+	NodeArray(Graph g, int capacity) {
+		setOwner(g);
+		data = (T[]) new Object[capacity];
+		generations = new int[capacity];
+		deletionsSeen = g.getNumberOfNodeDeletions();
+	}
+
     /**
      * Clear all entries.
      */
     public void clear() {
         Arrays.fill(data, null);
         size = 0;
+        deletionsSeen = getOwner().getNumberOfNodeDeletions();
     }
 
     /**
@@ -60,9 +72,18 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
      */
     public NodeArray(NodeArray<T> src) {
         setOwner(src.getOwner());
-        data = (T[]) new Object[src.data.length];
-        System.arraycopy(src.data, 0, data, 0, data.length);
-        size = src.size();
+        if (src instanceof NodeIntArray || src instanceof NodeFloatArray || src instanceof NodeDoubleArray) { // source keeps its values in a primitive array
+            data = (T[]) new Object[getOwner().getNodeArrayCapacity()];
+            generations = new int[data.length];
+            deletionsSeen = getOwner().getNumberOfNodeDeletions();
+            for (var a : src.keys())
+                put(a, src.get(a));
+        } else {
+            data = Arrays.copyOf(src.data, src.data.length);
+            generations = Arrays.copyOf(src.generations, src.generations.length);
+            size = src.size;
+            deletionsSeen = src.deletionsSeen;
+        }
     }
 
     /**
@@ -82,10 +103,12 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
         if (data[id] == null) {
             if (object != null) {
                 data[id] = object;
+                generations[id] = getOwner().getNodeGeneration(id);
                 size++;
             }
-        } else if (data[id] != null) {
+        } else {
             data[id] = object;
+            generations[id] = getOwner().getNodeGeneration(id);
             if (object == null) {
                 size--;
             }
@@ -107,6 +130,7 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
             T[] newData = (T[]) new Object[newSize];
             System.arraycopy(data, 0, newData, 0, data.length);
             data = newData;
+            generations = Arrays.copyOf(generations, newSize);
         }
     }
 
@@ -136,7 +160,8 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
 
                 @Override
                 public T next() {
-                    return data[i++];
+                    var id = i++;
+                    return isValid(id) ? data[id] : null;
                 }
             });
     }
@@ -154,7 +179,7 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
 
                 {
                     while (a != null) {
-                        if (a.getId() < data.length && data[a.getId()] != null)
+                        if (isValid(a.getId()))
                             break;
                         a = a.getNext();
                     }
@@ -172,7 +197,7 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
                     Node result = a;
                     a = a.getNext();
                     while (a != null) {
-                        if (a.getId() < data.length && data[a.getId()] != null)
+                        if (isValid(a.getId()))
                             break;
                         a = a.getNext();
                     }
@@ -183,12 +208,45 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
 
     @Override
     public int size() {
+        purge();
         return size;
     }
 
+    /**
+     * is the entry for the given id set and not outdated?
+     */
+    private boolean isValid(int id) {
+        return id < data.length && data[id] != null && generations[id] == getOwner().getNodeGeneration(id);
+    }
+
+    /**
+     * removes all outdated entries, if there have been any node deletions since the last call. Usually, only the ids deleted since then are checked
+     */
+    private void purge() {
+        var log = getOwner().getNodeDeletionLog();
+        if (log.getCount() != deletionsSeen) {
+            if (!log.forEachSince(deletionsSeen, this::purge)) {
+                for (var id = 0; id < data.length; id++) {
+                    purge(id);
+                }
+            }
+            deletionsSeen = log.getCount();
+        }
+    }
+
+    /**
+     * removes the entry for the given id, if it is outdated
+     */
+    private void purge(int id) {
+        if (id < data.length && data[id] != null && !isValid(id)) {
+            data[id] = null;
+            size--;
+        }
+    }
+
     @Override
     public boolean isEmpty() {
-        return size == 0;
+        return size() == 0;
     }
 
     @Override
@@ -226,7 +284,7 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
         if (key instanceof Node) {
             var a = (Node) key;
             checkOwner(a);
-            if (a.getId() < data.length && data[a.getId()] != null)
+            if (isValid(a.getId()))
                 return data[a.getId()];
             else
                 return null;
@@ -289,7 +347,7 @@ public class NodeArray<T> extends GraphBase implements Iterable<T>, Map<Node, T>
 
 	@Override
 	public void close() {
-		getOwner().close(this);
+		// nothing to do, arrays are not registered with the graph
 	}
 }
 
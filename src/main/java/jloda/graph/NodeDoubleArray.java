@@ -21,18 +21,25 @@
 package jloda.graph;
 
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 /**
- * Node array
- * Daniel Huson, 2003
+ * Node double array
+ * Values are kept in a primitive double array, so get and set don't allocate
+ * Daniel Huson, 2003, 2023
  */
 
 public class NodeDoubleArray extends NodeArray<Double> {
+    private final DoubleValues values;
 
     /**
      * Construct a node array with default value null
      */
     public NodeDoubleArray(Graph g) {
-        super(g);
+        super(g, 0);
+        values = new DoubleValues(g.getNodeArrayCapacity(), g::getNodeGeneration, g.getNodeDeletionLog());
     }
 
     /**
@@ -42,18 +49,120 @@ public class NodeDoubleArray extends NodeArray<Double> {
      */
     public NodeDoubleArray(NodeArray<Double> src) {
         this(src.getOwner());
-        getOwner().nodeStream().forEach(e -> put(e, src.get(e)));
+        if (src instanceof NodeDoubleArray other)
+            values.copy(other.values);
+        else {
+            for (var v : src.keys())
+                put(v, src.get(v));
+        }
     }
 
     /**
-     * Get the entry for node v or the default object
+     * Get the entry for node v or 0
      *
      * @param v Node
      * @return value or 0
      */
     public double getDouble(Node v) {
-        final Double value = get(v);
-        return value != null ? value : 0.0;
+        checkOwner(v);
+        return values.get(v.getId());
+    }
+
+    public void set(Node v, double value) {
+        checkOwner(v);
+        values.set(v.getId(), value);
+    }
+
+    @Override
+    public Double put(Node v, Double value) {
+        checkOwner(v);
+        if (value == null)
+            values.unmark(v.getId());
+        else
+            values.set(v.getId(), value);
+        return value;
+    }
+
+    @Override
+    public Double get(Object key) {
+        if (key instanceof Node v) {
+            checkOwner(v);
+            if (values.has(v.getId()))
+                return values.get(v.getId());
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Node v && v.getOwner() == getOwner() && values.has(v.getId());
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.size() == 0;
+    }
+
+    @Override
+    public Iterator<Double> iterator() {
+        return new Iterator<>() {
+            private int id = values.nextId(0);
+
+            @Override
+            public boolean hasNext() {
+                return id != -1;
+            }
+
+            @Override
+            public Double next() {
+                if (id == -1)
+                    throw new NoSuchElementException();
+                var result = values.get(id);
+                id = values.nextId(id + 1);
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Node> keys() {
+        if (isEmpty())
+            return Collections::emptyIterator;
+        else
+            return () -> new Iterator<>() {
+                private Node v = getOwner().getFirstNode();
+
+                {
+                    while (v != null && !values.has(v.getId()))
+                        v = v.getNext();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return v != null;
+                }
+
+                @Override
+                public Node next() {
+                    if (v == null)
+                        throw new NoSuchElementException();
+                    var result = v;
+                    v = v.getNext();
+                    while (v != null && !values.has(v.getId()))
+                        v = v.getNext();
+                    return result;
+                }
+            };
     }
 }
 
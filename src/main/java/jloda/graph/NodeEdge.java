@@ -31,6 +31,7 @@ abstract class NodeEdge extends GraphBase {
     private int id;
     NodeEdge prev;
     NodeEdge next;
+    int denseIndex; // position in the dense array of all nodes or edges kept by the graph
 
     /**
      * make an empty object
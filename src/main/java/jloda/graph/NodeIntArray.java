@@ -21,18 +21,25 @@
 package jloda.graph;
 
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 /**
  * Node integer array
- * Daniel Huson, 2003
+ * Values are kept in a primitive int array, so get, set and increment don't allocate
+ * Daniel Huson, 2003, 2023
  */
 
 public class NodeIntArray extends NodeArray<Integer> {
+    private final IntValues values;
 
     /**
      * Construct a node array with default value null
      */
     public NodeIntArray(Graph g) {
-        super(g);
+        super(g, 0);
+        values = new IntValues(g.getNodeArrayCapacity(), g::getNodeGeneration, g.getNodeDeletionLog());
     }
 
     /**
@@ -41,10 +48,15 @@ public class NodeIntArray extends NodeArray<Integer> {
      * @param src NodeArray
      */
     public NodeIntArray(NodeArray<Integer> src) {
-        super(src);
+        this(src.getOwner());
+        if (src instanceof NodeIntArray other)
+            values.copy(other.values);
+        else {
+            for (var v : src.keys())
+                put(v, src.get(v));
+        }
     }
 
-
     /**
      * Get the entry for node v or 0
      *
@@ -52,12 +64,13 @@ public class NodeIntArray extends NodeArray<Integer> {
      * @return value or 0
      */
     public int getInt(Node v) {
-        final Integer value = get(v);
-        return value != null ? value : 0;
+        checkOwner(v);
+        return values.get(v.getId());
     }
 
     public void set(Node v, int value) {
-        put(v, value);
+        checkOwner(v);
+        values.set(v.getId(), value);
     }
 
     /**
@@ -65,7 +78,7 @@ public class NodeIntArray extends NodeArray<Integer> {
      *
 	 */
     public void increment(Node v) {
-        set(v, getInt(v) + 1);
+        increment(v, 1);
     }
 
     /**
@@ -73,7 +86,8 @@ public class NodeIntArray extends NodeArray<Integer> {
      *
 	 */
     public void increment(Node v, int value) {
-        set(v, getInt(v) + value);
+        checkOwner(v);
+        values.add(v.getId(), value);
     }
 
     /**
@@ -81,7 +95,7 @@ public class NodeIntArray extends NodeArray<Integer> {
      *
 	 */
     public void decrement(Node v) {
-        set(v, getInt(v) - 1);
+        increment(v, -1);
     }
 
     /**
@@ -89,7 +103,99 @@ public class NodeIntArray extends NodeArray<Integer> {
      *
 	 */
     public void decrement(Node v, int value) {
-        set(v, getInt(v) - value);
+        increment(v, -value);
+    }
+
+    @Override
+    public Integer put(Node v, Integer value) {
+        checkOwner(v);
+        if (value == null)
+            values.unmark(v.getId());
+        else
+            values.set(v.getId(), value);
+        return value;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (key instanceof Node v) {
+            checkOwner(v);
+            if (values.has(v.getId()))
+                return values.get(v.getId());
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Node v && v.getOwner() == getOwner() && values.has(v.getId());
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.size() == 0;
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<>() {
+            private int id = values.nextId(0);
+
+            @Override
+            public boolean hasNext() {
+                return id != -1;
+            }
+
+            @Override
+            public Integer next() {
+                if (id == -1)
+                    throw new NoSuchElementException();
+                var result = values.get(id);
+                id = values.nextId(id + 1);
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Node> keys() {
+        if (isEmpty())
+            return Collections::emptyIterator;
+        else
+            return () -> new Iterator<>() {
+                private Node v = getOwner().getFirstNode();
+
+                {
+                    while (v != null && !values.has(v.getId()))
+                        v = v.getNext();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return v != null;
+                }
+
+                @Override
+                public Node next() {
+                    if (v == null)
+                        throw new NoSuchElementException();
+                    var result = v;
+                    v = v.getNext();
+                    while (v != null && !values.has(v.getId()))
+                        v = v.getNext();
+                    return result;
+                }
+            };
     }
 }
 
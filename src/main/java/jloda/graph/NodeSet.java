@@ -29,6 +29,8 @@ import java.util.*;
  */
 public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
 	private final BitSet bits;
+	private int[] generations = new int[0]; // generation of the id in the graph at the time the node was added
+	private int deletionsSeen; // number of node deletions in graph at time of last purge
 
 	/**
 	 * Constructs a new empty NodeSet for Graph G.
@@ -37,8 +39,8 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
 	 */
 	public NodeSet(Graph graph) {
 		setOwner(graph);
-		graph.registerNodeSet(this);
         bits = new BitSet();
+        deletionsSeen = graph.getNumberOfNodeDeletions();
     }
 
     /**
@@ -47,7 +49,9 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
 	 */
     public NodeSet(NodeSet other) {
         this(other.getOwner());
+        other.purge();
         this.bits.or(other.bits);
+        this.generations = Arrays.copyOf(other.generations, other.generations.length);
     }
 
     /**
@@ -57,7 +61,7 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
      * @return a boolean value
      */
     public boolean contains(Object v) {
-        return v instanceof Node && bits.get(((Node) v).getId());
+        return v instanceof Node && isValid(((Node) v).getId());
     }
 
     /**
@@ -67,10 +71,12 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
      * @return true, if new
      */
     public boolean add(Node v) {
-        if (bits.get(getOwner().getId(v)))
+        var id = getOwner().getId(v);
+        if (isValid(id))
             return false;
         else {
-            bits.set(getOwner().getId(v), true);
+            bits.set(id, true);
+            setGeneration(id);
             return true;
         }
     }
@@ -81,11 +87,10 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
      * @param v Node
      */
     public boolean remove(Object v) {
-        if (bits.get(getOwner().getId((Node) v))) {
-            bits.set(getOwner().getId((Node) v), false);
-            return true;
-        } else
-            return false;
+        var id = getOwner().getId((Node) v);
+        var contained = isValid(id);
+        bits.set(id, false);
+        return contained;
 
     }
 
@@ -169,6 +174,7 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
      * @return true, if set changes
      */
     public boolean retainAll(final Collection<?> collection) {
+        purge();
         final int old = bits.cardinality();
         final BitSet newBits = new BitSet();
 
@@ -186,6 +192,7 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
      */
     public void clear() {
         bits.clear();
+        deletionsSeen = getOwner().getNumberOfNodeDeletions();
     }
 
     /**
@@ -194,6 +201,7 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
      * @return true, if empty
      */
     public boolean isEmpty() {
+        purge();
         return bits.isEmpty();
     }
 
@@ -210,6 +218,7 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
      * @return size
      */
     public int size() {
+        purge();
         return bits.cardinality();
     }
 
@@ -356,12 +365,46 @@ public class NodeSet extends GraphBase implements Set<Node>, AutoCloseable {
 	 * @return true, if intersection is non-empty
 	 */
 	public boolean intersects(NodeSet aset) {
+		purge();
+		aset.purge();
 		return bits.intersects(aset.bits);
 	}
 
+	/**
+	 * is the id contained in the set and not outdated?
+	 */
+	private boolean isValid(int id) {
+		return bits.get(id) && id < generations.length && generations[id] == getOwner().getNodeGeneration(id);
+	}
+
+	private void setGeneration(int id) {
+		if (id >= generations.length)
+			generations = Arrays.copyOf(generations, PrimitiveValues.newCapacity(generations.length, id));
+		generations[id] = getOwner().getNodeGeneration(id);
+	}
+
+	/**
+	 * removes all outdated ids, if there have been any node deletions since the last call. Usually, only the ids deleted since then are checked
+	 */
+	private void purge() {
+		var log = getOwner().getNodeDeletionLog();
+		if (log.getCount() != deletionsSeen) {
+			if (!log.forEachSince(deletionsSeen, id -> {
+				if (bits.get(id) && !isValid(id))
+					bits.clear(id);
+			})) {
+				for (var id = bits.nextSetBit(0); id != -1; id = bits.nextSetBit(id + 1)) {
+					if (!isValid(id))
+						bits.clear(id);
+				}
+			}
+			deletionsSeen = log.getCount();
+		}
+	}
+
 	@Override
 	public void close() {
-		getOwner().close(this);
+		// nothing to do, sets are not registered with the graph
 	}
 }
 
@@ -0,0 +1,184 @@
+/*
+ * PrimitiveValues.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph;
+
+import jloda.util.Basic;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * base class of the primitive value stores used by the int, float and double node and edge arrays.
+ * Values are kept in a primitive array indexed by id. For each id, a stamp records the generation of the id
+ * in the graph at the time the value was set, plus one, or 0, if no value is set. A value is only valid if its stamp matches the
+ * current generation, so entries for deleted nodes or edges are detected lazily
+ * Daniel Huson, 2023
+ */
+abstract class PrimitiveValues {
+	private final IntUnaryOperator generation;
+	private final DeletionLog deletions;
+	private int[] stamps;
+	private int size = 0; // number of non-zero stamps, including outdated ones
+	private int deletionsSeen;
+
+	/**
+	 * constructor
+	 *
+	 * @param capacity   initial capacity
+	 * @param generation maps an id to its current generation in the graph
+	 * @param deletions  log of the deletions that have taken place in the graph
+	 */
+	PrimitiveValues(int capacity, IntUnaryOperator generation, DeletionLog deletions) {
+		this.generation = generation;
+		this.deletions = deletions;
+		this.stamps = new int[capacity];
+		this.deletionsSeen = deletions.getCount();
+	}
+
+	/**
+	 * resize the primitive array to the given length
+	 */
+	abstract void resize(int newCapacity);
+
+	/**
+	 * zero the given entry of the primitive array
+	 */
+	abstract void zero(int id);
+
+	/**
+	 * zero all entries of the primitive array
+	 */
+	abstract void zeroAll();
+
+	/**
+	 * does the given id have a valid value?
+	 */
+	boolean has(int id) {
+		return id < stamps.length && stamps[id] != 0 && stamps[id] == generation.applyAsInt(id) + 1;
+	}
+
+	/**
+	 * record that the given id has a value, growing the primitive array, if necessary. An outdated value is zeroed
+	 */
+	void mark(int id) {
+		if (id >= stamps.length) {
+			var newCapacity = newCapacity(stamps.length, id);
+			stamps = Arrays.copyOf(stamps, newCapacity);
+			resize(newCapacity);
+		}
+		var stamp = generation.applyAsInt(id) + 1;
+		if (stamps[id] != stamp) {
+			if (stamps[id] == 0)
+				size++;
+			else
+				zero(id);
+			stamps[id] = stamp;
+		}
+	}
+
+	/**
+	 * remove the value for the given id
+	 *
+	 * @return true, if the id had a valid value
+	 */
+	boolean unmark(int id) {
+		if (id < stamps.length && stamps[id] != 0) {
+			var had = has(id);
+			stamps[id] = 0;
+			zero(id);
+			size--;
+			return had;
+		} else
+			return false;
+	}
+
+	/**
+	 * @return next id that has a valid value, or -1
+	 */
+	int nextId(int fromId) {
+		for (var id = fromId; id < stamps.length; id++) {
+			if (has(id))
+				return id;
+		}
+		return -1;
+	}
+
+	int size() {
+		purge();
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(stamps, 0);
+		zeroAll();
+		size = 0;
+		deletionsSeen = deletions.getCount();
+	}
+
+	/**
+	 * removes all outdated values, if there have been any deletions since the last call. Usually, only the ids deleted since then are checked
+	 */
+	private void purge() {
+		if (deletions.getCount() != deletionsSeen) {
+			if (!deletions.forEachSince(deletionsSeen, this::purge)) {
+				for (var id = 0; id < stamps.length; id++) {
+					purge(id);
+				}
+			}
+			deletionsSeen = deletions.getCount();
+		}
+	}
+
+	/**
+	 * removes the value for the given id, if it is outdated
+	 */
+	private void purge(int id) {
+		if (id < stamps.length && stamps[id] != 0 && !has(id)) {
+			stamps[id] = 0;
+			zero(id);
+			size--;
+		}
+	}
+
+	/**
+	 * copy the stamps from another store
+	 */
+	void copyStamps(PrimitiveValues src) {
+		stamps = Arrays.copyOf(src.stamps, src.stamps.length);
+		size = src.size;
+		deletionsSeen = src.deletionsSeen;
+	}
+
+	/**
+	 * determines the new length. Repeatedly doubles the length until it contains index n
+	 */
+	static int newCapacity(int capacity, int n) {
+		int newSize = Math.max(1, 2 * capacity);
+		while (newSize <= n && 2L * newSize < (long) Basic.MAX_ARRAY_SIZE) {
+			newSize *= 2;
+		}
+		if (newSize <= n)
+			newSize = Basic.MAX_ARRAY_SIZE;
+		return newSize;
+	}
+}
+
+// EOF
@@ -20,79 +20,127 @@
 
 package jloda.graph.algorithms;
 
+import jloda.graph.CompactGraphView;
 import jloda.graph.Edge;
 import jloda.graph.Graph;
 import jloda.graph.Node;
-import jloda.graph.NodeIntArray;
+import jloda.util.IndexedDaryHeap;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /**
- * provides all shortest paths
+ * provides all shortest paths, treating the graph as undirected
+ * <p>
+ * For dense graphs, uses a cache-blocked Floyd-Warshall algorithm, processing the blocks of each round in parallel.
+ * For sparse graphs, runs Dijkstra's algorithm (or breadth-first search, if all edges have the same weight) from all sources in parallel.
+ * Distances are kept in a {@link DistanceMatrix}, which can hold doubles or floats, or be memory-mapped.
+ * The first edge of each shortest path is kept as an edge index in a flat int array.
+ * <p>
  * Adapted from: http://underpop.online.fr/j/java/help/all-pairs-shortest-paths.html
- * Daniel Huson, 3.2021
+ * Daniel Huson, 3.2021, 2023
  */
 public class AllShortestPaths {
-    private final NodeIntArray node2index;
-    private final Edge[][] path;
-    private final double[][] distances;
+    public enum Algorithm {Auto, FloydWarshall, Dijkstra}
+
+    private static final int BLOCK_SIZE = 64;
+
+    private final CompactGraphView view;
+    private final int n;
+    private final DistanceMatrix distances;
+    private final int[] firstEdge; // s*n+t to index of first edge on a shortest path from s to t, or -1
 
     public AllShortestPaths(Graph graph) {
         this(graph, e -> 1.0);
     }
 
     public AllShortestPaths(Graph graph, Function<Edge, ? extends Number> weights) {
-        final var n = graph.getNumberOfNodes();
-        node2index = graph.newNodeIntArray();
-        var nodes = new Node[n];
-        {
-            var index = 0;
-            for (var v : graph.nodes()) {
-                node2index.put(v, index);
-                nodes[index++] = v;
-            }
-        }
-        path = new Edge[n][n];
-        distances = new double[n][n];
+        this(graph, weights, Algorithm.Auto, DistanceMatrix.createDouble(graph.getNumberOfNodes()), true, Runtime.getRuntime().availableProcessors());
+    }
 
-        for (var s = 0; s < n; s++) {
-            for (var t = 0; t < n; t++) {
-                if (s != t)
-                    distances[s][t] = Double.MAX_VALUE;
-            }
+    /**
+     * computes all shortest paths
+     *
+     * @param graph           the graph
+     * @param weights         non-negative edge weights
+     * @param algorithm       algorithm to use, Auto chooses Floyd-Warshall for dense graphs and Dijkstra otherwise
+     * @param distances       matrix to hold the distances, must have one row per node of the graph
+     * @param computePaths    keep the first edge of each path, requires an int array of size n*n
+     * @param numberOfThreads number of threads to use
+     */
+    public AllShortestPaths(Graph graph, Function<Edge, ? extends Number> weights, Algorithm algorithm, DistanceMatrix distances, boolean computePaths, int numberOfThreads) {
+        view = graph.freeze();
+        n = view.getNumberOfNodes();
+        if (distances.size() != n)
+            throw new IllegalArgumentException("Distance matrix has wrong size: " + distances.size());
+        this.distances = distances;
+        if (computePaths) {
+            DistanceMatrix.checkArraySize(n);
+            firstEdge = new int[n * n];
+        } else
+            firstEdge = null;
+
+        var edgeWeights = Dijkstra.edgeWeights(view, weights);
+        for (var w : edgeWeights) {
+            if (w < 0)
+                throw new IllegalArgumentException("Negative edge weight: " + w);
         }
 
-        for (var s = 0; s < n; s++) {
-            for (var t = 0; t < n; t++) {
-                if (s != t) {
-                    var e = nodes[s].getCommonEdge(nodes[t]);
-                    if (e != null) {
-                        path[s][t] = e;
-                        distances[s][t] = weights.apply(e).doubleValue();
-                    }
-                }
-            }
+        if (algorithm == Algorithm.Auto)
+            algorithm = (isDense(view) ? Algorithm.FloydWarshall : Algorithm.Dijkstra);
+
+        var pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+        try {
+            if (algorithm == Algorithm.FloydWarshall)
+                floydWarshall(edgeWeights, pool);
+            else
+                allSources(edgeWeights, pool);
+        } finally {
+            pool.shutdown();
         }
-        for (var i = 0; i < n; i++)
-            for (var s = 0; s < n; s++)
-                if (path[s][i] != null)
-                    for (var t = 0; t < n; t++)
-                        if (s != t)
-                            if (distances[s][t] > distances[s][i] + distances[i][t]) {
-                                path[s][t] = path[s][i];
-                                distances[s][t] = distances[s][i] + distances[i][t];
-                            }
     }
 
+    /**
+     * gets the first edge on a shortest path from s to t
+     *
+     * @return edge or null
+     */
     public Edge path(Node s, Node t) {
-        return path[node2index.get(s)][node2index.get(t)];
+        if (firstEdge == null)
+            throw new IllegalStateException("paths not computed");
+        var e = firstEdge[view.getIndex(s) * n + view.getIndex(t)];
+        return e == -1 ? null : view.getEdge(e);
     }
 
+    /**
+     * gets the distance from s to t
+     *
+     * @return distance, or Double.MAX_VALUE, if t not reachable from s
+     */
     public double getDistance(Node s, Node t) {
-        return distances[node2index.get(s)][node2index.get(t)];
+        return toDistance(distances.get(view.getIndex(s), view.getIndex(t)));
     }
 
+    /**
+     * gets all distances as a new array, nodes are numbered in the order in which they appear in the graph
+     *
+     * @return distances, with Double.MAX_VALUE for pairs that are not connected
+     */
     public double[][] getDistances() {
+        var result = new double[n][n];
+        for (var s = 0; s < n; s++) {
+            for (var t = 0; t < n; t++)
+                result[s][t] = toDistance(distances.get(s, t));
+        }
+        return result;
+    }
+
+    /**
+     * gets the distance matrix, with infinity for pairs that are not connected
+     */
+    public DistanceMatrix getDistanceMatrix() {
         return distances;
     }
 
@@ -105,4 +153,177 @@ public class AllShortestPaths {
         var algorithm = new AllShortestPaths(graph, weights);
         return algorithm.getDistances();
     }
-}
\ No newline at end of file
+
+    private static double toDistance(double value) {
+        return value == Double.POSITIVE_INFINITY ? Double.MAX_VALUE : value;
+    }
+
+    /**
+     * Floyd-Warshall costs n^3, running Dijkstra from all sources costs about n*(m+n*log(n)) for m edges
+     */
+    private static boolean isDense(CompactGraphView view) {
+        var n = (double) view.getNumberOfNodes();
+        var m = (double) view.getNumberOfEdges();
+        return n * n <= 4.0 * m * Math.max(1.0, Math.log(n) / Math.log(2));
+    }
+
+    /**
+     * cache-blocked Floyd-Warshall. In each round k, first the diagonal block (k,k) is processed, then all blocks in row and
+     * column k, in parallel, and finally all remaining blocks, in parallel
+     */
+    private void floydWarshall(double[] edgeWeights, ForkJoinPool pool) {
+        distances.fill(Double.POSITIVE_INFINITY);
+        if (firstEdge != null)
+            Arrays.fill(firstEdge, -1);
+        for (var s = 0; s < n; s++)
+            distances.set(s, s, 0.0);
+        for (var e = 0; e < edgeWeights.length; e++) {
+            var s = view.getSource(e);
+            var t = view.getTarget(e);
+            if (edgeWeights[e] < distances.get(s, t)) {
+                distances.set(s, t, edgeWeights[e]);
+                distances.set(t, s, edgeWeights[e]);
+                if (firstEdge != null) {
+                    firstEdge[s * n + t] = e;
+                    firstEdge[t * n + s] = e;
+                }
+            }
+        }
+
+        var blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        for (var kb = 0; kb < blocks; kb++) {
+            final var k = kb;
+            updateBlock(k, k, k);
+            pool.submit(() -> IntStream.range(0, blocks).parallel().filter(b -> b != k).forEach(b -> {
+                updateBlock(k, b, k);
+                updateBlock(b, k, k);
+            })).join();
+            pool.submit(() -> IntStream.range(0, blocks * blocks).parallel().forEach(ij -> {
+                var ib = ij / blocks;
+                var jb = ij % blocks;
+                if (ib != k && jb != k)
+                    updateBlock(ib, jb, k);
+            })).join();
+        }
+    }
+
+    /**
+     * relaxes all pairs in block (ib,jb) via all intermediate nodes in block kb
+     */
+    private void updateBlock(int ib, int jb, int kb) {
+        var iEnd = Math.min(n, (ib + 1) * BLOCK_SIZE);
+        var jEnd = Math.min(n, (jb + 1) * BLOCK_SIZE);
+        var kEnd = Math.min(n, (kb + 1) * BLOCK_SIZE);
+        for (var k = kb * BLOCK_SIZE; k < kEnd; k++) {
+            for (var i = ib * BLOCK_SIZE; i < iEnd; i++) {
+                var dik = distances.get(i, k);
+                if (dik == Double.POSITIVE_INFINITY)
+                    continue;
+                for (var j = jb * BLOCK_SIZE; j < jEnd; j++) {
+                    var dij = dik + distances.get(k, j);
+                    if (dij < distances.get(i, j)) {
+                        distances.set(i, j, dij);
+                        if (firstEdge != null)
+                            firstEdge[i * n + j] = firstEdge[i * n + k];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * runs Dijkstra, or breadth-first search if all edge weights are the same, from every source, in parallel
+     */
+    private void allSources(double[] edgeWeights, ForkJoinPool pool) {
+        var uniform = Arrays.stream(edgeWeights).allMatch(w -> w == edgeWeights[0]);
+        var scratch = ThreadLocal.withInitial(() -> new Scratch(n, !uniform));
+        pool.submit(() -> IntStream.range(0, n).parallel().forEach(s -> {
+            var local = scratch.get();
+            if (uniform)
+                breadthFirstSearch(s, edgeWeights.length > 0 ? edgeWeights[0] : 1.0, local);
+            else
+                dijkstra(s, edgeWeights, local);
+            distances.setRow(s, local.distance);
+            if (firstEdge != null)
+                System.arraycopy(local.first, 0, firstEdge, s * n, n);
+        })).join();
+    }
+
+    private void dijkstra(int s, double[] edgeWeights, Scratch scratch) {
+        var distance = scratch.distance;
+        var first = scratch.first;
+        var queue = scratch.queue;
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        Arrays.fill(first, -1);
+        distance[s] = 0.0;
+        queue.insertOrDecrease(s, 0.0);
+        while (!queue.isEmpty()) {
+            var u = queue.poll();
+            var du = distance[u];
+            for (var k = view.outStart(u); k < view.outEnd(u); k++)
+                relax(s, u, view.outTarget(k), view.outEdge(k), du + edgeWeights[view.outEdge(k)], scratch);
+            for (var k = view.inStart(u); k < view.inEnd(u); k++)
+                relax(s, u, view.inSource(k), view.inEdge(k), du + edgeWeights[view.inEdge(k)], scratch);
+        }
+    }
+
+    private static void relax(int s, int u, int v, int e, double dv, Scratch scratch) {
+        if (dv < scratch.distance[v]) {
+            scratch.distance[v] = dv;
+            scratch.first[v] = (u == s ? e : scratch.first[u]);
+            scratch.queue.insertOrDecrease(v, dv);
+        }
+    }
+
+    private void breadthFirstSearch(int s, double weight, Scratch scratch) {
+        var distance = scratch.distance;
+        var first = scratch.first;
+        var level = scratch.level;
+        var queue = scratch.fifo;
+        Arrays.fill(level, -1);
+        Arrays.fill(first, -1);
+        level[s] = 0;
+        var tail = 0;
+        queue[tail++] = s;
+        for (var head = 0; head < tail; head++) {
+            var u = queue[head];
+            for (var k = view.outStart(u); k < view.outEnd(u); k++) {
+                var v = view.outTarget(k);
+                if (level[v] == -1) {
+                    level[v] = level[u] + 1;
+                    first[v] = (u == s ? view.outEdge(k) : first[u]);
+                    queue[tail++] = v;
+                }
+            }
+            for (var k = view.inStart(u); k < view.inEnd(u); k++) {
+                var v = view.inSource(k);
+                if (level[v] == -1) {
+                    level[v] = level[u] + 1;
+                    first[v] = (u == s ? view.inEdge(k) : first[u]);
+                    queue[tail++] = v;
+                }
+            }
+        }
+        for (var v = 0; v < n; v++)
+            distance[v] = (level[v] == -1 ? Double.POSITIVE_INFINITY : level[v] * weight);
+    }
+
+    /**
+     * per-thread work arrays
+     */
+    private static class Scratch {
+        final double[] distance;
+        final int[] first;
+        final IndexedDaryHeap queue;
+        final int[] level;
+        final int[] fifo;
+
+        Scratch(int n, boolean weighted) {
+            distance = new double[n];
+            first = new int[n];
+            queue = (weighted ? new IndexedDaryHeap(n) : null);
+            level = (weighted ? null : new int[n]);
+            fifo = (weighted ? null : new int[n]);
+        }
+    }
+}
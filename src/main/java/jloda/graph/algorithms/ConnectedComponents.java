@@ -20,9 +20,11 @@
 
 package jloda.graph.algorithms;
 
+import jloda.graph.CompactGraphView;
 import jloda.graph.Graph;
 import jloda.graph.Node;
 
+import java.util.Arrays;
 import java.util.Set;
 
 /**
@@ -36,16 +38,56 @@ public class ConnectedComponents {
      * @return connected components
      */
     public static int count(Graph graph) {
-        var result = 0;
-        var used = graph.newNodeSet();
+        return count(graph.freeze());
+    }
+
+    /**
+     * gets the number of connected components of a compact graph view
+     *
+     * @return connected components
+     */
+    public static int count(CompactGraphView view) {
+        return compute(view, new int[view.getNumberOfNodes()]);
+    }
 
-        for (var v : graph.nodes()) {
-            if (!used.contains(v)) {
-                collect(v, used);
-                result++;
+    /**
+     * assigns a number to each node index indicating which connected component it is in (0-based)
+     *
+     * @param view      compact graph view
+     * @param component array of length number of nodes, used to return the component of each node index
+     * @return the number of connected components
+     */
+    public static int compute(CompactGraphView view, int[] component) {
+        var n = view.getNumberOfNodes();
+        Arrays.fill(component, 0, n, -1);
+        var stack = new int[n];
+        var count = 0;
+        for (var s = 0; s < n; s++) {
+            if (component[s] == -1) {
+                var top = 0;
+                stack[top++] = s;
+                component[s] = count;
+                while (top > 0) {
+                    var v = stack[--top];
+                    for (var k = view.outStart(v); k < view.outEnd(v); k++) {
+                        var w = view.outTarget(k);
+                        if (component[w] == -1) {
+                            component[w] = count;
+                            stack[top++] = w;
+                        }
+                    }
+                    for (var k = view.inStart(v); k < view.inEnd(v); k++) {
+                        var w = view.inSource(k);
+                        if (component[w] == -1) {
+                            component[w] = count;
+                            stack[top++] = w;
+                        }
+                    }
+                }
+                count++;
             }
         }
-        return result;
+        return count;
     }
 
     /**
@@ -1,115 +1,189 @@
-/*
- * Dijkstra.java Copyright (C) 2023 Daniel H. Huson
- *
- * (Some files contain contributions from other authors, who are then mentioned separately.)
- *
- * This program is free software: you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program.  If not, see <http://www.gnu.org/licenses/>.
- *
- */
-
 package jloda.graph.algorithms;
 
 
 import jloda.graph.*;
+import jloda.util.IndexedDaryHeap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.function.Function;
 
 /**
  * Dijkstras algorithm for single source shortest path, non-negative edge lengths
+ * Uses an indexed d-ary heap on the nodes of a compact graph view. Nodes are only added to the
+ * queue when first reached, and the search stops as soon as the sink is settled.
  *
  * @author huson
- * Date: 11-Dec-2004
+ * Date: 11-Dec-2004, 2023
  */
 public class Dijkstra {
     /**
      * compute single source shortest path from source to sink, non-negative edge weights
      *
      * @param graph  with adjacentEdges labeled by Integers
-     * @return shortest path from source to sink
+     * @return shortest path from source to sink, excluding source and sink
      */
     public static List<Node> compute(final Graph graph, Node source, Node sink, Function<Edge, Number> weights) {
-        try (NodeArray<Node> predecessor = graph.newNodeArray()) {
-            var dist = graph.newNodeDoubleArray();
-            var priorityQueue = newFullQueue(graph, dist);
-
-            // init:
-            for (var v : graph.nodes()) {
-                dist.put(v, 1000000.0);
-                predecessor.put(v, null);
-            }
-            dist.put(source, 0.0);
-
-            // main loop:
-            while (!priorityQueue.isEmpty()) {
-                var size = priorityQueue.size();
-                var u = priorityQueue.first();
-                priorityQueue.remove(u);
-                if (priorityQueue.size() != size - 1)
-                    throw new RuntimeException("remove u=" + u + " failed: size=" + size);
-
-                for (var e : u.outEdges()) {
-                    var weight = weights.apply(e).doubleValue();
-                    var v = e.getOpposite(u);
-                    if (dist.get(v) > dist.get(u) + weight) {
-                        // priorty of v changes, so must re-and to queue:
-                        priorityQueue.remove(v);
-                        dist.put(v, dist.get(u) + weight);
-                        priorityQueue.add(v);
-                        predecessor.put(v, u);
-                    }
+        if (source.getOwner() != graph || sink.getOwner() != graph)
+            throw new IllegalArgumentException("Source or sink not contained in graph");
+        var view = graph.freeze();
+        var sourceIndex = view.getIndex(source);
+        var sinkIndex = view.getIndex(sink);
+        if (sourceIndex == -1 || sinkIndex == -1)
+            throw new IllegalArgumentException("Source or sink not contained in graph");
+        var result = computeMultiSource(view, new int[]{sourceIndex}, edgeWeights(view, weights), sinkIndex);
+        if (!result.isReached(sinkIndex))
+            throw new RuntimeException("No path from sink back to source");
+        var path = result.getNodePath(sinkIndex);
+        return new ArrayList<>(path.subList(1, Math.max(1, path.size() - 1)));
+    }
+
+    /**
+     * compute the shortest paths from one source to all nodes
+     *
+     * @param view    compact graph view
+     * @param source  index of source node
+     * @param weights edge weights, indexed by edge index
+     * @return distances and predecessors
+     */
+    public static Result computeOneToAll(CompactGraphView view, int source, double[] weights) {
+        return computeMultiSource(view, new int[]{source}, weights, -1);
+    }
+
+    /**
+     * compute the shortest paths from a set of sources, i.e. the distance of a node is its distance to the closest source
+     *
+     * @param view    compact graph view
+     * @param sources indices of source nodes
+     * @param weights non-negative edge weights, indexed by edge index
+     * @param sink    index of sink node, at which the search stops once it is settled, or -1 to compute paths to all nodes
+     * @return distances and predecessors
+     */
+    public static Result computeMultiSource(CompactGraphView view, int[] sources, double[] weights, int sink) {
+        var n = view.getNumberOfNodes();
+        var distance = new double[n];
+        var predecessorEdge = new int[n];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        Arrays.fill(predecessorEdge, -1);
+
+        var queue = new IndexedDaryHeap(n);
+        for (var s : sources) {
+            distance[s] = 0.0;
+            queue.insertOrDecrease(s, 0.0);
+        }
+
+        while (!queue.isEmpty()) {
+            var u = queue.poll();
+            if (u == sink)
+                break;
+            var du = distance[u];
+            for (var k = view.outStart(u); k < view.outEnd(u); k++) {
+                var e = view.outEdge(k);
+                var weight = weights[e];
+                if (weight < 0)
+                    throw new IllegalArgumentException("Negative edge weight: " + weight);
+                var v = view.outTarget(k);
+                var dv = du + weight;
+                if (dv < distance[v]) {
+                    distance[v] = dv;
+                    predecessorEdge[v] = e;
+                    queue.insertOrDecrease(v, dv);
                 }
             }
-            System.err.println("done main loop");
-            var result = new ArrayList<Node>();
-            var v = sink;
-            while (v != source) {
-                if (v == null)
-                    throw new RuntimeException("No path from sink back to source");
-                System.err.println("v: " + v);
-                if (v != sink)
-                    result.add(0, v);
-                v = predecessor.get(v);
-            }
-            System.err.println("# Dijkstra: " + result.size());
-            return result;
         }
+        return new Result(view, distance, predecessorEdge);
     }
 
     /**
-     * setups the priority queue
+     * gets the edge weights as an array indexed by edge index
      *
-     * @return full priority queue
-     * @
+     * @param view    compact graph view
+     * @param weights edge weights
+     * @return weights by edge index
      */
-    static public SortedSet<Node> newFullQueue(final Graph graph, final NodeDoubleArray dist) {
-        var queue = new TreeSet<Node>((v1, v2) -> {
-            var weight1 = dist.get(v1);
-            var weight2 = dist.get(v2);
-            //System.out.println("weight1 " + weight1 + " weight2 " + weight2);
-            //System.out.println("graph.getId(v1) " + graph.getId(v1) + " graph.getId(v2) " + graph.getId(v2));
-            if (weight1 < weight2)
-                return -1;
-            else if (weight1 > weight2)
-                return 1;
-            else return Integer.compare(v1.getId(), v2.getId());
-        });
-        for (var v : graph.nodes())
-            queue.add(v);
-        return queue;
+    public static double[] edgeWeights(CompactGraphView view, Function<Edge, ? extends Number> weights) {
+        var result = new double[view.getNumberOfEdges()];
+        for (var e = 0; e < result.length; e++)
+            result[e] = weights.apply(view.getEdge(e)).doubleValue();
+        return result;
+    }
+
+    /**
+     * result of a shortest path computation: distances and predecessor edges, indexed by node index of the view.
+     * Unreached nodes have distance infinity and predecessor edge -1
+     */
+    public static class Result {
+        private final CompactGraphView view;
+        private final double[] distance;
+        private final int[] predecessorEdge;
+
+        Result(CompactGraphView view, double[] distance, int[] predecessorEdge) {
+            this.view = view;
+            this.distance = distance;
+            this.predecessorEdge = predecessorEdge;
+        }
+
+        public CompactGraphView getView() {
+            return view;
+        }
+
+        /**
+         * @return distances, indexed by node index
+         */
+        public double[] getDistances() {
+            return distance;
+        }
+
+        /**
+         * @return predecessor edges, indexed by node index, -1 for sources and unreached nodes
+         */
+        public int[] getPredecessorEdges() {
+            return predecessorEdge;
+        }
+
+        public double getDistance(int v) {
+            return distance[v];
+        }
+
+        public boolean isReached(int v) {
+            return distance[v] < Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * gets the path from the closest source to the given node
+         *
+         * @param target node index
+         * @return node indices along path, starting at a source and ending at target, or empty, if not reached
+         */
+        public int[] getPath(int target) {
+            if (!isReached(target))
+                return new int[0];
+            var length = 1;
+            for (var v = target; predecessorEdge[v] != -1; v = view.getSource(predecessorEdge[v]))
+                length++;
+            var path = new int[length];
+            var v = target;
+            for (var i = length - 1; i >= 0; i--) {
+                path[i] = v;
+                if (i > 0)
+                    v = view.getSource(predecessorEdge[v]);
+            }
+            return path;
+        }
+
+        /**
+         * gets the path from the closest source to the given node
+         *
+         * @param target node index
+         * @return nodes along path, starting at a source and ending at target, or empty, if not reached
+         */
+        public List<Node> getNodePath(int target) {
+            var path = getPath(target);
+            var result = new ArrayList<Node>(path.length);
+            for (var v : path)
+                result.add(view.getNode(v));
+            return result;
+        }
     }
 }
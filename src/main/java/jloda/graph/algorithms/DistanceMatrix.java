@@ -0,0 +1,204 @@
+/*
+ * DistanceMatrix.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph.algorithms;
+
+import jloda.util.Basic;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * a square matrix of distances, held either as doubles or floats in a flat array on the heap, or as doubles in a
+ * memory-mapped file, for matrices that are too large for the heap
+ * Daniel Huson, 2023
+ */
+public abstract class DistanceMatrix implements AutoCloseable {
+	final int n;
+
+	DistanceMatrix(int n) {
+		this.n = n;
+	}
+
+	/**
+	 * creates a matrix of doubles on the heap
+	 */
+	public static DistanceMatrix createDouble(int n) {
+		return new DoubleMatrix(n);
+	}
+
+	/**
+	 * creates a matrix of floats on the heap, using half the memory of a matrix of doubles
+	 */
+	public static DistanceMatrix createFloat(int n) {
+		return new FloatMatrix(n);
+	}
+
+	/**
+	 * creates a matrix of doubles in a memory-mapped file
+	 *
+	 * @param n    number of rows and columns
+	 * @param file the file, will be created or overwritten
+	 */
+	public static DistanceMatrix createMapped(int n, Path file) throws IOException {
+		return new MappedMatrix(n, file);
+	}
+
+	/**
+	 * @return number of rows and columns
+	 */
+	public int size() {
+		return n;
+	}
+
+	public abstract double get(int s, int t);
+
+	public abstract void set(int s, int t, double value);
+
+	/**
+	 * sets all entries to the given value
+	 */
+	public abstract void fill(double value);
+
+	/**
+	 * copies a complete row into the matrix
+	 */
+	public void setRow(int s, double[] row) {
+		for (var t = 0; t < n; t++)
+			set(s, t, row[t]);
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+
+	static void checkArraySize(int n) {
+		if ((long) n * n > Basic.MAX_ARRAY_SIZE)
+			throw new IllegalArgumentException("Too many nodes for in-memory matrix: " + n + ", use a memory-mapped matrix");
+	}
+
+	private static class DoubleMatrix extends DistanceMatrix {
+		private final double[] data;
+
+		DoubleMatrix(int n) {
+			super(n);
+			checkArraySize(n);
+			data = new double[n * n];
+		}
+
+		@Override
+		public double get(int s, int t) {
+			return data[s * n + t];
+		}
+
+		@Override
+		public void set(int s, int t, double value) {
+			data[s * n + t] = value;
+		}
+
+		@Override
+		public void fill(double value) {
+			Arrays.fill(data, value);
+		}
+
+		@Override
+		public void setRow(int s, double[] row) {
+			System.arraycopy(row, 0, data, s * n, n);
+		}
+	}
+
+	private static class FloatMatrix extends DistanceMatrix {
+		private final float[] data;
+
+		FloatMatrix(int n) {
+			super(n);
+			checkArraySize(n);
+			data = new float[n * n];
+		}
+
+		@Override
+		public double get(int s, int t) {
+			return data[s * n + t];
+		}
+
+		@Override
+		public void set(int s, int t, double value) {
+			data[s * n + t] = (float) value;
+		}
+
+		@Override
+		public void fill(double value) {
+			Arrays.fill(data, (float) value);
+		}
+	}
+
+	private static class MappedMatrix extends DistanceMatrix {
+		private static final long MAX_CHUNK_BYTES = 1L << 30;
+		private final FileChannel channel;
+		private final int rowsPerChunk;
+		private final DoubleBuffer[] chunks;
+
+		MappedMatrix(int n, Path file) throws IOException {
+			super(n);
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			var rowBytes = 8L * n;
+			rowsPerChunk = (int) Math.max(1, Math.min(n, MAX_CHUNK_BYTES / Math.max(1, rowBytes)));
+			chunks = new DoubleBuffer[n == 0 ? 0 : (n - 1) / rowsPerChunk + 1];
+			for (var c = 0; c < chunks.length; c++) {
+				var rows = Math.min(rowsPerChunk, n - c * rowsPerChunk);
+				chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, c * rowsPerChunk * rowBytes, rows * rowBytes)
+						.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+		}
+
+		@Override
+		public double get(int s, int t) {
+			return chunks[s / rowsPerChunk].get((s % rowsPerChunk) * n + t);
+		}
+
+		@Override
+		public void set(int s, int t, double value) {
+			chunks[s / rowsPerChunk].put((s % rowsPerChunk) * n + t, value);
+		}
+
+		@Override
+		public void fill(double value) {
+			for (var chunk : chunks) {
+				for (var i = 0; i < chunk.capacity(); i++)
+					chunk.put(i, value);
+			}
+		}
+
+		@Override
+		public void setRow(int s, double[] row) {
+			chunks[s / rowsPerChunk].put((s % rowsPerChunk) * n, row, 0, n);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * DominatorTree.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.graph.algorithms;
+
+import jloda.graph.CompactGraphView;
+import jloda.graph.Graph;
+import jloda.graph.Node;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * the dominator tree of a rooted directed acyclic graph. A node u dominates a node v, if u lies on every path from a root to v.
+ * If more than one root is given, then the roots are treated as children of a virtual root that dominates all nodes.
+ * <p>
+ * Immediate dominators are computed using the algorithm of Cooper, Harvey and Kennedy (2001). As the graph is acyclic,
+ * a single pass over the nodes in reverse post-order suffices, in which the immediate dominator of a node is the nearest
+ * common ancestor of its parents in the dominator tree.
+ * <p>
+ * Nodes are addressed by their post-order rank 0..size()-1. As a node is visited after all of its descendants in post-order,
+ * the rank of a node is smaller than the rank of its immediate dominator, and the virtual root has rank size().
+ * So, looping over all ranks in increasing order visits nodes before their dominators, and in decreasing order, after them.
+ * Daniel Huson, 2023
+ */
+public class DominatorTree {
+	private final CompactGraphView view;
+	private final int[] postorder; // node indices of all nodes reachable from the roots, in post-order
+	private final int[] rank; // node index to post-order rank, or -1, if not reachable from the roots
+	private final int[] dominator; // post-order rank to post-order rank of immediate dominator
+
+	/**
+	 * computes the dominator tree
+	 *
+	 * @param graph a directed acyclic graph
+	 * @param roots the roots
+	 */
+	public DominatorTree(Graph graph, Collection<Node> roots) {
+		this(graph.freeze(), roots);
+	}
+
+	/**
+	 * computes the dominator tree
+	 *
+	 * @param view  a compact view of a directed acyclic graph
+	 * @param roots the roots
+	 */
+	public DominatorTree(CompactGraphView view, Collection<Node> roots) {
+		this.view = view;
+		var n = view.getNumberOfNodes();
+
+		// post-order, using a stack of node indices and a stack of the next out-adjacency to process:
+		var order = new int[n];
+		var count = 0;
+		rank = new int[n];
+		Arrays.fill(rank, -1);
+		var visited = new boolean[n];
+		var nodeStack = new int[n];
+		var nextStack = new int[n];
+		for (var root : roots) {
+			var r = view.getIndex(root);
+			if (r == -1 || visited[r])
+				continue;
+			var top = 0;
+			visited[r] = true;
+			nodeStack[top] = r;
+			nextStack[top++] = view.outStart(r);
+			while (top > 0) {
+				var v = nodeStack[top - 1];
+				var k = nextStack[top - 1];
+				if (k == view.outEnd(v)) {
+					top--;
+					rank[v] = count;
+					order[count++] = v;
+				} else {
+					nextStack[top - 1] = k + 1;
+					var w = view.outTarget(k);
+					if (!visited[w]) {
+						visited[w] = true;
+						nodeStack[top] = w;
+						nextStack[top++] = view.outStart(w);
+					}
+				}
+			}
+		}
+		postorder = Arrays.copyOf(order, count);
+
+		var isRoot = new boolean[count];
+		for (var root : roots) {
+			var r = view.getIndex(root);
+			if (r != -1)
+				isRoot[rank[r]] = true;
+		}
+
+		dominator = new int[count + 1];
+		dominator[count] = count; // virtual root
+		for (var i = count - 1; i >= 0; i--) {
+			var dom = -1;
+			if (isRoot[i])
+				dom = count;
+			else {
+				var v = postorder[i];
+				for (var k = view.inStart(v); k < view.inEnd(v); k++) {
+					var p = rank[view.inSource(k)];
+					if (p != -1)
+						dom = (dom == -1 ? p : intersect(dom, p));
+				}
+			}
+			dominator[i] = dom;
+		}
+	}
+
+	/**
+	 * determines the nearest common ancestor of two nodes in the dominator tree
+	 */
+	private int intersect(int a, int b) {
+		while (a != b) {
+			while (a < b)
+				a = dominator[a];
+			while (b < a)
+				b = dominator[b];
+		}
+		return a;
+	}
+
+	/**
+	 * gets the compact graph view on which this is based
+	 */
+	public CompactGraphView getView() {
+		return view;
+	}
+
+	/**
+	 * gets the number of nodes reachable from the roots. This is also the rank of the virtual root
+	 *
+	 * @return number of nodes
+	 */
+	public int size() {
+		return postorder.length;
+	}
+
+	/**
+	 * gets the post-order rank of a node
+	 *
+	 * @return rank, or -1, if the node is not reachable from the roots
+	 */
+	public int getRank(Node v) {
+		var index = view.getIndex(v);
+		return index == -1 ? -1 : rank[index];
+	}
+
+	/**
+	 * gets the post-order rank of the node with the given view index
+	 *
+	 * @return rank, or -1, if the node is not reachable from the roots
+	 */
+	public int getRankOfIndex(int index) {
+		return rank[index];
+	}
+
+	/**
+	 * gets the node of the given rank
+	 */
+	public Node getNode(int rank) {
+		return view.getNode(postorder[rank]);
+	}
+
+	/**
+	 * gets the view index of the node of the given rank
+	 */
+	public int getNodeIndex(int rank) {
+		return postorder[rank];
+	}
+
+	/**
+	 * gets the rank of the immediate dominator of the node of the given rank
+	 *
+	 * @return rank of the immediate dominator, which is size() for the roots
+	 */
+	public int getDominatorRank(int rank) {
+		return dominator[rank];
+	}
+
+	/**
+	 * gets the immediate dominator of a node
+	 *
+	 * @return immediate dominator, or null, if the node is a root or is not reachable from the roots
+	 */
+	public Node getImmediateDominator(Node v) {
+		var r = getRank(v);
+		if (r == -1 || dominator[r] == postorder.length)
+			return null;
+		else
+			return getNode(dominator[r]);
+	}
+}
@@ -20,11 +20,8 @@
 
 package jloda.graph.algorithms;
 
+import jloda.graph.CompactGraphView;
 import jloda.graph.Graph;
-import jloda.graph.Node;
-import jloda.graph.NodeIntArray;
-import jloda.graph.NodeSet;
-import jloda.util.Counter;
 
 public class IsDAG {
 	/**
@@ -34,31 +31,33 @@ public class IsDAG {
 	 * @return true, if graph is DAG
 	 */
 	public static boolean apply(Graph graph) {
-		var time = new Counter(0);
-		try (var discovered = graph.newNodeSet(); var departure = graph.newNodeIntArray()) {
-			for (var v : graph.nodes()) {
-				if (!discovered.contains(v)) {
-					applyRec(v, discovered, departure, time);
-				}
-			}
-
-			for (var v : graph.nodes()) {
-				for (var u : v.children()) {
-					if (departure.get(v) <= departure.get(u))
-						return false;
-				}
-			}
-		}
-		return true;
+		return apply(graph.freeze());
 	}
 
-	private static void applyRec(Node v, NodeSet discovered, NodeIntArray departure, Counter time) {
-		discovered.add(v);
-
-		for (var u : v.children()) {
-			if (!discovered.contains(u))
-				applyRec(u, discovered, departure, time);
+	/**
+	 * determines whether given compact graph view is a DAG, by repeatedly removing nodes of in-degree 0
+	 *
+	 * @param view the compact graph view
+	 * @return true, if graph is DAG
+	 */
+	public static boolean apply(CompactGraphView view) {
+		var n = view.getNumberOfNodes();
+		var inDegree = new int[n];
+		var queue = new int[n];
+		var tail = 0;
+		for (var v = 0; v < n; v++) {
+			inDegree[v] = view.getInDegree(v);
+			if (inDegree[v] == 0)
+				queue[tail++] = v;
+		}
+		for (var head = 0; head < tail; head++) {
+			var v = queue[head];
+			for (var k = view.outStart(v); k < view.outEnd(v); k++) {
+				var w = view.outTarget(k);
+				if (--inDegree[w] == 0)
+					queue[tail++] = w;
+			}
 		}
-		departure.set(v, (int) time.getAndIncrement());
+		return tail == n;
 	}
 }
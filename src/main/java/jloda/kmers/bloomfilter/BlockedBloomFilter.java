@@ -0,0 +1,222 @@
+/*
+ * BlockedBloomFilter.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.bloomfilter;
+
+import jloda.thirdparty.MurmurHash;
+import jloda.util.ByteInputBuffer;
+import jloda.util.ByteOutputBuffer;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a blocked Bloom filter, in which all bits of an item lie in one block of 512 bits, that is, in one cache line.
+ * An item is given by a 64-bit hash value: the block is chosen by the hash value and the bits inside the block are obtained by double
+ * hashing from a second value derived from it, so each item requires at most one call of MurmurHash.
+ * Bits are set using atomic operations, so the filter can be used by many threads at the same time without locking
+ * Daniel Huson, 2023
+ */
+public class BlockedBloomFilter {
+    public static final int MAGIC_INT = 1179402818; // BBFL
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int numberOfHashFunctions;
+    private final long[] words;
+    private final int blockMask;
+    private final LongAdder itemsAdded = new LongAdder();
+
+    /**
+     * basic constructor
+     *
+     * @param totalBits             the total number of bits to use, is rounded up to a power of 2 that is at least 512
+     * @param numberOfHashFunctions the number of bits to set per item
+     */
+    public BlockedBloomFilter(long totalBits, int numberOfHashFunctions) {
+        final var blocks = BloomFilterBlocks.numberOfBlocks(totalBits, 512);
+        this.numberOfHashFunctions = Math.max(1, Math.min(BloomFilterBlocks.MAX_HASH_FUNCTIONS, numberOfHashFunctions));
+        this.words = new long[blocks * BloomFilterBlocks.BLOCK_WORDS];
+        this.blockMask = blocks - 1;
+    }
+
+    /**
+     * constructor for expected number of items and max false positive probability
+     */
+    public BlockedBloomFilter(long expectedNumberOfItems, double falsePositiveProbability) {
+        this(expectedNumberOfItems, falsePositiveProbability, -1L);
+    }
+
+    /**
+     * constructor for expected number of items and max false positive probability and max number of bytes.
+     * If the false positive probability is not positive, the max number of bytes is used
+     */
+    public BlockedBloomFilter(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
+        this(Math.max(1L, expectedNumberOfItems) * bitsPerItem(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes),
+                BloomFilterBlocks.numberOfHashFunctions(bitsPerItem(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes)));
+    }
+
+    /**
+     * determines the number of bits per item, as in BloomFilter, using the smaller of the two values implied by the
+     * false positive probability and the max number of bytes
+     */
+    private static int bitsPerItem(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
+        return BloomFilterBlocks.positionsPerItem(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes, 8, 128);
+    }
+
+    /**
+     * adds an item given by a 64-bit hash value
+     *
+     * @return true, if definitely newly added
+     */
+    public boolean add(long hash) {
+        itemsAdded.increment();
+        final var block = BloomFilterBlocks.blockIndex(hash, blockMask);
+        final var h2 = BloomFilterBlocks.mix(hash);
+        final var a = (int) h2;
+        final var b = (int) (h2 >>> 32) | 1; // odd, so that all positions within a block differ
+        var definitelyAdded = false;
+        for (var i = 0; i < numberOfHashFunctions; i++) {
+            final var bit = (a + i * b) & 511;
+            final var word = block + (bit >>> 6);
+            final var mask = 1L << bit;
+            if (((long) WORDS.getOpaque(words, word) & mask) == 0L && ((long) WORDS.getAndBitwiseOr(words, word, mask) & mask) == 0L)
+                definitelyAdded = true;
+        }
+        return definitelyAdded;
+    }
+
+    /**
+     * adds a string
+     *
+     * @return true, if definitely newly added
+     */
+    public boolean add(byte[] string, int offset, int length) {
+        return add(MurmurHash.hash64(string, offset, length, 0));
+    }
+
+    public boolean add(byte[] string) {
+        return add(string, 0, string.length);
+    }
+
+    /**
+     * adds a batch of items given by hash values. The items are processed in the order of their blocks, so that memory
+     * is accessed in increasing order, and, among items in the same block, in the given order, so the result is the same as for adding them one by one
+     *
+     * @param hashes       hash values
+     * @param from         first index
+     * @param to           last index + 1
+     * @param newlyAdded   if non-null, newlyAdded[i] is set to true, if hashes[i] was definitely newly added, false otherwise
+     * @return number of definitely newly added items
+     */
+    public int addAll(long[] hashes, int from, int to, boolean[] newlyAdded) {
+        final var order = new long[to - from];
+        for (var i = from; i < to; i++)
+            order[i - from] = ((long) (BloomFilterBlocks.blockIndex(hashes[i], blockMask) / BloomFilterBlocks.BLOCK_WORDS) << 32) | (i - from);
+        Arrays.sort(order);
+        var count = 0;
+        for (var key : order) {
+            final var i = from + (int) key;
+            final var added = add(hashes[i]);
+            if (added)
+                count++;
+            if (newlyAdded != null)
+                newlyAdded[i] = added;
+        }
+        return count;
+    }
+
+    public int addAll(long[] hashes) {
+        return addAll(hashes, 0, hashes.length, null);
+    }
+
+    /**
+     * determines whether an item given by a hash value is probably contained
+     *
+     * @return false, if definitely not contained
+     */
+    public boolean isContainedProbably(long hash) {
+        final var block = BloomFilterBlocks.blockIndex(hash, blockMask);
+        final var h2 = BloomFilterBlocks.mix(hash);
+        final var a = (int) h2;
+        final var b = (int) (h2 >>> 32) | 1;
+        for (var i = 0; i < numberOfHashFunctions; i++) {
+            final var bit = (a + i * b) & 511;
+            if (((long) WORDS.getOpaque(words, block + (bit >>> 6)) & (1L << bit)) == 0L)
+                return false;
+        }
+        return true;
+    }
+
+    public boolean isContainedProbably(byte[] string) {
+        return isContainedProbably(MurmurHash.hash64(string, 0, string.length, 0));
+    }
+
+    public double expectedFalsePositiveRate() {
+        return Math.pow((1 - Math.exp(-numberOfHashFunctions * (double) itemsAdded.sum() / (64.0 * words.length))), numberOfHashFunctions);
+    }
+
+    /**
+     * @return number of times add has been called
+     */
+    public long cardinality() {
+        return itemsAdded.sum();
+    }
+
+    public long getTotalBits() {
+        return 64L * words.length;
+    }
+
+    public int getNumberOfHashFunctions() {
+        return numberOfHashFunctions;
+    }
+
+    public String toString() {
+        return String.format("Blocked Bloom filter %,d items added", itemsAdded.sum());
+    }
+
+    public byte[] getBytes() {
+        final ByteOutputBuffer buffer = new ByteOutputBuffer();
+        buffer.writeIntLittleEndian(MAGIC_INT);
+        buffer.writeLongLittleEndian(getTotalBits());
+        buffer.writeIntLittleEndian(numberOfHashFunctions);
+        buffer.writeLongLittleEndian(itemsAdded.sum());
+        for (var i = 0; i < words.length; i++)
+            buffer.writeLongLittleEndian((long) WORDS.getOpaque(words, i));
+        return buffer.copyBytes();
+    }
+
+    public static BlockedBloomFilter parseBytes(byte[] bytes) throws IOException {
+        final ByteInputBuffer buffer = new ByteInputBuffer(bytes);
+        if (buffer.readIntLittleEndian() != MAGIC_INT)
+            throw new IOException("Incorrect magic number");
+        final long totalBits = buffer.readLongLittleEndian();
+        final int numberOfHashFunctions = buffer.readIntLittleEndian();
+        final BlockedBloomFilter bloomFilter = new BlockedBloomFilter(totalBits, numberOfHashFunctions);
+        bloomFilter.itemsAdded.add(buffer.readLongLittleEndian());
+        for (var i = 0; i < bloomFilter.words.length; i++)
+            bloomFilter.words[i] = buffer.readLongLittleEndian();
+        return bloomFilter;
+    }
+}
+
+// EOF
@@ -26,16 +26,24 @@ import jloda.util.ByteOutputBuffer;
 import jloda.util.NumberUtils;
 import jloda.util.StringUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 
 /**
  * implementation of a Bloom filter
  * See https://en.wikipedia.org/wiki/Bloom_filter
+ * The bits are held on the heap, or in a memory-mapped file, see createMapped() and openMapped()
  * Daniel Huson, 1.2019
  */
-public class BloomFilter {
+public class BloomFilter implements Closeable {
     public static final int MAGIC_INT = 1179405634; // BMFL
+    private static final int HEADER_BYTES = 24; // header written by getBytes(), before the bit set
     private final int bitsPerItem;
     private final int numberOfHashFunctions;
     private final LongBitSet bitSet;
@@ -51,11 +59,15 @@ public class BloomFilter {
      * @param numberOfHashFunctions the number of hash functions to use
      */
     public BloomFilter(long totalBits, int bitsPerItem, int numberOfHashFunctions) {
+        this(totalBits, bitsPerItem, numberOfHashFunctions, new LongBitSet(totalBits));
+    }
+
+    private BloomFilter(long totalBits, int bitsPerItem, int numberOfHashFunctions, LongBitSet bitSet) {
         this.bitsPerItem = bitsPerItem;
         this.numberOfHashFunctions = numberOfHashFunctions;
         this.totalBits = totalBits;
         this.hashBits = totalBits - 1;
-        this.bitSet = new LongBitSet(totalBits);
+        this.bitSet = bitSet;
     }
 
     /**
@@ -78,31 +90,103 @@ public class BloomFilter {
      * constructor for expected number of items and max false positive probability and max number of bytes
      */
     public BloomFilter(int expectedNumberOfItems, double falsePositiveProbability, int maxNumberOfBytes) {
+        this(dimensions(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes));
+    }
+
+    private BloomFilter(long[] dimensions) {
+        this(dimensions[0], (int) dimensions[1], (int) dimensions[2]);
+    }
+
+    /**
+     * creates an empty Bloom filter in a memory-mapped file, which can later be opened using openMapped().
+     * Call close() to write all changes to the file
+     *
+     * @param file the file, is overwritten
+     */
+    public static BloomFilter createMapped(Path file, long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) throws IOException {
+        final long[] dimensions = dimensions(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes);
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_INT).putLong(dimensions[0]).putInt((int) dimensions[1]).putInt((int) dimensions[2]).putInt(0);
+            channel.write(header.flip(), 0);
+            MappedLongBitSet.writeHeader(channel, HEADER_BYTES, dimensions[0] / 64 + 1);
+            return new BloomFilter(dimensions[0], (int) dimensions[1], (int) dimensions[2], new MappedLongBitSet(channel, HEADER_BYTES, false));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * opens a Bloom filter that was written to a file using getBytes(), or created using createMapped(), by memory-mapping the file.
+     * The filter is not read into memory, so this is fast, even for very large filters, and a filter opened read-only can be shared
+     * by many processes
+     *
+     * @param file     the file
+     * @param readOnly open read-only, in which case items cannot be added
+     */
+    public static BloomFilter openMapped(Path file, boolean readOnly) throws IOException {
+        final FileChannel channel = (readOnly ? FileChannel.open(file, StandardOpenOption.READ) : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC_INT)
+                throw new IOException("Incorrect magic number");
+            final BloomFilter bloomFilter = new BloomFilter(header.getLong(4), header.getInt(12), header.getInt(16), new MappedLongBitSet(channel, HEADER_BYTES, readOnly));
+            bloomFilter.itemsAdded = header.getInt(20);
+            return bloomFilter;
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * determines the total number of bits, bits per item and number of hash functions
+     */
+    private static long[] dimensions(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
         if (useMaxNumberOfBytes(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes)) {
-            this.bitsPerItem = Math.min(128, (int) Math.ceil((8d * maxNumberOfBytes) / expectedNumberOfItems));
-            this.numberOfHashFunctions = (int) Math.ceil(bitsPerItem * Math.log(2));
-            this.totalBits = ceilingPowerOf2((long) expectedNumberOfItems * bitsPerItem);
-            this.hashBits = totalBits - 1;
-            this.bitSet = new LongBitSet(totalBits);
+            final int bitsPerItem = Math.min(128, (int) Math.ceil((8d * maxNumberOfBytes) / expectedNumberOfItems));
+            final int numberOfHashFunctions = (int) Math.ceil(bitsPerItem * Math.log(2));
+            final long totalBits = ceilingPowerOf2(expectedNumberOfItems * bitsPerItem);
+            return new long[]{totalBits, bitsPerItem, numberOfHashFunctions};
         } else {
             if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
                 System.err.print("Warning: invalid falsePositiveProbability=" + falsePositiveProbability + ", changed to: 0.0001");
                 falsePositiveProbability = 0.0001;
             }
-            this.bitsPerItem = (int) Math.ceil(-Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2))); // m/n = -(log_2(p)/ln(2)) = -(ln(p)/(ln(2)*ln(2))
-            this.totalBits = ceilingPowerOf2((long) expectedNumberOfItems * bitsPerItem);
-            this.numberOfHashFunctions = (int) (Math.ceil(-Math.log(falsePositiveProbability) / Math.log(2))); //  k = -ln(p)/(ln(2)
-            this.hashBits = totalBits - 1;
-            this.bitSet = new LongBitSet(totalBits);
+            final int bitsPerItem = (int) Math.ceil(-Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2))); // m/n = -(log_2(p)/ln(2)) = -(ln(p)/(ln(2)*ln(2))
+            final long totalBits = ceilingPowerOf2(expectedNumberOfItems * bitsPerItem);
+            final int numberOfHashFunctions = (int) (Math.ceil(-Math.log(falsePositiveProbability) / Math.log(2))); //  k = -ln(p)/(ln(2)
+            return new long[]{totalBits, bitsPerItem, numberOfHashFunctions};
+        }
+    }
+
+    /**
+     * closes a memory-mapped Bloom filter, writing all changes to the file. Does nothing for a filter held on the heap
+     */
+    @Override
+    public void close() throws IOException {
+        if (bitSet instanceof MappedLongBitSet mappedBitSet) {
+            if (!mappedBitSet.isReadOnly())
+                mappedBitSet.writeInt(HEADER_BYTES - 4, itemsAdded);
+            mappedBitSet.close();
         }
     }
 
+    /**
+     * is this Bloom filter held in a memory-mapped file?
+     */
+    public boolean isMapped() {
+        return bitSet instanceof MappedLongBitSet;
+    }
+
     /**
      * determine whether to use max number of bytes, rather than false positive probability, to initialize
      *
      * @return true, if and only if using falsePositiveProbability would use more than max number of bytes
      */
-    private static boolean useMaxNumberOfBytes(int expectedNumberOfItems, double falsePositiveProbability, int maxNumberOfBytes) {
+    private static boolean useMaxNumberOfBytes(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
         if (falsePositiveProbability <= 0)
             return true;
         else if (maxNumberOfBytes <= 0)
@@ -0,0 +1,91 @@
+/*
+ * BloomFilterBlocks.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.bloomfilter;
+
+/**
+ * block addressing and sizing shared by the blocked and the counting Bloom filter. Both keep all bits or counters of an item in one
+ * block of eight long words, that is, in one cache line, select the block using the upper 32 bits of the hash value of the item,
+ * and obtain the positions within the block by double hashing from a second hash value derived from the first one
+ * Daniel Huson, 2023
+ */
+final class BloomFilterBlocks {
+    static final int BLOCK_WORDS = 8; // 512 bits
+    static final int MAX_HASH_FUNCTIONS = 16;
+
+    private BloomFilterBlocks() {
+    }
+
+    /**
+     * determines the number of blocks needed for the given number of positions, rounded up to a power of 2
+     *
+     * @param totalPositions    total number of bits or counters
+     * @param positionsPerBlock number of bits or counters per block, a power of 2
+     * @return number of blocks
+     * @throws IllegalArgumentException if the blocks would not fit into a long array
+     */
+    static int numberOfBlocks(long totalPositions, int positionsPerBlock) {
+        final var blocks = Math.max(1L, Long.highestOneBit(Math.max(1L, totalPositions - 1) / positionsPerBlock) << 1);
+        if (blocks * BLOCK_WORDS > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many bits or counters: " + totalPositions);
+        return (int) blocks;
+    }
+
+    /**
+     * determines the number of positions per item, using the smaller of the two values implied by the
+     * false positive probability and the max number of bytes. If neither is given, 20 is used
+     *
+     * @param positionsPerByte    number of bits or counters per byte
+     * @param maxPositionsPerItem upper bound used when sizing by the max number of bytes
+     */
+    static int positionsPerItem(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes, int positionsPerByte, int maxPositionsPerItem) {
+        var forProbability = (falsePositiveProbability > 0 && falsePositiveProbability < 1 ? (int) Math.ceil(-Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2))) : Integer.MAX_VALUE);
+        var forBytes = (maxNumberOfBytes > 0 ? (int) Math.min(maxPositionsPerItem, Math.ceil(((double) positionsPerByte * maxNumberOfBytes) / Math.max(1L, expectedNumberOfItems))) : Integer.MAX_VALUE);
+        var positions = Math.min(forProbability, forBytes);
+        return positions == Integer.MAX_VALUE ? 20 : Math.max(1, positions);
+    }
+
+    /**
+     * the optimal number of hash functions for the given number of positions per item
+     */
+    static int numberOfHashFunctions(int positionsPerItem) {
+        return (int) Math.ceil(positionsPerItem * Math.log(2));
+    }
+
+    /**
+     * index of the first word of the block for the given hash
+     *
+     * @param blockMask number of blocks minus one
+     */
+    static int blockIndex(long hash, int blockMask) {
+        return ((int) (hash >>> 32) & blockMask) * BLOCK_WORDS;
+    }
+
+    /**
+     * derives a second hash value, using the finalizer of SplitMix64
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
+
+// EOF
@@ -0,0 +1,195 @@
+/*
+ * CountingBloomFilter.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.bloomfilter;
+
+import jloda.thirdparty.MurmurHash;
+import jloda.util.ByteInputBuffer;
+import jloda.util.ByteOutputBuffer;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a counting Bloom filter with 4-bit saturating counters, used to estimate how often an item has been seen, up to 15.
+ * As in the blocked Bloom filter, all counters of an item lie in one block of 128 counters, that is, in one cache line,
+ * and are obtained by double hashing from the 64-bit hash value of the item.
+ * Counters are updated conservatively, that is, only the smallest counters of an item are incremented, which greatly reduces
+ * overestimation. Counters are updated using compare-and-set, without locking. When the same item is added by several threads
+ * at exactly the same time, these additions may be counted only once
+ * Daniel Huson, 2023
+ */
+public class CountingBloomFilter {
+    public static final int MAGIC_INT = 1179402819; // CBFL
+    public static final int MAX_COUNT = 15;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int numberOfHashFunctions;
+    private final long[] words;
+    private final int blockMask;
+    private final LongAdder itemsAdded = new LongAdder();
+
+    /**
+     * basic constructor
+     *
+     * @param totalCounters         the total number of counters to use, is rounded up to a power of 2 that is at least 128
+     * @param numberOfHashFunctions the number of counters per item
+     */
+    public CountingBloomFilter(long totalCounters, int numberOfHashFunctions) {
+        final var blocks = BloomFilterBlocks.numberOfBlocks(totalCounters, 128); // 128 counters of 4 bits per block
+        this.numberOfHashFunctions = Math.max(1, Math.min(BloomFilterBlocks.MAX_HASH_FUNCTIONS, numberOfHashFunctions));
+        this.words = new long[blocks * BloomFilterBlocks.BLOCK_WORDS];
+        this.blockMask = blocks - 1;
+    }
+
+    /**
+     * constructor for expected number of items and max false positive probability and max number of bytes.
+     * If the false positive probability is not positive, the max number of bytes is used
+     */
+    public CountingBloomFilter(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
+        this(Math.max(1L, expectedNumberOfItems) * countersPerItem(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes),
+                BloomFilterBlocks.numberOfHashFunctions(countersPerItem(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes)));
+    }
+
+    /**
+     * determines the number of counters per item, using the smaller of the two values implied by the
+     * false positive probability and the max number of bytes, each byte holding two counters
+     */
+    private static int countersPerItem(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
+        return BloomFilterBlocks.positionsPerItem(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes, 2, 64);
+    }
+
+    /**
+     * adds an item given by a 64-bit hash value
+     *
+     * @return estimated number of times the item has been added, including this time, at most MAX_COUNT
+     */
+    public int add(long hash) {
+        itemsAdded.increment();
+        final var block = BloomFilterBlocks.blockIndex(hash, blockMask);
+        final var h2 = BloomFilterBlocks.mix(hash);
+        final var a = (int) h2;
+        final var b = (int) (h2 >>> 32) | 1; // odd, so that all positions within a block differ
+
+        var min = MAX_COUNT;
+        for (var i = 0; i < numberOfHashFunctions && min > 0; i++) {
+            final var counter = (a + i * b) & 127;
+            min = Math.min(min, (int) (((long) WORDS.getOpaque(words, block + (counter >>> 4)) >>> ((counter & 15) << 2)) & 15L));
+        }
+        if (min == MAX_COUNT)
+            return MAX_COUNT;
+
+        final var target = (long) (min + 1);
+        for (var i = 0; i < numberOfHashFunctions; i++) {
+            final var counter = (a + i * b) & 127;
+            final var word = block + (counter >>> 4);
+            final var shift = (counter & 15) << 2;
+            while (true) {
+                final var value = (long) WORDS.getVolatile(words, word);
+                if (((value >>> shift) & 15L) >= target || WORDS.compareAndSet(words, word, value, (value & ~(15L << shift)) | (target << shift)))
+                    break;
+            }
+        }
+        return (int) target;
+    }
+
+    /**
+     * adds a string
+     *
+     * @return estimated number of times the string has been added, including this time, at most MAX_COUNT
+     */
+    public int add(byte[] string, int offset, int length) {
+        return add(MurmurHash.hash64(string, offset, length, 0));
+    }
+
+    public int add(byte[] string) {
+        return add(string, 0, string.length);
+    }
+
+    /**
+     * gets the estimated number of times that an item given by a hash value has been added. The estimate is never too small,
+     * unless the true count exceeds MAX_COUNT
+     *
+     * @return estimated count, at most MAX_COUNT
+     */
+    public int getCount(long hash) {
+        final var block = BloomFilterBlocks.blockIndex(hash, blockMask);
+        final var h2 = BloomFilterBlocks.mix(hash);
+        final var a = (int) h2;
+        final var b = (int) (h2 >>> 32) | 1;
+        var min = MAX_COUNT;
+        for (var i = 0; i < numberOfHashFunctions && min > 0; i++) {
+            final var counter = (a + i * b) & 127;
+            min = Math.min(min, (int) (((long) WORDS.getOpaque(words, block + (counter >>> 4)) >>> ((counter & 15) << 2)) & 15L));
+        }
+        return min;
+    }
+
+    public int getCount(byte[] string) {
+        return getCount(MurmurHash.hash64(string, 0, string.length, 0));
+    }
+
+    /**
+     * @return number of times add has been called
+     */
+    public long cardinality() {
+        return itemsAdded.sum();
+    }
+
+    public long getTotalCounters() {
+        return 16L * words.length;
+    }
+
+    public int getNumberOfHashFunctions() {
+        return numberOfHashFunctions;
+    }
+
+    public String toString() {
+        return String.format("Counting Bloom filter %,d items added", itemsAdded.sum());
+    }
+
+    public byte[] getBytes() {
+        final ByteOutputBuffer buffer = new ByteOutputBuffer();
+        buffer.writeIntLittleEndian(MAGIC_INT);
+        buffer.writeLongLittleEndian(getTotalCounters());
+        buffer.writeIntLittleEndian(numberOfHashFunctions);
+        buffer.writeLongLittleEndian(itemsAdded.sum());
+        for (var i = 0; i < words.length; i++)
+            buffer.writeLongLittleEndian((long) WORDS.getOpaque(words, i));
+        return buffer.copyBytes();
+    }
+
+    public static CountingBloomFilter parseBytes(byte[] bytes) throws IOException {
+        final ByteInputBuffer buffer = new ByteInputBuffer(bytes);
+        if (buffer.readIntLittleEndian() != MAGIC_INT)
+            throw new IOException("Incorrect magic number");
+        final long totalCounters = buffer.readLongLittleEndian();
+        final int numberOfHashFunctions = buffer.readIntLittleEndian();
+        final CountingBloomFilter filter = new CountingBloomFilter(totalCounters, numberOfHashFunctions);
+        filter.itemsAdded.add(buffer.readLongLittleEndian());
+        for (var i = 0; i < filter.words.length; i++)
+            filter.words[i] = buffer.readLongLittleEndian();
+        return filter;
+    }
+}
+
+// EOF
@@ -32,7 +32,7 @@ import java.util.Iterator;
  */
 public class LongBitSet implements Iterable<Long> {
     private final long[] bits;
-    private long cardinality = 0;
+    long cardinality = 0;
 
     private final Object[] sync = new Object[1024];
 
@@ -41,31 +41,64 @@ public class LongBitSet implements Iterable<Long> {
      *
 	 */
     public LongBitSet(long maxCardinality) {
-        bits = new long[(int) (maxCardinality / 64) + 1];
+        this(new long[(int) (maxCardinality / 64) + 1]);
+    }
+
+    /**
+     * constructor for the given words, or for words held elsewhere, if null
+     */
+    LongBitSet(long[] bits) {
+        this.bits = bits;
         for (int i = 0; i < sync.length; i++) {
             sync[i] = new Object();
         }
     }
 
+    /**
+     * gets a word of 64 bits
+     */
+    long getWord(long index) {
+        if (index >= bits.length)
+            throw new IndexOutOfBoundsException();
+        return bits[(int) index];
+    }
+
+    /**
+     * sets a word of 64 bits
+     */
+    void setWord(long index, long word) {
+        if (index >= bits.length)
+            throw new IndexOutOfBoundsException();
+        bits[(int) index] = word;
+    }
+
+    /**
+     * @return number of words of 64 bits
+     */
+    long getNumberOfWords() {
+        return bits.length;
+    }
+
     /**
      * add a bit, thread-safe
      *
      * @return true, if bit was added, false, if already present
      */
     public boolean add(long bit) {
-        final int a = (int) (bit >>> 6);
+        final long a = bit >>> 6;
         final long b = (1L << ((bit & 63L) - 1L));
 
-        synchronized ((sync[a & 1023])) {
+        synchronized ((sync[(int) (a & 1023)])) {
             try {
-                if ((bits[a] & b) == 0L) {
-                    bits[a] |= b;
+                final long word = getWord(a);
+                if ((word & b) == 0L) {
+                    setWord(a, word | b);
                     cardinality++;
                     return true;
                 } else
                     return false;
             } catch (IndexOutOfBoundsException ex) {
-                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + bits.length * 64);
+                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + getNumberOfWords() * 64);
             }
         }
     }
@@ -76,20 +109,21 @@ public class LongBitSet implements Iterable<Long> {
      * @return true, if bit was removed, false, if not present
      */
     public boolean remove(long bit) {
-        final int a = (int) (bit >>> 6);
+        final long a = bit >>> 6;
         final long b = (1L << ((bit & 63L) - 1L));
 
-        synchronized ((sync[a & 1023])) {
+        synchronized ((sync[(int) (a & 1023)])) {
             try {
-                if ((bits[a] & b) == 0L)
+                final long word = getWord(a);
+                if ((word & b) == 0L)
                     return false;
                 else {
-                    bits[a] &= ~b;
+                    setWord(a, word & ~b);
                     cardinality--;
                     return true;
                 }
             } catch (IndexOutOfBoundsException ex) {
-                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + bits.length * 64);
+                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + getNumberOfWords() * 64);
             }
         }
     }
@@ -100,13 +134,13 @@ public class LongBitSet implements Iterable<Long> {
      * @return true, if contained
      */
     public boolean contains(long bit) {
-        final int a = (int) (bit >>> 6);
+        final long a = bit >>> 6;
         final long b = (1L << ((bit & 63L) - 1L));
-        synchronized ((sync[a & 1023])) {
+        synchronized ((sync[(int) (a & 1023)])) {
             try {
-                return (bits[a] & b) != 0;
+                return (getWord(a) & b) != 0;
             } catch (IndexOutOfBoundsException ex) {
-                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + bits.length * 64);
+                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + getNumberOfWords() * 64);
             }
         }
     }
@@ -115,7 +149,12 @@ public class LongBitSet implements Iterable<Long> {
      * clear the set
      */
     public void clear() {
-        Arrays.fill(bits, 0);
+        if (bits != null)
+            Arrays.fill(bits, 0);
+        else {
+            for (long i = 0; i < getNumberOfWords(); i++)
+                setWord(i, 0L);
+        }
         cardinality = 0;
     }
 
@@ -154,8 +193,18 @@ public class LongBitSet implements Iterable<Long> {
         };
     }
 
+    /**
+     * gets the array of words. For a bit set that is not held on the heap, this is a copy
+     */
     public long[] getBits() {
-        return bits;
+        if (bits != null)
+            return bits;
+        else {
+            final long[] copy = new long[Math.toIntExact(getNumberOfWords())];
+            for (int i = 0; i < copy.length; i++)
+                copy[i] = getWord(i);
+            return copy;
+        }
     }
 
     /**
@@ -166,9 +215,9 @@ public class LongBitSet implements Iterable<Long> {
     public byte[] getBytes() {
         final ByteOutputBuffer buffer = new ByteOutputBuffer();
         buffer.writeLongLittleEndian(cardinality);
-        buffer.writeIntLittleEndian(bits.length);
-        for (long word : bits)
-            buffer.writeLongLittleEndian(word);
+        buffer.writeIntLittleEndian(Math.toIntExact(getNumberOfWords()));
+        for (long i = 0; i < getNumberOfWords(); i++)
+            buffer.writeLongLittleEndian(getWord(i));
         return buffer.copyBytes();
     }
 
@@ -187,7 +236,12 @@ public class LongBitSet implements Iterable<Long> {
     }
 
     public void copy(LongBitSet bitSet) {
-        System.arraycopy(bitSet.getBits(), 0, this.bits, 0, bitSet.getBits().length);
+        if (bits != null && bitSet.bits != null)
+            System.arraycopy(bitSet.bits, 0, this.bits, 0, bitSet.bits.length);
+        else {
+            for (long i = 0; i < bitSet.getNumberOfWords(); i++)
+                setWord(i, bitSet.getWord(i));
+        }
         cardinality = bitSet.cardinality;
     }
 }
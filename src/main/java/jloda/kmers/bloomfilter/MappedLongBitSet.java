@@ -0,0 +1,169 @@
+/*
+ * MappedLongBitSet.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.bloomfilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * a long bit set that is held in a memory-mapped file, rather than on the heap.
+ * The file has the same format as LongBitSet.getBytes(), so a bit set written to a file can be opened directly, without reading it.
+ * A file opened read-only can be shared by many processes
+ * Daniel Huson, 2023
+ */
+public class MappedLongBitSet extends LongBitSet implements Closeable {
+    private static final int HEADER_BYTES = 12; // cardinality and number of words
+    private static final long MAX_CHUNK_WORDS = 1L << 27; // 1GB
+
+    private final FileChannel channel;
+    private final long position;
+    private final boolean readOnly;
+    private final long numberOfWords;
+    private final MappedByteBuffer[] mapped;
+    private final LongBuffer[] chunks;
+
+    /**
+     * maps an existing bit set
+     *
+     * @param channel  the file channel
+     * @param position the position in the file at which the bytes of the bit set start
+     * @param readOnly map read-only?
+     */
+    MappedLongBitSet(FileChannel channel, long position, boolean readOnly) throws IOException {
+        super(null);
+        this.channel = channel;
+        this.position = position;
+        this.readOnly = readOnly;
+
+        final var header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel.read(header, position) != HEADER_BYTES)
+            throw new IOException("File too short");
+        cardinality = header.getLong(0);
+        numberOfWords = Integer.toUnsignedLong(header.getInt(8));
+        if (channel.size() < position + HEADER_BYTES + 8 * numberOfWords)
+            throw new IOException("File too short: " + channel.size());
+
+        mapped = new MappedByteBuffer[(int) ((numberOfWords + MAX_CHUNK_WORDS - 1) / MAX_CHUNK_WORDS)];
+        chunks = new LongBuffer[mapped.length];
+        for (var c = 0; c < chunks.length; c++) {
+            var words = Math.min(MAX_CHUNK_WORDS, numberOfWords - c * MAX_CHUNK_WORDS);
+            mapped[c] = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, position + HEADER_BYTES + 8 * c * MAX_CHUNK_WORDS, 8 * words);
+            chunks[c] = mapped[c].order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        }
+    }
+
+    /**
+     * creates a new, empty, bit set in a file. An existing file is overwritten
+     *
+     * @param file           the file
+     * @param maxCardinality the largest bit that can be set
+     */
+    public static MappedLongBitSet create(Path file, long maxCardinality) throws IOException {
+        final var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeHeader(channel, 0, maxCardinality / 64 + 1);
+            return new MappedLongBitSet(channel, 0, false);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * opens a bit set written to a file using LongBitSet.getBytes()
+     *
+     * @param file     the file
+     * @param readOnly open read-only?
+     */
+    public static MappedLongBitSet open(Path file, boolean readOnly) throws IOException {
+        final var channel = (readOnly ? FileChannel.open(file, StandardOpenOption.READ) : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        try {
+            return new MappedLongBitSet(channel, 0, readOnly);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * writes the header of an empty bit set with the given number of words and extends the file to hold all words
+     */
+    static void writeHeader(FileChannel channel, long position, long numberOfWords) throws IOException {
+        if (numberOfWords > 0xffffffffL)
+            throw new IOException("Too many bits: " + 64 * numberOfWords);
+        final var header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(0, 0L).putInt(8, (int) numberOfWords);
+        channel.write(header, position);
+        final var end = position + HEADER_BYTES + 8 * numberOfWords;
+        if (channel.size() < end)
+            channel.write(ByteBuffer.allocate(1), end - 1);
+    }
+
+    @Override
+    long getWord(long index) {
+        return chunks[(int) (index / MAX_CHUNK_WORDS)].get((int) (index % MAX_CHUNK_WORDS));
+    }
+
+    @Override
+    void setWord(long index, long word) {
+        chunks[(int) (index / MAX_CHUNK_WORDS)].put((int) (index % MAX_CHUNK_WORDS), word);
+    }
+
+    @Override
+    long getNumberOfWords() {
+        return numberOfWords;
+    }
+
+    /**
+     * writes an int at the given position of the file, for use by a container that keeps its own header in the same file
+     */
+    void writeInt(long filePosition, int value) throws IOException {
+        channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value), filePosition);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * writes all changes and the cardinality to the file, if writable, and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            if (!readOnly) {
+                for (var buffer : mapped)
+                    buffer.force();
+                channel.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, cardinality), position);
+            }
+            channel.close();
+        }
+    }
+}
+
+// EOF
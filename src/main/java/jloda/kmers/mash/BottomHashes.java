@@ -0,0 +1,113 @@
+/*
+ * BottomHashes.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.mash;
+
+import java.util.Arrays;
+
+/**
+ * keeps the s smallest distinct hash values seen so far in a sorted array, and optionally the k-mers that gave rise to them.
+ * The value Long.MAX_VALUE is never kept
+ * Daniel Huson, 2023
+ */
+class BottomHashes {
+    private final int capacity;
+    private final long[] values;
+    private final byte[][] kmers;
+    private int size = 0;
+
+    /**
+     * constructor
+     *
+     * @param capacity  number of values to keep
+     * @param saveKMers keep the k-mers, too
+     */
+    BottomHashes(int capacity, boolean saveKMers) {
+        this.capacity = capacity;
+        this.values = new long[capacity];
+        this.kmers = (saveKMers ? new byte[capacity][] : null);
+    }
+
+    /**
+     * only hash values below this threshold can be added
+     */
+    long threshold() {
+        return size < capacity ? Long.MAX_VALUE : values[size - 1];
+    }
+
+    /**
+     * adds a hash value, if it is below the threshold and not already present
+     *
+     * @param hash   the hash value
+     * @param array  array containing the k-mer, only used if k-mers are saved
+     * @param offset offset of the k-mer
+     * @param kSize  k-mer size
+     * @return true, if added
+     */
+    boolean add(long hash, byte[] array, int offset, int kSize) {
+        if (hash >= threshold())
+            return false;
+        var pos = Arrays.binarySearch(values, 0, size, hash);
+        if (pos >= 0)
+            return false;
+        pos = -pos - 1;
+        var count = Math.min(size, capacity - 1) - pos;
+        System.arraycopy(values, pos, values, pos + 1, count);
+        values[pos] = hash;
+        if (kmers != null) {
+            System.arraycopy(kmers, pos, kmers, pos + 1, count);
+            kmers[pos] = (array != null ? Arrays.copyOfRange(array, offset, offset + kSize) : null);
+        }
+        if (size < capacity)
+            size++;
+        return true;
+    }
+
+    /**
+     * adds all hash values of another instance, and its k-mers, if both keep them
+     */
+    void addAll(BottomHashes other) {
+        for (var i = 0; i < other.size; i++) {
+            var kmer = (other.kmers != null ? other.kmers[i] : null);
+            if (!add(other.values[i], kmer, 0, kmer != null ? kmer.length : 0) && other.values[i] >= threshold())
+                break;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return sorted values
+     */
+    long[] getValues() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * @return k-mers, in the order of their values, or null
+     */
+    byte[][] getKMers() {
+        return kmers == null ? null : Arrays.copyOf(kmers, size);
+    }
+}
+
+// EOF
@@ -0,0 +1,146 @@
+/*
+ * CanonicalKMerHasher.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.mash;
+
+import jloda.seq.SequenceUtils;
+import jloda.thirdparty.MurmurHash;
+import jloda.util.CanceledException;
+
+import java.util.Arrays;
+
+/**
+ * computes the hash values of all canonical k-mers of a sequence, as used by Mash sketches.
+ * For nucleotides, the canonical k-mer is the lexicographically smaller of the k-mer and its reverse complement,
+ * and k-mers that contain an N are skipped. The choice is made using a rolling 2-bit encoding of the forward and reverse
+ * strand, updated in constant time per base. The hash is computed by MurmurHash directly on the sequence, or on its
+ * reverse complement, which is computed once per sequence, so k-mers are never copied.
+ * Letters other than A, C, G, T and N, such as lower case or ambiguity codes, are compared byte by byte, as before.
+ * Daniel Huson, 2023
+ */
+class CanonicalKMerHasher {
+    private static final byte[] CODE = new byte[256]; // 0-3 for A,C,G,T, -1 for N, 4 for all other letters
+
+    static {
+        Arrays.fill(CODE, (byte) 4);
+        CODE['A'] = 0;
+        CODE['C'] = 1;
+        CODE['G'] = 2;
+        CODE['T'] = 3;
+        CODE['N'] = -1;
+    }
+
+    private final int kSize;
+    private final boolean isNucleotides;
+    private final int seed;
+    private byte[] reverseComplement = new byte[0];
+
+    /**
+     * consumes a hash value, together with the canonical k-mer, given as array and offset
+     */
+    interface HashConsumer {
+        void accept(long hash, byte[] array, int offset) throws CanceledException;
+    }
+
+    /**
+     * constructor
+     *
+     * @param kSize         k-mer size
+     * @param isNucleotides nucleotides or amino acids
+     * @param seed          hash seed
+     */
+    CanonicalKMerHasher(int kSize, boolean isNucleotides, int seed) {
+        this.kSize = kSize;
+        this.isNucleotides = isNucleotides;
+        this.seed = seed;
+    }
+
+    /**
+     * applies the consumer to the hash values of all canonical k-mers of the sequence, in order of their position
+     */
+    void apply(byte[] sequence, HashConsumer consumer) throws CanceledException {
+        apply(sequence, sequence.length, consumer);
+    }
+
+    /**
+     * applies the consumer to the hash values of all canonical k-mers of the first length letters of the sequence, in order of their position
+     */
+    void apply(byte[] sequence, int length, HashConsumer consumer) throws CanceledException {
+        final var k = kSize;
+        if (length < k || k <= 0)
+            return;
+
+        if (!isNucleotides) {
+            for (var offset = 0; offset + k <= length; offset++) {
+                consumer.accept(MurmurHash.hash64(sequence, offset, k, seed), sequence, offset);
+            }
+            return;
+        }
+
+        if (reverseComplement.length < length)
+            reverseComplement = new byte[length];
+        final var rc = reverseComplement;
+        for (var i = 0; i < length; i++) {
+            rc[i] = SequenceUtils.getComplement(sequence[length - 1 - i]);
+        }
+
+        final var rolling = (k <= 32);
+        final var mask = (k < 32 ? (1L << (2 * k)) - 1 : -1L);
+        final var shift = 2 * (k - 1);
+        var forward = 0L;
+        var reverse = 0L;
+        var run = 0; // number of letters since last N
+        var lastOther = -1; // position of last letter that is not A, C, G, T or N
+
+        for (var i = 0; i < length; i++) {
+            final var code = CODE[sequence[i] & 0xff];
+            if (code == -1) {
+                run = 0;
+                continue;
+            }
+            run++;
+            if (code == 4)
+                lastOther = i;
+            else if (rolling) {
+                forward = ((forward << 2) | code) & mask;
+                reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+            }
+            if (run >= k) {
+                final var offset = i - k + 1;
+                final var rcOffset = length - offset - k;
+                final boolean useForward;
+                if (rolling && lastOther < offset)
+                    useForward = Long.compareUnsigned(forward, reverse) <= 0;
+                else
+                    useForward = Arrays.compare(sequence, offset, offset + k, rc, rcOffset, rcOffset + k) <= 0;
+                if (useForward)
+                    consumer.accept(MurmurHash.hash64(sequence, offset, k, seed), sequence, offset);
+                else
+                    consumer.accept(MurmurHash.hash64(rc, rcOffset, k, seed), rc, rcOffset);
+            }
+        }
+    }
+
+    int getkSize() {
+        return kSize;
+    }
+}
+
+// EOF
@@ -59,6 +59,17 @@ public class MashDistance {
             return Math.max(0f, -1.0 / k * Math.log(2.0 * jaccardIndex / (1 + jaccardIndex)));
     }
 
+    /**
+     * computes the distance for the given number of shared values in two sketches of the given size
+     */
+    static double compute(int intersection, int sketchSize, int k, GenomeDistanceType genomeDistanceType) {
+        final double jaccardIndex = (sketchSize == 0 ? 0.0 : (double) intersection / (double) sketchSize);
+        if (genomeDistanceType == GenomeDistanceType.Mash)
+            return compute(jaccardIndex, k);
+        else
+            return 1 - jaccardIndex;
+    }
+
     public static int computeMinIntersectionSizeForMaxDistance(double maxDistance, int k, int s) {
         for (int j = (s + 1); j > 0; j--) {
             double d = compute((j - 1.0) / (double) s, k);
@@ -70,14 +81,16 @@ public class MashDistance {
 
     public static int computeIntersection(MashSketch sketch1, MashSketch sketch2) {
         final int sketchSize = sketch1.getSketchSize();
+        final long[] values1 = sketch1.getValues();
+        final long[] values2 = sketch2.getValues();
 
         int intersectionSize = 0;
         int mergeSize = 0;
         int i = 0;
         int j = 0;
         while (true) {
-            final long value1 = sketch1.getValue(i);
-            final long value2 = sketch2.getValue(j);
+            final long value1 = values1[i];
+            final long value2 = values2[j];
 
             if (value1 < value2) {
                 if (++i == sketchSize)
@@ -0,0 +1,233 @@
+/*
+ * MashDistanceMatrix.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.mash;
+
+import jloda.graph.algorithms.DistanceMatrix;
+import jloda.kmers.GenomeDistanceType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * computes the distances between all pairs of a list of Mash sketches.
+ * The hash values of all sketches are packed into one contiguous array and the upper triangle of the matrix is processed
+ * in square tiles of sketches, in parallel, so that the sketches of a tile stay in cache.
+ * When only distances up to a given threshold are of interest, the merge of two sketches stops as soon as
+ * the threshold can no longer be met
+ * Daniel Huson, 2023
+ */
+public class MashDistanceMatrix {
+    private static final int BLOCK_SIZE = 64;
+
+    private final int n;
+    private final int sketchSize;
+    private final int kSize;
+    private final GenomeDistanceType genomeDistanceType;
+    private final long[] values;
+    private final int[] start; // values of sketch i are found in positions start[i] to start[i+1]-1
+
+    /**
+     * a pair of sketches i<j and their distance
+     */
+    public record Neighbor(int i, int j, double distance) {
+    }
+
+    /**
+     * constructor
+     *
+     * @param sketches           sketches, all must have the same sketch size, k-mer size and type
+     * @param genomeDistanceType distance to compute
+     */
+    public MashDistanceMatrix(List<MashSketch> sketches, GenomeDistanceType genomeDistanceType) {
+        n = sketches.size();
+        sketchSize = (n > 0 ? sketches.get(0).getSketchSize() : 0);
+        kSize = (n > 0 ? sketches.get(0).getkSize() : 0);
+        this.genomeDistanceType = genomeDistanceType;
+
+        start = new int[n + 1];
+        var total = 0L;
+        for (var i = 0; i < n; i++) {
+            var sketch = sketches.get(i);
+            if (!MashSketch.canCompare(sketches.get(0), sketch))
+                throw new IllegalArgumentException("Sketches have different parameters: " + sketches.get(0) + " and " + sketch);
+            start[i] = (int) total;
+            total += Math.min(sketchSize, sketch.getValues().length);
+            if (total > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Too many sketches: " + n);
+        }
+        start[n] = (int) total;
+        values = new long[(int) total];
+        for (var i = 0; i < n; i++)
+            System.arraycopy(sketches.get(i).getValues(), 0, values, start[i], start[i + 1] - start[i]);
+    }
+
+    /**
+     * @return number of sketches
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * computes the number of shared values in the bottom sketch of the union of two sketches, as MashDistance.computeIntersection
+     */
+    public int computeIntersection(int a, int b) {
+        return computeIntersection(a, b, 0);
+    }
+
+    /**
+     * computes the distance between two sketches
+     */
+    public double computeDistance(int a, int b) {
+        return a == b ? 0.0 : distance(computeIntersection(a, b, 0));
+    }
+
+    /**
+     * computes the distances between all pairs of sketches into a new matrix
+     *
+     * @param numberOfThreads number of threads
+     * @return distance matrix
+     */
+    public DistanceMatrix computeAll(int numberOfThreads) {
+        var matrix = DistanceMatrix.createDouble(n);
+        computeAll(matrix, numberOfThreads);
+        return matrix;
+    }
+
+    /**
+     * computes the distances between all pairs of sketches into the given matrix
+     *
+     * @param matrix          matrix with one row per sketch
+     * @param numberOfThreads number of threads
+     */
+    public void computeAll(DistanceMatrix matrix, int numberOfThreads) {
+        if (matrix.size() != n)
+            throw new IllegalArgumentException("Distance matrix has wrong size: " + matrix.size());
+        for (var i = 0; i < n; i++)
+            matrix.set(i, i, 0.0);
+        applyToAllTiles(numberOfThreads, (ib, jb) -> {
+            var iEnd = Math.min(n, (ib + 1) * BLOCK_SIZE);
+            var jEnd = Math.min(n, (jb + 1) * BLOCK_SIZE);
+            for (var i = ib * BLOCK_SIZE; i < iEnd; i++) {
+                for (var j = Math.max(i + 1, jb * BLOCK_SIZE); j < jEnd; j++) {
+                    var distance = distance(computeIntersection(i, j, 0));
+                    matrix.set(i, j, distance);
+                    matrix.set(j, i, distance);
+                }
+            }
+        });
+    }
+
+    /**
+     * computes all pairs of sketches whose distance is at most the given threshold
+     *
+     * @param maxDistance     the threshold
+     * @param numberOfThreads number of threads
+     * @return all pairs i<j with distance at most maxDistance, sorted by i and then j
+     */
+    public List<Neighbor> computeNeighbors(double maxDistance, int numberOfThreads) {
+        var minIntersection = 0;
+        while (minIntersection <= sketchSize && distance(minIntersection) > maxDistance)
+            minIntersection++;
+        if (minIntersection > sketchSize)
+            return new ArrayList<>();
+
+        final var threshold = minIntersection;
+        var queue = new ConcurrentLinkedQueue<Neighbor>();
+        applyToAllTiles(numberOfThreads, (ib, jb) -> {
+            var iEnd = Math.min(n, (ib + 1) * BLOCK_SIZE);
+            var jEnd = Math.min(n, (jb + 1) * BLOCK_SIZE);
+            for (var i = ib * BLOCK_SIZE; i < iEnd; i++) {
+                for (var j = Math.max(i + 1, jb * BLOCK_SIZE); j < jEnd; j++) {
+                    var intersection = computeIntersection(i, j, threshold);
+                    if (intersection >= threshold)
+                        queue.add(new Neighbor(i, j, distance(intersection)));
+                }
+            }
+        });
+        var result = new ArrayList<>(queue);
+        result.sort(Comparator.comparingInt(Neighbor::i).thenComparingInt(Neighbor::j));
+        return result;
+    }
+
+    /**
+     * merges the two sketches until sketch size many distinct values have been seen, counting shared values.
+     * Stops early and returns -1, if fewer than minIntersection shared values can be found
+     */
+    private int computeIntersection(int a, int b, int minIntersection) {
+        var i = start[a];
+        var iEnd = start[a + 1];
+        var j = start[b];
+        var jEnd = start[b + 1];
+        var remaining = sketchSize;
+        var count = 0;
+        while (i < iEnd && j < jEnd && remaining > 0) {
+            var value1 = values[i];
+            var value2 = values[j];
+            remaining--;
+            if (value1 == value2) {
+                count++;
+                i++;
+                j++;
+            } else {
+                if (value1 < value2)
+                    i++;
+                else
+                    j++;
+                if (count + Math.min(remaining, Math.min(iEnd - i, jEnd - j)) < minIntersection)
+                    return -1;
+            }
+        }
+        return count;
+    }
+
+    private double distance(int intersection) {
+        return MashDistance.compute(intersection, sketchSize, kSize, genomeDistanceType);
+    }
+
+    /**
+     * applies the function to all tiles on or above the diagonal, in parallel
+     */
+    private void applyToAllTiles(int numberOfThreads, TileFunction function) {
+        var blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        var pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+        try {
+            pool.submit(() -> IntStream.range(0, blocks * blocks).parallel().forEach(ij -> {
+                var ib = ij / blocks;
+                var jb = ij % blocks;
+                if (ib <= jb)
+                    function.apply(ib, jb);
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private interface TileFunction {
+        void apply(int ib, int jb);
+    }
+}
+
+// EOF
@@ -20,17 +20,15 @@
 
 package jloda.kmers.mash;
 
-import jloda.kmers.bloomfilter.BloomFilter;
-import jloda.seq.SequenceUtils;
-import jloda.thirdparty.MurmurHash;
+import jloda.kmers.bloomfilter.BlockedBloomFilter;
+import jloda.kmers.bloomfilter.CountingBloomFilter;
+import jloda.seq.SequenceRecordReader;
 import jloda.util.*;
 import jloda.util.progress.ProgressListener;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeSet;
 
 /**
  * a Mash sketch
@@ -69,97 +67,94 @@ public class MashSketch {
      * compute a mash sketch
      */
     public static MashSketch compute(String name, Collection<byte[]> sequences, boolean isNucleotides, int sketchSize, int kMerSize, int seed, boolean filterUniqueKMers, boolean saveKMers, ProgressListener progress) {
+        return compute(name, sequences, isNucleotides, sketchSize, kMerSize, seed, filterUniqueKMers ? 2 : 1, saveKMers, progress);
+    }
+
+    /**
+     * compute a mash sketch, using only k-mers that occur at least the given number of times.
+     * A value of 2 filters unique k-mers using a Bloom filter, larger values use a counting Bloom filter
+     *
+     * @param minKmerCopies minimum number of copies of a k-mer, at most 15
+     */
+    public static MashSketch compute(String name, Collection<byte[]> sequences, boolean isNucleotides, int sketchSize, int kMerSize, int seed, int minKmerCopies, boolean saveKMers, ProgressListener progress) {
+        final long totalLength = sequences.stream().mapToLong(s -> s.length).sum();
+        try {
+            return compute(name, consumer -> {
+                for (byte[] sequence : sequences)
+                    consumer.accept(sequence, sequence.length);
+            }, totalLength, isNucleotides, sketchSize, kMerSize, seed, minKmerCopies, saveKMers, progress);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen
+        }
+    }
+
+    /**
+     * compute a mash sketch for all sequences provided by the reader, using only k-mers that occur at least the given number of times
+     *
+     * @param minKmerCopies minimum number of copies of a k-mer, at most 15
+     */
+    public static MashSketch compute(String name, SequenceRecordReader reader, boolean isNucleotides, int sketchSize, int kMerSize, int seed, int minKmerCopies, boolean saveKMers, ProgressListener progress) throws IOException {
+        return compute(name, consumer -> {
+            while (reader.readNext())
+                consumer.accept(reader.getSequence(), reader.getSequenceLength());
+        }, reader.getMaximumProgress(), isNucleotides, sketchSize, kMerSize, seed, minKmerCopies, saveKMers, progress);
+    }
+
+    private static MashSketch compute(String name, SequenceSource sequences, long totalLength, boolean isNucleotides, int sketchSize, int kMerSize, int seed, int minKmerCopies, boolean saveKMers, ProgressListener progress) throws IOException {
+        if (minKmerCopies > CountingBloomFilter.MAX_COUNT)
+            throw new IllegalArgumentException("minKmerCopies must be at most " + CountingBloomFilter.MAX_COUNT + ", got: " + minKmerCopies);
+
         final MashSketch sketch = new MashSketch(sketchSize, kMerSize, name, isNucleotides);
 
-        final TreeSet<Long> sortedSet = new TreeSet<>();
-        sortedSet.add(Long.MAX_VALUE);
+        final BottomHashes bottomHashes = new BottomHashes(sketchSize, saveKMers);
 
-        final Map<Long, byte[]> hash2kmer = saveKMers ? new HashMap<>() : null;
+        final BlockedBloomFilter bloomFilter = (minKmerCopies == 2 ? new BlockedBloomFilter(totalLength, 0.0, 500000000L) : null);
+        final CountingBloomFilter countingFilter = (minKmerCopies > 2 ? new CountingBloomFilter(totalLength, 0.0, 500000000L) : null);
 
-        final BloomFilter bloomFilter;
-        if (filterUniqueKMers)
-            bloomFilter = new BloomFilter(sequences.stream().mapToInt(s -> s.length).sum(), 500000000);
-        else
-            bloomFilter = null;
+        final CanonicalKMerHasher hasher = new CanonicalKMerHasher(kMerSize, isNucleotides, seed);
+        final int[] count = {0};
 
         try {
-            final byte[] kMer = new byte[kMerSize]; // will reuse
-            final byte[] kMerReverseComplement = new byte[kMerSize]; // will reuse
-
-            for (byte[] sequence : sequences) {
-                final int top = sequence.length - kMerSize + 1;
-                for (int offset = 0; offset < top; offset++) {
-                    if (isNucleotides) {
-						final int ambiguousPos = StringUtils.lastIndexOf(sequence, offset, kMerSize, 'N'); // don't use k-mers with ambiguity letters
-                        if (ambiguousPos != -1) {
-                            offset = ambiguousPos; // skip to last ambiguous so that increment will move past
-                            continue;
-                        }
-                    }
-
-                    SequenceUtils.getSegment(sequence, offset, kMerSize, kMer);
-
-                    final byte[] kMerUse;
-                    if (isNucleotides) {
-                        SequenceUtils.getReverseComplement(sequence, offset, kMerSize, kMerReverseComplement);
-
-                        if (SequenceUtils.compare(kMer, kMerReverseComplement) <= 0) {
-                            kMerUse = kMer;
-                        } else {
-                            kMerUse = kMerReverseComplement;
-                        }
-                    } else
-                        kMerUse = kMer;
-
-                    if (bloomFilter != null && bloomFilter.add(kMerUse)) {
-                        continue; // first time we have seen this k-mer
-                    }
-
-                    final long hash = MurmurHash.hash64(kMerUse, 0, kMerSize, seed);
-
-                    if (hash < sortedSet.last()) {
-                        if (hash2kmer == null) {
-                            if (sortedSet.add(hash) && sortedSet.size() > sketchSize)
-                                sortedSet.pollLast();
-                        } else {
-                            if (sortedSet.add(hash)) {
-                                hash2kmer.put(hash, kMerUse.clone());
-                                if (sortedSet.size() > sketchSize) {
-                                    Long removedHash = sortedSet.pollLast();
-                                    if (removedHash != null)
-                                        hash2kmer.remove(removedHash);
-                                }
-                            }
-                        }
-                    }
+            sequences.forEach((sequence, length) -> hasher.apply(sequence, length, (hash, array, offset) -> {
+                if (bloomFilter != null) {
+                    if (!bloomFilter.add(hash)) // skip if first time we have seen this k-mer
+                        bottomHashes.add(hash, array, offset, kMerSize);
+                } else if (countingFilter == null || countingFilter.add(hash) >= minKmerCopies)
+                    bottomHashes.add(hash, array, offset, kMerSize);
+                if ((++count[0] & 0xffff) == 0)
                     progress.checkForCancel();
-                }
-            }
-            {
-                if (sortedSet.contains(Long.MAX_VALUE)) {
-                    sortedSet.remove(Long.MAX_VALUE);
-                    System.err.printf("Warning: Computing sketch %s: Too few k-mers: %,d of %,d%n", sketch.getName(), sortedSet.size(), sketchSize);
-                }
-                sketch.hashValues = new long[sortedSet.size()];
-                int pos = 0;
-                for (Long value : sortedSet)
-                    sketch.hashValues[pos++] = value;
-            }
+            }));
+            progress.checkForCancel();
             progress.incrementProgress();
         } catch (CanceledException ignored) {
         }
 
-        if (saveKMers && hash2kmer != null) {
-            sketch.kmers = new byte[hash2kmer.size()][];
-            int i = 0;
-            for (byte[] kmer : hash2kmer.values()) {
-                sketch.kmers[i++] = kmer;
-            }
-        }
+        sketch.setValues(bottomHashes);
         progress.reportTaskCompleted();
         return sketch;
     }
 
+    /**
+     * provides sequences as arrays and lengths
+     */
+    private interface SequenceSource {
+        void forEach(SequenceConsumer consumer) throws IOException;
+    }
+
+    private interface SequenceConsumer {
+        void accept(byte[] sequence, int length) throws IOException;
+    }
+
+    /**
+     * sets the hash values, and k-mers, if saved, from the given bottom hashes
+     */
+    void setValues(BottomHashes bottomHashes) {
+        if (bottomHashes.size() < sketchSize)
+            System.err.printf("Warning: Computing sketch %s: Too few k-mers: %,d of %,d%n", getName(), bottomHashes.size(), sketchSize);
+        hashValues = bottomHashes.getValues();
+        kmers = bottomHashes.getKMers();
+    }
+
     public String getHeader() {
         return String.format("##ComputeMashSketch name='%s' sketchSize=%d kSize=%d type=%s\n", name, sketchSize, kSize, isNucleotides ? "nucl" : "aa");
     }
@@ -0,0 +1,355 @@
+/*
+ * MashSketchBatch.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.mash;
+
+import jloda.kmers.bloomfilter.BlockedBloomFilter;
+import jloda.seq.SequenceRecordReader;
+import jloda.util.CanceledException;
+import jloda.util.FileUtils;
+import jloda.util.Single;
+import jloda.util.progress.ProgressListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * computes Mash sketches for many FastA or FastQ files, possibly gzipped, in parallel.
+ * Sequences are streamed from disk in chunks and are never held in memory as a whole.
+ * Alternatively, a single large file is split into chunks that are sketched in parallel and the partial sketches are then merged
+ * Daniel Huson, 2023
+ */
+public class MashSketchBatch {
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final long MAX_BLOOM_FILTER_BYTES = 500000000L; // total for all Bloom filters in use at the same time
+
+    private MashSketchBatch() {
+    }
+
+    /**
+     * computes one sketch per file, processing files in parallel. Each sketch is named after its file
+     *
+     * @param fileNames         FastA or FastQ files, possibly gzipped
+     * @param numberOfThreads   number of threads to use
+     * @param progress          reports the total number of bytes read
+     * @return sketches, in the order of the files
+     */
+    public static List<MashSketch> compute(Collection<String> fileNames, boolean isNucleotides, int sketchSize, int kMerSize, int seed, boolean filterUniqueKMers, int numberOfThreads, ProgressListener progress) throws IOException {
+        progress.setMaximum(fileNames.stream().mapToLong(FileUtils::guessUncompressedSizeOfFile).sum());
+        progress.setProgress(0);
+
+        final var exception = new Single<Exception>();
+        final var bytesRead = new AtomicLong();
+        final var tasks = new ArrayList<ForkJoinTask<MashSketch>>(fileNames.size());
+
+        final var pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+        final var bloomFilterBytes = getBloomFilterBudget() / Math.max(1, Math.min(pool.getParallelism(), fileNames.size())); // per file in progress
+        try {
+            for (var fileName : fileNames) {
+                tasks.add(pool.submit(() -> {
+                    if (exception.isNotNull())
+                        return null;
+                    try {
+                        final var bottomHashes = new BottomHashes(sketchSize, false);
+                        final var worker = new Worker(new CanonicalKMerHasher(kMerSize, isNucleotides, seed), bottomHashes, filterUniqueKMers ? createBloomFilter(fileName, bloomFilterBytes) : null);
+                        try (var ins = FileUtils.getInputStreamPossiblyZIPorGZIP(fileName)) {
+                            readSequences(ins, new ChunkBuffer(kMerSize, worker::apply), count -> {
+                                if (exception.isNotNull())
+                                    throw new CanceledException();
+                                var total = bytesRead.addAndGet(count);
+                                synchronized (progress) {
+                                    progress.setProgress(total);
+                                }
+                            });
+                        }
+                        final var sketch = new MashSketch(sketchSize, kMerSize, fileName, isNucleotides);
+                        sketch.setValues(bottomHashes);
+                        return sketch;
+                    } catch (Exception e) {
+                        exception.setIfCurrentValueIsNull(e);
+                        return null;
+                    }
+                }));
+            }
+            pool.shutdown();
+            awaitTermination(pool);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (exception.isNotNull())
+            rethrow(exception.get());
+
+        final var sketches = new ArrayList<MashSketch>(tasks.size());
+        for (var task : tasks)
+            sketches.add(task.join());
+        progress.reportTaskCompleted();
+        return sketches;
+    }
+
+    /**
+     * computes the sketch of a single file by splitting its sequences into chunks that are sketched in parallel.
+     * The partial sketches are merged, giving the same result as computing the sketch on one thread, except
+     * that, when filtering unique k-mers, false positives of the Bloom filter may depend on the order of processing
+     *
+     * @param fileName        FastA or FastQ file, possibly gzipped
+     * @param numberOfThreads number of threads to use
+     * @param progress        reports the number of bytes read
+     * @return sketch named after the file
+     */
+    public static MashSketch computeInChunks(String fileName, boolean isNucleotides, int sketchSize, int kMerSize, int seed, boolean filterUniqueKMers, int numberOfThreads, ProgressListener progress) throws IOException {
+        numberOfThreads = Math.max(1, numberOfThreads);
+        progress.setMaximum(FileUtils.guessUncompressedSizeOfFile(fileName));
+        progress.setProgress(0);
+
+        final var exception = new Single<Exception>();
+        final var bloomFilter = (filterUniqueKMers ? createBloomFilter(fileName, getBloomFilterBudget()) : null);
+        final var parts = new ConcurrentLinkedQueue<BottomHashes>();
+        final var workers = ThreadLocal.withInitial(() -> {
+            var bottomHashes = new BottomHashes(sketchSize, false);
+            parts.add(bottomHashes);
+            return new Worker(new CanonicalKMerHasher(kMerSize, isNucleotides, seed), bottomHashes, bloomFilter);
+        });
+        final var pending = new Semaphore(2 * numberOfThreads); // bounds the number of chunks held in memory
+        final var bytesRead = new long[]{0L};
+
+        final var pool = new ForkJoinPool(numberOfThreads);
+        try (var ins = FileUtils.getInputStreamPossiblyZIPorGZIP(fileName)) {
+            readSequences(ins, new ChunkBuffer(kMerSize, (buffer, length) -> {
+                final var chunk = Arrays.copyOf(buffer, length);
+                pending.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try {
+                        workers.get().apply(chunk, chunk.length);
+                    } catch (Exception e) {
+                        exception.setIfCurrentValueIsNull(e);
+                    } finally {
+                        pending.release();
+                    }
+                });
+            }), count -> {
+                if (exception.isNotNull())
+                    throw new CanceledException();
+                bytesRead[0] += count;
+                progress.setProgress(bytesRead[0]);
+            });
+            pool.shutdown();
+            awaitTermination(pool);
+        } catch (Exception e) {
+            exception.setIfCurrentValueIsNull(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (exception.isNotNull())
+            rethrow(exception.get());
+
+        final var bottomHashes = new BottomHashes(sketchSize, false);
+        for (var part : parts)
+            bottomHashes.addAll(part);
+        final var sketch = new MashSketch(sketchSize, kMerSize, fileName, isNucleotides);
+        sketch.setValues(bottomHashes);
+        progress.reportTaskCompleted();
+        return sketch;
+    }
+
+    /**
+     * merges partial sketches, such as sketches of different parts of the same genome, into one sketch
+     *
+     * @param name     name of the merged sketch
+     * @param sketches sketches to merge, must all be comparable
+     * @return merged sketch
+     */
+    public static MashSketch merge(String name, Collection<MashSketch> sketches) {
+        if (sketches.isEmpty())
+            throw new IllegalArgumentException("No sketches to merge");
+        final var first = sketches.iterator().next();
+        final var bottomHashes = new BottomHashes(first.getSketchSize(), false);
+        for (var sketch : sketches) {
+            if (!MashSketch.canCompare(first, sketch))
+                throw new IllegalArgumentException("Sketches have different parameters: " + first + " and " + sketch);
+            for (var value : sketch.getValues())
+                bottomHashes.add(value, null, 0, 0);
+        }
+        final var sketch = new MashSketch(first.getSketchSize(), first.getkSize(), name, first.isNucleotides());
+        sketch.setValues(bottomHashes);
+        return sketch;
+    }
+
+    /**
+     * reads the sequences of a FastA or FastQ stream using a SequenceRecordReader and passes their letters to the chunk buffer,
+     * white space removed, ending the chunk at the end of each record. The number of bytes read is reported about once per block
+     */
+    private static void readSequences(InputStream ins, ChunkBuffer chunkBuffer, ByteCountListener listener) throws IOException {
+        final var reader = new SequenceRecordReader(ins, 0); // not closed here, the caller closes the stream
+        final var reported = new long[]{0L};
+        final SequenceRecordReader.SequenceConsumer consumer = (bytes, offset, length) -> {
+            chunkBuffer.append(bytes, offset, length);
+            reportBytesRead(reader, reported, listener, BLOCK_SIZE);
+        };
+        while (reader.readNext(consumer)) {
+            chunkBuffer.endRecord();
+            reportBytesRead(reader, reported, listener, BLOCK_SIZE);
+        }
+        reportBytesRead(reader, reported, listener, 1);
+    }
+
+    /**
+     * reports the bytes read since the last report, if there are at least the given number of them
+     */
+    private static void reportBytesRead(SequenceRecordReader reader, long[] reported, ByteCountListener listener, int minCount) throws IOException {
+        var count = reader.getProgress() - reported[0];
+        if (count >= minCount) {
+            listener.bytesRead((int) count);
+            reported[0] += count;
+        }
+    }
+
+    /**
+     * creates a Bloom filter for the k-mers of a file, using at most 128 bits per k-mer and at most the given number of bytes.
+     * As the filter rounds its size up to a power of 2, the number of bits is rounded down to a power of 2 here, so that the limit holds
+     */
+    private static BlockedBloomFilter createBloomFilter(String fileName, long maxNumberOfBytes) {
+        final var expectedNumberOfItems = Math.max(1L, FileUtils.guessUncompressedSizeOfFile(fileName));
+        final var totalBits = Math.min(Long.highestOneBit(Math.max(512L, 8L * maxNumberOfBytes)), 128L * expectedNumberOfItems);
+        return new BlockedBloomFilter(totalBits, (int) Math.ceil(Math.log(2) * Math.max(1L, totalBits / expectedNumberOfItems)));
+    }
+
+    /**
+     * @return total number of bytes that the Bloom filters in use at the same time may occupy
+     */
+    private static long getBloomFilterBudget() {
+        return Math.min(MAX_BLOOM_FILTER_BYTES, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    private static void awaitTermination(ForkJoinPool pool) throws CanceledException {
+        try {
+            pool.awaitTermination(1000, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            throw new CanceledException();
+        }
+    }
+
+    private static void rethrow(Exception exception) throws IOException {
+        if (exception instanceof IOException ioException)
+            throw ioException;
+        else if (exception instanceof RuntimeException runtimeException)
+            throw runtimeException;
+        else
+            throw new IOException(exception);
+    }
+
+    /**
+     * is told the number of bytes read from the input stream
+     */
+    interface ByteCountListener {
+        void bytesRead(int count) throws IOException;
+    }
+
+    interface ChunkHandler {
+        void accept(byte[] buffer, int length) throws IOException;
+    }
+
+    /**
+     * sketches chunks into a partial sketch. When filtering unique k-mers, the hash values of a chunk are first collected and then
+     * added to the Bloom filter as a batch, and a hash value is only kept, if the filter has seen it before
+     */
+    private static class Worker {
+        private final CanonicalKMerHasher hasher;
+        private final BottomHashes bottomHashes;
+        private final BlockedBloomFilter bloomFilter;
+        private long[] hashes = new long[0];
+        private boolean[] newlyAdded = new boolean[0];
+        private int count;
+
+        Worker(CanonicalKMerHasher hasher, BottomHashes bottomHashes, BlockedBloomFilter bloomFilter) {
+            this.hasher = hasher;
+            this.bottomHashes = bottomHashes;
+            this.bloomFilter = bloomFilter;
+        }
+
+        void apply(byte[] buffer, int length) throws IOException {
+            if (bloomFilter == null)
+                hasher.apply(buffer, length, (hash, array, offset) -> bottomHashes.add(hash, null, 0, 0));
+            else {
+                if (hashes.length < length) {
+                    hashes = new long[length];
+                    newlyAdded = new boolean[length];
+                }
+                count = 0;
+                hasher.apply(buffer, length, (hash, array, offset) -> hashes[count++] = hash);
+                bloomFilter.addAll(hashes, 0, count, newlyAdded);
+                for (var i = 0; i < count; i++) {
+                    if (!newlyAdded[i]) // skip if first time we have seen this k-mer
+                        bottomHashes.add(hashes[i], null, 0, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * collects sequence letters into chunks. Consecutive chunks of the same sequence overlap by k-1 letters,
+     * so that each k-mer is contained in exactly one chunk
+     */
+    private static class ChunkBuffer {
+        private final int overlap;
+        private final byte[] buffer;
+        private final ChunkHandler handler;
+        private int length = 0;
+
+        ChunkBuffer(int kMerSize, ChunkHandler handler) {
+            this.overlap = kMerSize - 1;
+            this.buffer = new byte[CHUNK_SIZE + overlap];
+            this.handler = handler;
+        }
+
+        void append(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                var n = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+                if (length == buffer.length) {
+                    handler.accept(buffer, length);
+                    System.arraycopy(buffer, length - overlap, buffer, 0, overlap);
+                    length = overlap;
+                }
+            }
+        }
+
+        void endRecord() throws IOException {
+            if (length > overlap)
+                handler.accept(buffer, length);
+            length = 0;
+        }
+    }
+}
+
+// EOF
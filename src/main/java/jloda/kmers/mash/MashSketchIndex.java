@@ -0,0 +1,401 @@
+/*
+ * MashSketchIndex.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.mash;
+
+import jloda.kmers.GenomeDistanceType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * an inverted index from hash values to the sketches that contain them, for finding the sketches closest to a query sketch.
+ * Only sketches that share at least one hash value with the query are considered, so the cost of a query depends on the number
+ * of hits, rather than on the number of sketches in the index.
+ * The index can be written in binary form and loaded from a file using memory-mapping
+ * Daniel Huson, 2023
+ */
+public class MashSketchIndex {
+    public static final int MAGIC_INT = 1481200461; // MSIX
+    private static final int HEADER_INTS = 7;
+
+    private final int sketchSize;
+    private final int kSize;
+    private final boolean isNucleotides;
+    private final String[] names;
+
+    private final IntBuffer start; // values of sketch i are found in positions start[i] to start[i+1]-1
+    private final LongBuffer values; // values of all sketches
+    private final LongBuffer keys; // all distinct values, sorted
+    private final IntBuffer postingStart; // sketches containing keys[i] are found in positions postingStart[i] to postingStart[i+1]-1
+    private final IntBuffer postings; // sketch ids
+
+    private final ThreadLocal<int[]> counts;
+
+    /**
+     * a sketch in the index and its distance to the query
+     */
+    public record Hit(int id, String name, double distance) {
+    }
+
+    /**
+     * builds the index for the given sketches, which must all have the same sketch size, k-mer size and type
+     */
+    public MashSketchIndex(Collection<MashSketch> sketches) {
+        if (sketches.isEmpty())
+            throw new IllegalArgumentException("No sketches");
+        final var first = sketches.iterator().next();
+        sketchSize = first.getSketchSize();
+        kSize = first.getkSize();
+        isNucleotides = first.isNucleotides();
+
+        final var n = sketches.size();
+        names = new String[n];
+        final var startArray = new int[n + 1];
+        var total = 0L;
+        var id = 0;
+        for (var sketch : sketches) {
+            if (!MashSketch.canCompare(first, sketch))
+                throw new IllegalArgumentException("Sketches have different parameters: " + first + " and " + sketch);
+            names[id] = sketch.getName();
+            startArray[id++] = (int) total;
+            total += Math.min(sketchSize, sketch.getValues().length);
+            if (total > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Too many sketches: " + n);
+        }
+        startArray[n] = (int) total;
+
+        final var valuesArray = new long[(int) total];
+        id = 0;
+        for (var sketch : sketches) {
+            System.arraycopy(sketch.getValues(), 0, valuesArray, startArray[id], startArray[id + 1] - startArray[id]);
+            id++;
+        }
+
+        var sorted = valuesArray.clone();
+        Arrays.sort(sorted);
+        var numberOfKeys = 0;
+        for (var i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                sorted[numberOfKeys++] = sorted[i];
+        }
+        final var keysArray = Arrays.copyOf(sorted, numberOfKeys);
+
+        final var postingStartArray = new int[numberOfKeys + 1];
+        for (var value : valuesArray)
+            postingStartArray[Arrays.binarySearch(keysArray, value) + 1]++;
+        for (var i = 0; i < numberOfKeys; i++)
+            postingStartArray[i + 1] += postingStartArray[i];
+        final var postingsArray = new int[valuesArray.length];
+        final var next = Arrays.copyOf(postingStartArray, numberOfKeys);
+        for (var s = 0; s < n; s++) {
+            for (var i = startArray[s]; i < startArray[s + 1]; i++)
+                postingsArray[next[Arrays.binarySearch(keysArray, valuesArray[i])]++] = s;
+        }
+
+        start = IntBuffer.wrap(startArray);
+        values = LongBuffer.wrap(valuesArray);
+        keys = LongBuffer.wrap(keysArray);
+        postingStart = IntBuffer.wrap(postingStartArray);
+        postings = IntBuffer.wrap(postingsArray);
+        counts = ThreadLocal.withInitial(() -> new int[n]);
+    }
+
+    /**
+     * reads the index from its binary form, without copying the arrays
+     */
+    private MashSketchIndex(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 4 * HEADER_INTS || buffer.getInt(0) != MAGIC_INT)
+            throw new IOException("Incorrect magic number");
+        sketchSize = buffer.getInt(4);
+        kSize = buffer.getInt(8);
+        isNucleotides = (buffer.getInt(12) != 0);
+        final var n = buffer.getInt(16);
+        final var numberOfValues = buffer.getInt(20);
+        final var numberOfKeys = buffer.getInt(24);
+
+        var position = 4L * HEADER_INTS;
+        start = slice(buffer, position, 4L * (n + 1)).asIntBuffer();
+        position += 4L * (n + 1);
+        values = slice(buffer, position, 8L * numberOfValues).asLongBuffer();
+        position += 8L * numberOfValues;
+        keys = slice(buffer, position, 8L * numberOfKeys).asLongBuffer();
+        position += 8L * numberOfKeys;
+        postingStart = slice(buffer, position, 4L * (numberOfKeys + 1)).asIntBuffer();
+        position += 4L * (numberOfKeys + 1);
+        postings = slice(buffer, position, 4L * numberOfValues).asIntBuffer();
+        position += 4L * numberOfValues;
+
+        names = new String[n];
+        for (var i = 0; i < n; i++) {
+            if (position + 4 > buffer.limit())
+                throw new IOException("Index truncated");
+            var length = buffer.getInt((int) position);
+            var bytes = new byte[length];
+            slice(buffer, position + 4, length).get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+        counts = ThreadLocal.withInitial(() -> new int[n]);
+    }
+
+    /**
+     * parses an index from its binary form
+     */
+    public static MashSketchIndex parse(byte[] bytes) throws IOException {
+        return new MashSketchIndex(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * loads an index from a file written by write(), using memory-mapping
+     */
+    public static MashSketchIndex load(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Index file too large: " + channel.size());
+            return new MashSketchIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * writes the binary form of the index to a file
+     */
+    public void write(Path file) throws IOException {
+        Files.write(file, getBytes());
+    }
+
+    /**
+     * gets the binary form of the index. All numbers are little endian
+     */
+    public byte[] getBytes() {
+        final var nameBytes = new byte[names.length][];
+        var size = 4L * HEADER_INTS + 4L * start.limit() + 8L * values.limit() + 8L * keys.limit() + 4L * postingStart.limit() + 4L * postings.limit();
+        for (var i = 0; i < names.length; i++) {
+            nameBytes[i] = (names[i] != null ? names[i] : "").getBytes(StandardCharsets.UTF_8);
+            size += 4 + nameBytes[i].length;
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalStateException("Index too large: " + size);
+
+        final var buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC_INT).putInt(sketchSize).putInt(kSize).putInt(isNucleotides ? 1 : 0).putInt(names.length).putInt(values.limit()).putInt(keys.limit());
+        buffer.asIntBuffer().put(start.duplicate().rewind());
+        buffer.position(buffer.position() + 4 * start.limit());
+        buffer.asLongBuffer().put(values.duplicate().rewind());
+        buffer.position(buffer.position() + 8 * values.limit());
+        buffer.asLongBuffer().put(keys.duplicate().rewind());
+        buffer.position(buffer.position() + 8 * keys.limit());
+        buffer.asIntBuffer().put(postingStart.duplicate().rewind());
+        buffer.position(buffer.position() + 4 * postingStart.limit());
+        buffer.asIntBuffer().put(postings.duplicate().rewind());
+        buffer.position(buffer.position() + 4 * postings.limit());
+        for (var bytes : nameBytes)
+            buffer.putInt(bytes.length).put(bytes);
+        return buffer.array();
+    }
+
+    /**
+     * finds all sketches whose distance to the query is at most the given threshold. Only sketches that share at least one value with the query are reported
+     *
+     * @return hits, sorted by increasing distance
+     */
+    public List<Hit> findWithin(MashSketch query, double maxDistance, GenomeDistanceType genomeDistanceType) {
+        checkQuery(query);
+        var minIntersection = 1;
+        while (minIntersection <= sketchSize && MashDistance.compute(minIntersection, sketchSize, kSize, genomeDistanceType) > maxDistance)
+            minIntersection++;
+
+        final var result = new ArrayList<Hit>();
+        if (minIntersection <= sketchSize) {
+            final var queryValues = queryValues(query);
+            final var count = counts.get();
+            final var candidates = countSharedValues(queryValues, count);
+            for (var id : candidates) {
+                if (count[id] >= minIntersection) {
+                    var distance = MashDistance.compute(computeIntersection(queryValues, id), sketchSize, kSize, genomeDistanceType);
+                    if (distance <= maxDistance)
+                        result.add(new Hit(id, names[id], distance));
+                }
+                count[id] = 0;
+            }
+            result.sort(Comparator.comparingDouble(Hit::distance).thenComparingInt(Hit::id));
+        }
+        return result;
+    }
+
+    /**
+     * finds the k sketches that are closest to the query. Only sketches that share at least one value with the query are reported
+     *
+     * @return hits, sorted by increasing distance
+     */
+    public List<Hit> findNearest(MashSketch query, int k, GenomeDistanceType genomeDistanceType) {
+        checkQuery(query);
+        final var queryValues = queryValues(query);
+        final var count = counts.get();
+        final var candidates = countSharedValues(queryValues, count);
+
+        // the number of shared values bounds the intersection from above, so process candidates by decreasing count
+        final var order = new long[candidates.length];
+        for (var i = 0; i < candidates.length; i++) {
+            order[i] = ((long) count[candidates[i]] << 32) | candidates[i];
+            count[candidates[i]] = 0;
+        }
+        Arrays.sort(order);
+
+        final var comparator = Comparator.comparingDouble(Hit::distance).thenComparingInt(Hit::id);
+        final var best = new PriorityQueue<>(comparator.reversed()); // the k best hits so far, worst first
+        for (var i = order.length - 1; i >= 0 && k > 0; i--) {
+            final var id = (int) order[i];
+            if (best.size() == k && MashDistance.compute((int) (order[i] >>> 32), sketchSize, kSize, genomeDistanceType) > best.peek().distance())
+                break;
+            best.add(new Hit(id, names[id], MashDistance.compute(computeIntersection(queryValues, id), sketchSize, kSize, genomeDistanceType)));
+            if (best.size() > k)
+                best.poll();
+        }
+        final var result = new ArrayList<>(best);
+        result.sort(comparator);
+        return result;
+    }
+
+    /**
+     * @return number of sketches
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public int getSketchSize() {
+        return sketchSize;
+    }
+
+    public int getkSize() {
+        return kSize;
+    }
+
+    public boolean isNucleotides() {
+        return isNucleotides;
+    }
+
+    /**
+     * counts the number of values that each sketch shares with the query
+     *
+     * @return ids of all sketches that share at least one value
+     */
+    private int[] countSharedValues(long[] queryValues, int[] count) {
+        var candidates = new int[16];
+        var numberOfCandidates = 0;
+        final var numberOfKeys = keys.limit();
+        var low = 0;
+        for (var value : queryValues) { // query values are sorted, so the search range shrinks
+            var pos = binarySearch(keys, low, numberOfKeys, value);
+            if (pos < 0) {
+                low = -pos - 1;
+                continue;
+            }
+            low = pos + 1;
+            for (var p = postingStart.get(pos); p < postingStart.get(pos + 1); p++) {
+                var id = postings.get(p);
+                if (count[id]++ == 0) {
+                    if (numberOfCandidates == candidates.length)
+                        candidates = Arrays.copyOf(candidates, 2 * numberOfCandidates);
+                    candidates[numberOfCandidates++] = id;
+                }
+            }
+        }
+        return Arrays.copyOf(candidates, numberOfCandidates);
+    }
+
+    /**
+     * computes the intersection of the query and a sketch in the index, as MashDistance.computeIntersection
+     */
+    private int computeIntersection(long[] queryValues, int id) {
+        var i = 0;
+        var j = start.get(id);
+        var jEnd = start.get(id + 1);
+        var remaining = sketchSize;
+        var count = 0;
+        while (i < queryValues.length && j < jEnd && remaining-- > 0) {
+            var value1 = queryValues[i];
+            var value2 = values.get(j);
+            if (value1 < value2)
+                i++;
+            else if (value1 > value2)
+                j++;
+            else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    private void checkQuery(MashSketch query) {
+        if (query.getSketchSize() != sketchSize || query.getkSize() != kSize || query.isNucleotides() != isNucleotides)
+            throw new IllegalArgumentException("Query has different parameters than index: " + query);
+    }
+
+    private long[] queryValues(MashSketch query) {
+        var queryValues = query.getValues();
+        return queryValues.length > sketchSize ? Arrays.copyOf(queryValues, sketchSize) : queryValues;
+    }
+
+    private static int binarySearch(LongBuffer buffer, int low, int high, long key) {
+        high--;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            var value = buffer.get(mid);
+            if (value < key)
+                low = mid + 1;
+            else if (value > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long position, long length) throws IOException {
+        if (position + length > buffer.limit())
+            throw new IOException("Index truncated");
+        return buffer.slice((int) position, (int) length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
+
+// EOF
@@ -0,0 +1,230 @@
+/*
+ * ClusterEdgeIndex.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * maps the cluster of taxa below each non-root node of a rooted tree or network to the in-edge of that node, computed once
+ * and then reused until the tree, its root or its taxa change. Obtain using PhyloTree.getClusterEdgeIndex()
+ * <p>
+ * The clusters of all nodes are computed in a single post-order traversal and stored as rows of a packed array of long words.
+ * They are kept in an open-addressing hash table that uses the same hash code as BitSet.hashCode(), so that a cluster given as a
+ * BitSet can be looked up without copying it. If several nodes have the same cluster, then the first one in post-order is used,
+ * and in the case of a node that has more than one in-edge, the first in-edge is used
+ * Daniel Huson, 2023
+ */
+public class ClusterEdgeIndex {
+	private final Node root;
+	private final long modificationCount;
+	private final long taxaModificationCount;
+
+	private final int numberOfWords; // number of long words used to represent each cluster
+	private final long[] clusters; // clusters of entries, numberOfWords per entry
+	private final int[] cardinality; // number of taxa in the cluster of each entry
+	private final Edge[] edges; // edge of each entry
+	private final int[] table; // hash table, contains entry+1, or 0 for empty slot
+	private final int[] edgeId2Entry; // edge id to entry+1, or 0, if edge not indexed
+
+	/**
+	 * computes the index for the given tree
+	 */
+	ClusterEdgeIndex(PhyloTree tree) {
+		this.root = tree.getRoot();
+		this.modificationCount = tree.getModificationCount();
+		this.taxaModificationCount = tree.getTaxaModificationCount();
+
+		var maxTaxon = 0;
+		for (var v : tree.nodes()) {
+			for (var t : tree.getTaxa(v)) {
+				maxTaxon = Math.max(maxTaxon, t);
+			}
+		}
+		numberOfWords = maxTaxon / 64 + 1;
+
+		var maxNodes = tree.getMaxNodeId() + 1; // upper bound on number of nodes, including hidden ones
+		var nodeClusters = new long[0];
+		var entryEdges = new Edge[maxNodes];
+		var count = new int[1];
+		if (root != null) {
+			nodeClusters = new long[maxNodes * numberOfWords];
+			var packed = nodeClusters;
+			try (var row = tree.newNodeIntArray()) { // row of node in post-order
+				tree.depthFirstTraversal(root, null, null, v -> {
+					var offset = count[0] * numberOfWords;
+					for (var t : tree.getTaxa(v)) {
+						packed[offset + (t >>> 6)] |= (1L << t);
+					}
+					for (var e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
+						var childOffset = row.getInt(e.getTarget()) * numberOfWords;
+						for (var i = 0; i < numberOfWords; i++) {
+							packed[offset + i] |= packed[childOffset + i];
+						}
+					}
+					row.set(v, count[0]);
+					entryEdges[count[0]++] = v.getFirstInEdge();
+				});
+			}
+		}
+
+		// keep only nodes that have an in-edge:
+		var numberOfEntries = 0;
+		for (var i = 0; i < count[0]; i++) {
+			if (entryEdges[i] != null) {
+				if (i > numberOfEntries) {
+					System.arraycopy(nodeClusters, i * numberOfWords, nodeClusters, numberOfEntries * numberOfWords, numberOfWords);
+					entryEdges[numberOfEntries] = entryEdges[i];
+				}
+				numberOfEntries++;
+			}
+		}
+		clusters = Arrays.copyOf(nodeClusters, numberOfEntries * numberOfWords);
+		edges = Arrays.copyOf(entryEdges, numberOfEntries);
+
+		cardinality = new int[numberOfEntries];
+		edgeId2Entry = new int[tree.getMaxEdgeId() + 1];
+		var capacity = Integer.highestOneBit(Math.max(1, 2 * numberOfEntries)) << 1;
+		table = new int[capacity];
+		for (var entry = 0; entry < numberOfEntries; entry++) {
+			var offset = entry * numberOfWords;
+			var bits = 0;
+			var h = 1234L; // as in BitSet.hashCode()
+			for (var i = 0; i < numberOfWords; i++) {
+				bits += Long.bitCount(clusters[offset + i]);
+				h ^= clusters[offset + i] * (i + 1);
+			}
+			cardinality[entry] = bits;
+			edgeId2Entry[edges[entry].getId()] = entry + 1;
+			var slot = findSlot(entry, (int) ((h >> 32) ^ h), bits);
+			if (table[slot] == 0) // first node in post-order wins
+				table[slot] = entry + 1;
+		}
+	}
+
+	/**
+	 * finds the slot that contains an entry with the same cluster as the given entry, or the empty slot at which the search ended
+	 */
+	private int findSlot(int entry, int hashCode, int bits) {
+		var offset = entry * numberOfWords;
+		var mask = table.length - 1;
+		for (var slot = mix(hashCode) & mask; ; slot = (slot + 1) & mask) {
+			var other = table[slot] - 1;
+			if (other == -1)
+				return slot;
+			if (cardinality[other] == bits && Arrays.equals(clusters, offset, offset + numberOfWords, clusters, other * numberOfWords, (other + 1) * numberOfWords))
+				return slot;
+		}
+	}
+
+	/**
+	 * is this still valid for the given tree?
+	 *
+	 * @return true, if neither the tree, its root nor its taxa have changed since this was computed
+	 */
+	public boolean isValid(PhyloTree tree) {
+		return tree.getRoot() == root && tree.getModificationCount() == modificationCount && tree.getTaxaModificationCount() == taxaModificationCount;
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return number of indexed edges
+	 */
+	public int size() {
+		return edges.length;
+	}
+
+	/**
+	 * gets the edge that separates the given cluster from all other taxa
+	 *
+	 * @param cluster the taxa
+	 * @return the in-edge of the first node in post-order whose cluster equals the given one, or null
+	 */
+	public Edge getEdge(BitSet cluster) {
+		if (cluster.length() > 64 * numberOfWords)
+			return null;
+		var bits = cluster.cardinality();
+		var mask = table.length - 1;
+		for (var slot = mix(cluster.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+			var entry = table[slot] - 1;
+			if (entry == -1)
+				return null;
+			if (cardinality[entry] == bits && isContained(cluster, entry))
+				return edges[entry];
+		}
+	}
+
+	/**
+	 * gets the edge that corresponds to the split
+	 *
+	 * @param partA one side of split
+	 * @param partB other side of split
+	 * @return separating edge, if it exists, otherwise null
+	 */
+	public Edge getEdgeForSplit(BitSet partA, BitSet partB) {
+		var e = getEdge(partA);
+		if (e == null)
+			e = getEdge(partB);
+		return e;
+	}
+
+	/**
+	 * gets the cluster of taxa below the given edge
+	 *
+	 * @param e edge
+	 * @return cluster, or null, if the edge is not indexed
+	 */
+	public BitSet getCluster(Edge e) {
+		var id = e.getId();
+		if (id >= edgeId2Entry.length || edgeId2Entry[id] == 0 || edges[edgeId2Entry[id] - 1] != e)
+			return null;
+		var offset = (edgeId2Entry[id] - 1) * numberOfWords;
+		return BitSet.valueOf(Arrays.copyOfRange(clusters, offset, offset + numberOfWords));
+	}
+
+	/**
+	 * are all members of the cluster contained in the cluster of the entry?
+	 */
+	private boolean isContained(BitSet cluster, int entry) {
+		var offset = entry * numberOfWords;
+		for (var t = cluster.nextSetBit(0); t != -1; t = cluster.nextSetBit(t + 1)) {
+			if ((clusters[offset + (t >>> 6)] & (1L << t)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * spreads the bits of a hash code, as neighboring clusters often differ only in a few low bits
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
+
+// EOF
@@ -24,6 +24,7 @@ import jloda.graph.Edge;
 import jloda.graph.EdgeArray;
 import jloda.graph.Node;
 import jloda.graph.NodeArray;
+import jloda.graph.algorithms.DominatorTree;
 import jloda.util.IteratorUtils;
 
 import java.util.*;
@@ -45,6 +46,11 @@ public class LSAUtils {
 	public static PhyloTree getLSATree(PhyloTree tree) {
 		if (tree.isReticulated()) {
 			var lsaTree = new PhyloTree(tree);
+			if (!lsaTree.hasLSAChildrenMap()) {
+				try (NodeArray<Node> reticulation2LSA = lsaTree.newNodeArray()) {
+					computeLSAChildrenMap(lsaTree, reticulation2LSA);
+				}
+			}
 			for (var v : lsaTree.nodes()) {
 				var lsaChildren = IteratorUtils.asList(lsaTree.lsaChildren(v));
 				var edges = new ArrayList<Edge>();
@@ -147,13 +153,35 @@ public class LSAUtils {
 	}
 
 	/**
-	 * compute the reticulation-to-lsa mapping
+	 * compute the reticulation-to-lsa mapping. The LSA of a reticulation is its immediate dominator with respect to the root
+	 *
+	 * @param tree             the rooted network
+	 * @param reticulation2LSA the reticulation to LSA mapping
+	 */
+	public static void computeReticulation2LSA(PhyloTree tree, NodeArray<Node> reticulation2LSA) {
+		reticulation2LSA.clear();
+		if (tree.getRoot() == null)
+			return;
+
+		var dominatorTree = new DominatorTree(tree, List.of(tree.getRoot()));
+		for (var i = 0; i < dominatorTree.size(); i++) {
+			var v = dominatorTree.getNode(i);
+			if (v.getInDegree() > 1 && dominatorTree.getDominatorRank(i) < dominatorTree.size())
+				reticulation2LSA.put(v, dominatorTree.getNode(dominatorTree.getDominatorRank(i)));
+		}
+	}
+
+	/**
+	 * compute the reticulation-to-lsa mapping by propagating sets of paths up the network. This is the original algorithm,
+	 * which is much slower than computeReticulation2LSA(), and is kept for cross-checking
 	 *
 	 * @param tree             the rooted network
 	 * @param reticulation2LSA the reticulation to LSA mapping
 	 */
-	private static void computeReticulation2LSA(PhyloTree tree, NodeArray<Node> reticulation2LSA) {
+	public static void computeReticulation2LSAUsingPathSets(PhyloTree tree, NodeArray<Node> reticulation2LSA) {
 		reticulation2LSA.clear();
+		if (tree.getRoot() == null)
+			return;
 
 		try (NodeArray<BitSet> ret2PathSet = tree.newNodeArray(); NodeArray<EdgeArray<BitSet>> ret2Edge2PathSet = tree.newNodeArray();
 			 NodeArray<Set<Node>> node2below = tree.newNodeArray()) {
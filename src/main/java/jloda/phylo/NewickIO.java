@@ -27,11 +27,17 @@ import jloda.graph.NodeIntArray;
 import jloda.util.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * input and output of a tree or rooted network in extended rich Newick format
@@ -182,7 +188,7 @@ public class NewickIO {
 		outputEdgeNumber = 0;
 
 		if (getNewickLeadingCommentSupplier() != null) {
-			w.write(String.format("[%s]", getNewickLeadingCommentSupplier()));
+			w.write(String.format("[%s]", getNewickLeadingCommentSupplier().get()));
 		}
 
 		if (tree.hasReticulateEdges()) {
@@ -358,17 +364,36 @@ public class NewickIO {
 	}
 
 	/**
-	 * reads a line and then parses it as a rooted tree or network in Newick format
+	 * parses the next rooted tree or network in Newick format from the reader. The tree ends at a semicolon
+	 * or at the end of the line, and the reader is left positioned after it, if it supports marks
 	 *
 	 * @param r the reader
 	 */
 	public void read(PhyloTree tree, Reader r) throws IOException {
-		final BufferedReader br;
-		if (r instanceof BufferedReader)
-			br = (BufferedReader) r;
-		else
-			br = new BufferedReader(r);
-		parseBracketNotation(tree, br.readLine(), true, true);
+		if (!r.markSupported())
+			r = new BufferedReader(r);
+		var parser = new NewickParser(this, r);
+		try {
+			parse(tree, parser, true, true);
+		} finally {
+			parser.release();
+		}
+	}
+
+	/**
+	 * parses the next rooted tree or network in Newick format from UTF-8 encoded bytes, starting at the current position
+	 * of the buffer. The tree ends at a semicolon or at the end of the line. Afterward, the position of the buffer is set to the end of the tree
+	 *
+	 * @param buffer the bytes
+	 * @return true, if a tree was read, false, if the end of the buffer was reached
+	 */
+	public boolean read(PhyloTree tree, ByteBuffer buffer) throws IOException {
+		var parser = new NewickParser(this, buffer);
+		try {
+			return parse(tree, parser, true, true);
+		} finally {
+			parser.release();
+		}
 	}
 
 	/**
@@ -393,41 +418,32 @@ public class NewickIO {
 	 * Parses a tree or network in Newick notation, and sets the root, if desired
 	 */
 	public void parseBracketNotation(PhyloTree tree, String str, boolean rooted, boolean doClear) throws IOException {
+		parse(tree, new NewickParser(this, str), rooted, doClear);
+	}
+
+	/**
+	 * parses the next tree, sets the root and post-processes reticulate nodes and confidence values
+	 *
+	 * @return true, if a tree was found
+	 */
+	boolean parse(PhyloTree tree, NewickParser parser, boolean rooted, boolean doClear) throws IOException {
 		if (doClear)
 			tree.clear();
 		inputHasMultiLabels = false;
 
-		str = str.trim();
-		{
-			while (str.startsWith("[")) {
-				var next = str.indexOf("[", 1);
-				var pos = str.indexOf("]", 1);
-				if (pos == -1 || (next != -1 && next < pos))
-					throw new IOException("Leading comment not properly terminated");
-				if (getNewickLeadingCommentConsumer() != null)
-					getNewickLeadingCommentConsumer().accept(str.substring(1, pos));
-				str = str.substring(pos + 1).trim();
-			}
-		}
-
-		var seen = new HashMap<String, Node>();
-
+		boolean found;
+		tree.beginBatch();
 		try {
-			parseBracketNotationRec(tree, seen, 0, null, 0, str);
-		} catch (IOException ex) {
-			//System.err.println(str);
-			throw ex;
+			found = parser.parse(tree, new HashMap<>());
+			inputHasMultiLabels = parser.isInputHasMultiLabels();
+		} finally {
+			tree.endBatch();
 		}
+
 		if (tree.getNumberOfNodes() > 0) {
 			final var v = tree.getFirstNode();
 			if (rooted) {
 				tree.setRoot(v);
-				/*
-				if (!hasEdgeWeights() && isUnlabeledDiVertex(v)) {
-					setWeight(v.getFirstAdjacentEdge(), 0.5);
-					setWeight(v.getLastAdjacentEdge(), 0.5);
-				}
-				 */
 			} else {
 				if (tree.isUnlabeledDiVertex(v))
 					tree.setRoot(tree.delDivertex(v).getSource());
@@ -455,238 +471,7 @@ public class NewickIO {
 				}
 			}
 		}
-
-		// System.err.println("Multi-labeled nodes detected: " + isInputHasMultiLabels());
-
-		if (false) {
-			System.err.println("has reticulate edges: " + (tree.hasReticulateEdges() ? tree.getReticulateEdges().size() : 0));
-			System.err.println("has acceptor edges: " + (tree.hasTransferAcceptorEdges() ? tree.getTransferAcceptorEdges().size() : 0));
-
-			System.err.println("has edge weights: " + (tree.hasReticulateEdges() ? tree.getReticulateEdges().size() : 0));
-			System.err.println("has edge confidences: " + (tree.hasEdgeConfidences() ? tree.getEdgeConfidences().size() : 0));
-			System.err.println("has edge probabilities: " + (tree.hasEdgeProbabilities() ? tree.getEdgeProbabilities().size() : 0));
-			System.err.println(toBracketString(tree, new OutputFormat(true, true, true, true, true)));
-		}
-	}
-
-
-	/**
-	 * recursively do the work
-	 *
-	 * @param seen  set of seen labels
-	 * @param depth distance from root
-	 * @param v     parent node
-	 * @param pos   current position in string
-	 * @param str   string
-	 * @return new current position
-	 */
-	private int parseBracketNotationRec(PhyloTree tree, Map<String, Node> seen, int depth, Node v, int pos, String str) throws IOException {
-		for (pos = StringUtils.skipSpaces(str, pos); pos < str.length(); pos = StringUtils.skipSpaces(str, pos + 1)) {
-			var w = tree.newNode();
-			String label = null;
-			var confidenceValue = new Single<Double>();
-
-			if (str.charAt(pos) == '(') {
-				pos = parseBracketNotationRec(tree, seen, depth + 1, w, pos + 1, str);
-				if (str.charAt(pos) != ')')
-					throw new IOException("Expected ')' at position " + pos);
-				pos = StringUtils.skipSpaces(str, pos + 1);
-				while (pos < str.length() && punctuationCharacters.indexOf(str.charAt(pos)) == -1) {
-					var pos0 = pos;
-					var buf = new StringBuilder();
-					var inQuotes = false;
-					while (pos < str.length() && (inQuotes || punctuationCharacters.indexOf(str.charAt(pos)) == -1)) {
-						if (str.charAt(pos) == '\'')
-							inQuotes = !inQuotes;
-						else
-							buf.append(str.charAt(pos));
-						pos++;
-					}
-					label = buf.toString().trim();
-
-					if (!label.isEmpty()) {
-						if (isNumbersOnInternalNodesAreConfidenceValues() && NumberUtils.isDouble(label)) {
-							confidenceValue.set(NumberUtils.parseDouble(label));
-						} else {
-							if (!isAllowMultiLabeledNodes() && seen.containsKey(label) && PhyloTreeNetworkIOUtils.findReticulateLabel(label) == null)
-							// if label already used, make unique, unless this is a reticulate node
-							{
-								if (label.startsWith("'") && label.endsWith("'") && label.length() > 1)
-									label = label.substring(1, label.length() - 1);
-								// give first occurrence of this label the suffix .1
-								final Node old = seen.get(label);
-								if (old != null) // change label of node
-								{
-									tree.setLabel(old, label + ".1");
-									seen.put(label, null); // keep label in, but null indicates has changed
-									seen.put(label + ".1", old);
-									inputHasMultiLabels = true;
-								}
-
-								var t = 1;
-								String labelt;
-								do {
-									labelt = label + "." + (++t);
-								} while (seen.containsKey(labelt));
-								label = labelt;
-							}
-							seen.put(label, w);
-						}
-					}
-					tree.setLabel(w, label);
-					if (label.isEmpty())
-						throw new IOException("Expected label at position " + pos0);
-				}
-			} else // everything to next ) : or , is considered a label:
-			{
-				if (tree.getNumberOfNodes() == 1)
-					throw new IOException("Expected '(' at position " + pos);
-				var pos0 = pos;
-				final var buf = new StringBuilder();
-				boolean inQuotes = false;
-				while (pos < str.length() && (inQuotes || punctuationCharacters.indexOf(str.charAt(pos)) == -1)) {
-					if (str.charAt(pos) == '\'')
-						inQuotes = !inQuotes;
-					else
-						buf.append(str.charAt(pos));
-					pos++;
-				}
-				label = buf.toString().trim();
-
-				if (label.startsWith("'") && label.endsWith("'") && label.length() > 1)
-					label = label.substring(1, label.length() - 1).trim();
-
-				if (!label.isEmpty()) {
-					if (!isAllowMultiLabeledNodes() && seen.containsKey(label) && PhyloTreeNetworkIOUtils.findReticulateLabel(label) == null) {
-						// give first occurrence of this label the suffix .1
-						var old = seen.get(label);
-						if (old != null) // change label of node
-						{
-							tree.setLabel(old, label + ".1");
-							seen.put(label, null); // keep label in, but null indicates has changed
-							seen.put(label + ".1", old);
-							inputHasMultiLabels = true;
-							if (WARN_HAS_MULTILABELS)
-								System.err.println("multi-label: " + label);
-						}
-
-						var t = 1;
-						String labelt;
-						do {
-							labelt = label + "." + (++t);
-						} while (seen.containsKey(labelt));
-						label = labelt;
-					}
-					seen.put(label, w);
-				}
-				tree.setLabel(w, label);
-				if (label.isEmpty())
-					throw new IOException("Expected label at position " + pos0);
-			}
-			Edge e = null;
-			if (v != null)
-				e = tree.newEdge(v, w);
-
-			if (confidenceValue.isNotNull())
-				tree.setConfidence(e, confidenceValue.get());
-
-			// detect and read embedded bootstrap values:
-			pos = StringUtils.skipSpaces(str, pos);
-
-			// read edge weights
-			var didReadWeight = false;
-
-			for (var which = 0; which < 3; which++) {
-				if (pos < str.length() && str.charAt(pos) == ':') { // edge weight is following
-					pos = StringUtils.skipSpaces(str, pos + 1);
-					if (pos < str.length() && str.charAt(pos) == ':') {
-						continue;
-					}
-					var pos0 = pos;
-					var numberStr = StringUtils.getStringUptoDelimiter(str, pos0, punctuationCharacters);
-					if (!NumberUtils.isDouble(numberStr))
-						throw new IOException("Expected number at position " + pos0 + " (got: '" + numberStr + "')");
-					pos = pos0 + numberStr.length();
-					var value = Math.max(0, Double.parseDouble(numberStr));
-					switch (which) {
-						case 0 -> {
-							if (e != null) {
-								tree.setWeight(e, value);
-								didReadWeight = true;
-							}
-						}
-						case 1 -> {
-							if (e != null) {
-								tree.setConfidence(e, value);
-							}
-						}
-						case 2 -> {
-							if (e != null) {
-								tree.setProbability(e, value);
-							}
-						}
-					}
-				}
-				if (!PhyloTree.SUPPORT_RICH_NEWICK)
-					break; // don't allow confidence or probability
-			}
-
-			// adjust edge weights for reticulate edges
-			if (e != null) {
-				if (PhyloTree.SUPPORT_RICH_NEWICK) {
-					if (label != null && PhyloTreeNetworkIOUtils.isReticulateNode(label)) {
-						if (PhyloTreeNetworkIOUtils.isReticulateAcceptorEdge(label)) {
-							tree.setTransferAcceptor(e, true);
-						} else {
-							tree.setReticulate(e, true);
-						}
-					}
-				} else {
-					try {
-						if (label != null && PhyloTreeNetworkIOUtils.isReticulateNode(label)) {
-							// if an instance of a reticulate node is marked ##, then we will set the weight of the edge to the node to a number >0
-							// to indicate that edge should be drawn as a tree edge
-							if (PhyloTreeNetworkIOUtils.isReticulateAcceptorEdge(label)) {
-								if (!didReadWeight || tree.getWeight(e) <= 0) {
-									tree.setWeight(e, 0.000001);
-								}
-							} else {
-								if (tree.getWeight(e) > 0)
-									tree.setWeight(e, 0.0);
-							}
-						}
-					} catch (IllegalSelfEdgeException e1) {
-						Basic.caught(e1);
-					}
-				}
-			}
-
-			// now i should be pointing to a ',', a ')' or '[' (for a label)
-			if (pos >= str.length()) {
-				if (depth == 0)
-					return pos; // finished parsing tree
-				else
-					throw new IOException("Unexpected end of line");
-			}
-			if (str.charAt(pos) == '[') // edge label
-			{
-				int x = str.indexOf('[', pos + 1);
-				int j = str.indexOf(']', pos + 1);
-				if (j == -1 || (x != -1 && x < j))
-					throw new IOException("Error in edge label at position: " + pos);
-				if (getNewickNodeCommentConsumer() != null)
-					getNewickNodeCommentConsumer().accept(v, str.substring(pos + 1, j));
-				pos = j + 1;
-			}
-			if (str.charAt(pos) == ';' && depth == 0)
-
-				return pos; // finished parsing tree
-			else if (str.charAt(pos) == ')')
-				return pos;
-			else if (str.charAt(pos) != ',')
-				throw new IOException("Unexpected '" + str.charAt(pos) + "' at position " + pos);
-		}
-		return -1;
+		return found;
 	}
 
 	/**
@@ -772,6 +557,241 @@ public class NewickIO {
 		}
 	}
 
+	/**
+	 * reads all trees or networks from a file in Newick format, parsing them in parallel. The file may be gzipped.
+	 * Trees are separated by semicolons or line breaks
+	 *
+	 * @param file            the file
+	 * @param numberOfThreads number of threads to use
+	 * @return trees in the order in which they appear in the file
+	 */
+	public List<PhyloTree> readAll(Path file, int numberOfThreads) throws IOException {
+		try (var stream = streamAll(file, numberOfThreads)) {
+			return stream.toList();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * streams all trees or networks from a file in Newick format, see streamAll(InputStream,int). The file may be gzipped.
+	 * The stream must be closed after use
+	 *
+	 * @param file            the file
+	 * @param numberOfThreads number of threads to use
+	 * @return ordered stream of trees
+	 */
+	public Stream<PhyloTree> streamAll(Path file, int numberOfThreads) throws IOException {
+		var ins = FileUtils.getInputStreamPossiblyZIPorGZIP(file.toString());
+		return streamAll(ins, numberOfThreads).onClose(() -> {
+			try {
+				ins.close();
+			} catch (IOException ignored) {
+			}
+		});
+	}
+
+	/**
+	 * streams all trees or networks from an input stream in Newick format. The input is split into trees on the calling thread
+	 * and the trees are parsed in parallel, using the settings of this object. Trees are delivered in the order in which they
+	 * appear in the input, and only a bounded number of trees is read ahead, so the whole collection is never held in memory.
+	 * Comments are collected while parsing and are passed to the comment consumers of this object on the thread that consumes
+	 * the stream, in input order, just before the tree is delivered.
+	 * The stream must be closed after use, it throws an UncheckedIOException if the input cannot be parsed
+	 *
+	 * @param ins             the input stream, UTF-8 encoded, is not closed
+	 * @param numberOfThreads number of threads to use
+	 * @return ordered stream of trees
+	 */
+	public Stream<PhyloTree> streamAll(InputStream ins, int numberOfThreads) {
+		var splitter = new NewickSplitter(ins);
+		var leadingCommentConsumer = getNewickLeadingCommentConsumer();
+		var nodeCommentConsumer = getNewickNodeCommentConsumer();
+		var iterator = new OrderedParallelIterator<ParsedTree>(numberOfThreads) {
+			@Override
+			Callable<ParsedTree> nextTask() throws IOException {
+				var bytes = splitter.next();
+				if (bytes == null)
+					return null;
+				return () -> {
+					var parsed = new ParsedTree(new PhyloTree(), new ArrayList<>(), new ArrayList<>());
+					var newickIO = copySettings();
+					if (leadingCommentConsumer != null)
+						newickIO.setNewickLeadingCommentConsumer(parsed.leadingComments()::add);
+					if (nodeCommentConsumer != null)
+						newickIO.setNewickNodeCommentConsumer((v, comment) -> parsed.nodeComments().add(new Pair<>(v, comment)));
+					return newickIO.read(parsed.tree(), ByteBuffer.wrap(bytes)) ? parsed : null;
+				};
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.map(parsed -> {
+					if (leadingCommentConsumer != null)
+						parsed.leadingComments().forEach(leadingCommentConsumer);
+					if (nodeCommentConsumer != null)
+						parsed.nodeComments().forEach(pair -> nodeCommentConsumer.accept(pair.getFirst(), pair.getSecond()));
+					return parsed.tree();
+				})
+				.onClose(iterator::close);
+	}
+
+	/**
+	 * writes all trees or networks to a file in Newick format, formatting them in parallel. Each tree is written on a separate
+	 * line and ends on a semicolon. The file is gzipped, if its name ends on .gz
+	 *
+	 * @param trees           the trees
+	 * @param file            the file
+	 * @param format          the output format
+	 * @param numberOfThreads number of threads to use
+	 */
+	public void writeAll(Iterable<PhyloTree> trees, Path file, OutputFormat format, int numberOfThreads) throws IOException {
+		try (var w = new BufferedWriter(new OutputStreamWriter(FileUtils.getOutputStreamPossiblyZIPorGZIP(file.toString()), StandardCharsets.UTF_8))) {
+			writeAll(trees, w, format, numberOfThreads);
+		}
+	}
+
+	/**
+	 * writes all trees or networks in Newick format, formatting them in parallel, using the settings of this object.
+	 * Each tree is written on a separate line and ends on a semicolon. Trees are written in the given order, and only a
+	 * bounded number of trees are formatted ahead. The comment suppliers of this object are called on the calling thread,
+	 * tree by tree in the given order, and for all nodes of a tree before the tree is formatted
+	 *
+	 * @param trees           the trees
+	 * @param w               the writer, is not closed
+	 * @param format          the output format
+	 * @param numberOfThreads number of threads to use
+	 */
+	public void writeAll(Iterable<PhyloTree> trees, Writer w, OutputFormat format, int numberOfThreads) throws IOException {
+		var it = trees.iterator();
+		try (var iterator = new OrderedParallelIterator<String>(numberOfThreads) {
+			@Override
+			Callable<String> nextTask() {
+				if (!it.hasNext())
+					return null;
+				var tree = it.next();
+				var newickIO = copySettings();
+				if (getNewickLeadingCommentSupplier() != null) {
+					var comment = getNewickLeadingCommentSupplier().get();
+					newickIO.setNewickLeadingCommentSupplier(() -> comment);
+				}
+				if (getNewickNodeCommentSupplier() != null) {
+					var comments = new HashMap<Node, String>();
+					for (var v : tree.nodes())
+						comments.put(v, getNewickNodeCommentSupplier().apply(v));
+					newickIO.setNewickNodeCommentSupplier(comments::get);
+				}
+				return () -> {
+					var newick = newickIO.toBracketString(tree, format);
+					return newick.endsWith(";") ? newick : newick + ";";
+				};
+			}
+		}) {
+			while (iterator.hasNext()) {
+				w.write(iterator.next());
+				w.write("\n");
+			}
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * creates a new instance with the same settings, for use in a different thread. Comment consumers and suppliers are not
+	 * copied, as they are not expected to be thread-safe
+	 */
+	private NewickIO copySettings() {
+		var newickIO = new NewickIO();
+		newickIO.allowMultiLabeledNodes = allowMultiLabeledNodes;
+		newickIO.numbersOnInternalNodesAreConfidenceValues = numbersOnInternalNodesAreConfidenceValues;
+		newickIO.hideCollapsedSubTreeOnWrite = hideCollapsedSubTreeOnWrite;
+		return newickIO;
+	}
+
+	/**
+	 * a tree parsed in a worker thread, together with the comments encountered while parsing it
+	 */
+	private record ParsedTree(PhyloTree tree, List<String> leadingComments, List<Pair<Node, String>> nodeComments) {
+	}
+
+	/**
+	 * iterator over the results of tasks that are run in parallel on a bounded pool. Results are returned in the order in which
+	 * the tasks were created, null results are skipped, and at most a bounded number of tasks are created ahead
+	 */
+	private static abstract class OrderedParallelIterator<T> implements Iterator<T>, AutoCloseable {
+		private final ExecutorService executor;
+		private final int maxPending;
+		private final ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+		private boolean noMoreTasks = false;
+		private T next;
+
+		OrderedParallelIterator(int numberOfThreads) {
+			numberOfThreads = Math.max(1, numberOfThreads);
+			executor = Executors.newFixedThreadPool(numberOfThreads, r -> {
+				var thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			});
+			maxPending = 4 * numberOfThreads;
+		}
+
+		/**
+		 * @return the next task, or null, if there are no more tasks
+		 */
+		abstract Callable<T> nextTask() throws IOException;
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (next == null) {
+					while (!noMoreTasks && pending.size() < maxPending) {
+						var task = nextTask();
+						if (task == null)
+							noMoreTasks = true;
+						else
+							pending.add(executor.submit(task));
+					}
+					if (pending.isEmpty())
+						return false;
+					next = pending.poll().get();
+				}
+				return true;
+			} catch (IOException ex) {
+				close();
+				throw new UncheckedIOException(ex);
+			} catch (InterruptedException ex) {
+				close();
+				Thread.currentThread().interrupt();
+				throw new UncheckedIOException(new InterruptedIOException());
+			} catch (ExecutionException ex) {
+				close();
+				if (ex.getCause() instanceof IOException ioException)
+					throw new UncheckedIOException(ioException);
+				else if (ex.getCause() instanceof RuntimeException runtimeException)
+					throw runtimeException;
+				else
+					throw new RuntimeException(ex.getCause());
+			}
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			var result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void close() {
+			noMoreTasks = true;
+			for (var future : pending)
+				future.cancel(true);
+			pending.clear();
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * hide collapsed subtrees on write?
 	 *
@@ -0,0 +1,499 @@
+/*
+ * NewickParser.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo;
+
+import jloda.graph.Edge;
+import jloda.graph.IllegalSelfEdgeException;
+import jloda.graph.Node;
+import jloda.util.Basic;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * iterative parser for trees and rooted networks in extended Newick format. Reads from a string, a reader or a byte buffer
+ * through a bounded buffer, so that neither the input nor the depth of the tree are limited by memory or stack size.
+ * Outside of brackets, a line break ends a tree, as does a semicolon.
+ * Used by NewickIO, which also sets the root and post-processes reticulate nodes
+ * Daniel Huson, 2023
+ */
+final class NewickParser {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final String punctuationCharacters = "),;:[";
+
+	private final NewickIO newickIO;
+	private final CharSequence string;
+	private final Reader reader;
+	private final ByteBuffer bytes;
+
+	private final char[] buffer;
+	private final byte[] byteBuffer;
+	private int bufferPos = 0;
+	private int bufferEnd = 0;
+	private long bufferStart = 0; // position of the first character of the buffer in the input
+	private boolean marked = false;
+
+	private char[] token = new char[256]; // reused for labels, numbers and comments
+	private int tokenLength;
+
+	private long treeStart; // position of the start of the current tree, used in error messages
+	private int depth; // number of open brackets
+	private boolean inputHasMultiLabels;
+
+	/**
+	 * parser for a string
+	 */
+	NewickParser(NewickIO newickIO, CharSequence string) {
+		this.newickIO = newickIO;
+		this.string = string;
+		this.reader = null;
+		this.bytes = null;
+		this.buffer = new char[Math.max(1, Math.min(BUFFER_SIZE, string.length()))];
+		this.byteBuffer = null;
+	}
+
+	/**
+	 * parser for a reader. If the reader supports marks, then release() returns all characters not used by the parser to the reader
+	 */
+	NewickParser(NewickIO newickIO, Reader reader) {
+		this.newickIO = newickIO;
+		this.string = null;
+		this.reader = reader;
+		this.bytes = null;
+		this.buffer = new char[BUFFER_SIZE];
+		this.byteBuffer = null;
+	}
+
+	/**
+	 * parser for UTF-8 encoded bytes, starting at the current position of the buffer. Call release() to set the position
+	 * of the buffer to the end of the last parsed tree
+	 */
+	NewickParser(NewickIO newickIO, ByteBuffer bytes) {
+		this.newickIO = newickIO;
+		this.string = null;
+		this.reader = null;
+		this.bytes = bytes;
+		this.buffer = new char[Math.max(1, Math.min(BUFFER_SIZE, bytes.remaining()))];
+		this.byteBuffer = new byte[buffer.length];
+	}
+
+	/**
+	 * parses the next tree or network into the given tree, without setting the root
+	 *
+	 * @param tree the tree to add to
+	 * @param seen map of labels to nodes, used to make multiple labels unique
+	 * @return true, if a tree was found, false, if the end of the input was reached
+	 */
+	boolean parse(PhyloTree tree, Map<String, Node> seen) throws IOException {
+		inputHasMultiLabels = false;
+		depth = 0;
+
+		// skip empty lines and leading comments:
+		while (true) {
+			var ch = peek();
+			if (ch == -1)
+				return false;
+			else if (Character.isWhitespace(ch) || Character.isSpaceChar(ch))
+				advance();
+			else if (ch == '[') {
+				advance();
+				var comment = readComment("Leading comment not properly terminated");
+				if (newickIO.getNewickLeadingCommentConsumer() != null)
+					newickIO.getNewickLeadingCommentConsumer().accept(comment);
+			} else
+				break;
+		}
+		treeStart = position();
+
+		var parents = new ArrayList<Node>(); // stack of parents of the current node, the bottom element is null
+		Node v = null; // parent of the current node
+
+		while (true) {
+			// parse the next child of v:
+			skipSpaces();
+			if (isEnd(peek())) {
+				if (depth == 0) {
+					skipLineEnd();
+					return true;
+				} else
+					throw new IOException("Unexpected end of input at position " + relativePosition());
+			}
+			var w = tree.newNode();
+			if (peek() == '(') {
+				advance();
+				parents.add(v);
+				v = w;
+				depth++;
+				continue;
+			}
+			if (tree.getNumberOfNodes() == 1)
+				throw new IOException("Expected '(' at position " + relativePosition());
+			var pos0 = relativePosition();
+			var label = registerLabel(tree, seen, w, readLabel(), true);
+			tree.setLabel(w, label);
+			if (label.isEmpty())
+				throw new IOException("Expected label at position " + pos0);
+			var confidence = Double.NaN;
+
+			// complete the node w, and then all nodes whose lists of children are closed by ')':
+			while (true) {
+				var ch = completeNode(tree, v, w, label, confidence);
+				if (ch == ',') {
+					advance();
+					break;
+				} else if (isEnd(ch)) {
+					if (depth == 0) {
+						skipLineEnd();
+						return true;
+					} else
+						throw new IOException("Unexpected end of input at position " + relativePosition());
+				} else if (ch == ';' && depth == 0) {
+					advance();
+					skipLineEnd();
+					return true;
+				} else if (ch == ')') {
+					if (depth == 0) { // unmatched ')', ignore the rest of the line
+						skipRestOfLine();
+						return true;
+					}
+					advance();
+					depth--;
+					w = v;
+					v = parents.remove(parents.size() - 1);
+					skipSpaces();
+					label = null;
+					confidence = Double.NaN;
+					ch = peek();
+					if (!isEnd(ch) && punctuationCharacters.indexOf(ch) == -1) {
+						pos0 = relativePosition();
+						label = readLabel();
+						if (!label.isEmpty()) {
+							if (newickIO.isNumbersOnInternalNodesAreConfidenceValues() && isDouble(label))
+								confidence = Double.parseDouble(label);
+							else
+								label = registerLabel(tree, seen, w, label, false);
+						}
+						tree.setLabel(w, label);
+						if (label.isEmpty())
+							throw new IOException("Expected label at position " + pos0);
+					}
+				} else
+					throw new IOException("Unexpected '" + (char) ch + "' at position " + relativePosition());
+			}
+		}
+	}
+
+	/**
+	 * connects a node to its parent, reads edge values and a comment
+	 *
+	 * @return the next character, which should be ',', ')', ';' or the end
+	 */
+	private int completeNode(PhyloTree tree, Node v, Node w, String label, double confidence) throws IOException {
+		Edge e = null;
+		if (v != null)
+			e = tree.newEdge(v, w);
+
+		if (e != null && !Double.isNaN(confidence))
+			tree.setConfidence(e, confidence);
+
+		skipSpaces();
+
+		// read edge weight, and also confidence and probability, if supported
+		var didReadWeight = false;
+		for (var which = 0; which < 3; which++) {
+			if (peek() == ':') { // edge weight is following
+				advance();
+				skipSpaces();
+				if (peek() == ':')
+					continue;
+				var pos0 = relativePosition();
+				tokenLength = 0;
+				for (var ch = peek(); !isEnd(ch) && punctuationCharacters.indexOf(ch) == -1; ch = peek()) {
+					appendToken(ch);
+					advance();
+				}
+				var numberStr = new String(token, 0, tokenLength);
+				if (!isDouble(numberStr))
+					throw new IOException("Expected number at position " + pos0 + " (got: '" + numberStr + "')");
+				var value = Math.max(0, Double.parseDouble(numberStr));
+				if (e != null) {
+					switch (which) {
+						case 0 -> {
+							tree.setWeight(e, value);
+							didReadWeight = true;
+						}
+						case 1 -> tree.setConfidence(e, value);
+						case 2 -> tree.setProbability(e, value);
+					}
+				}
+			}
+			if (!PhyloTree.SUPPORT_RICH_NEWICK)
+				break; // don't allow confidence or probability
+		}
+
+		// adjust edge weights for reticulate edges
+		if (e != null && label != null && PhyloTreeNetworkIOUtils.isReticulateNode(label)) {
+			if (PhyloTree.SUPPORT_RICH_NEWICK) {
+				if (PhyloTreeNetworkIOUtils.isReticulateAcceptorEdge(label)) {
+					tree.setTransferAcceptor(e, true);
+				} else {
+					tree.setReticulate(e, true);
+				}
+			} else {
+				try {
+					// if an instance of a reticulate node is marked ##, then we will set the weight of the edge to the node to a number >0
+					// to indicate that edge should be drawn as a tree edge
+					if (PhyloTreeNetworkIOUtils.isReticulateAcceptorEdge(label)) {
+						if (!didReadWeight || tree.getWeight(e) <= 0) {
+							tree.setWeight(e, 0.000001);
+						}
+					} else {
+						if (tree.getWeight(e) > 0)
+							tree.setWeight(e, 0.0);
+					}
+				} catch (IllegalSelfEdgeException e1) {
+					Basic.caught(e1);
+				}
+			}
+		}
+
+		if (peek() == '[') { // edge label
+			var pos0 = relativePosition();
+			advance();
+			var comment = readComment("Error in edge label at position: " + pos0);
+			if (newickIO.getNewickNodeCommentConsumer() != null)
+				newickIO.getNewickNodeCommentConsumer().accept(v, comment);
+		}
+		return peek();
+	}
+
+	/**
+	 * if multi-labeled nodes are not allowed, makes the label unique by appending a number
+	 *
+	 * @return the label to use
+	 */
+	private String registerLabel(PhyloTree tree, Map<String, Node> seen, Node w, String label, boolean warn) {
+		if (!label.isEmpty()) {
+			if (!newickIO.isAllowMultiLabeledNodes() && seen.containsKey(label) && PhyloTreeNetworkIOUtils.findReticulateLabel(label) == null) {
+				// give first occurrence of this label the suffix .1
+				var old = seen.get(label);
+				if (old != null) // change label of node
+				{
+					tree.setLabel(old, label + ".1");
+					seen.put(label, null); // keep label in, but null indicates has changed
+					seen.put(label + ".1", old);
+					inputHasMultiLabels = true;
+					if (warn && NewickIO.WARN_HAS_MULTILABELS)
+						System.err.println("multi-label: " + label);
+				}
+
+				var t = 1;
+				String labelt;
+				do {
+					labelt = label + "." + (++t);
+				} while (seen.containsKey(labelt));
+				label = labelt;
+			}
+			seen.put(label, w);
+		}
+		return label;
+	}
+
+	/**
+	 * were multiple labels made unique while parsing the last tree?
+	 */
+	boolean isInputHasMultiLabels() {
+		return inputHasMultiLabels;
+	}
+
+	/**
+	 * returns all characters that were read ahead, but not used, to the reader or byte buffer
+	 */
+	void release() throws IOException {
+		if (reader != null) {
+			if (marked) {
+				reader.reset();
+				reader.skip(bufferPos);
+			}
+		} else if (bytes != null)
+			bytes.position(bytes.position() - (bufferEnd - bufferPos));
+		bufferStart += bufferPos;
+		bufferPos = bufferEnd = 0;
+		marked = false;
+	}
+
+	/**
+	 * reads a label up to the next punctuation character. Single quotes are removed and protect punctuation
+	 *
+	 * @return trimmed label
+	 */
+	private String readLabel() throws IOException {
+		tokenLength = 0;
+		var inQuotes = false;
+		for (var ch = peek(); !isEnd(ch) && (inQuotes || punctuationCharacters.indexOf(ch) == -1); ch = peek()) {
+			if (ch == '\'')
+				inQuotes = !inQuotes;
+			else
+				appendToken(ch);
+			advance();
+		}
+		return tokenToString().trim();
+	}
+
+	/**
+	 * reads a comment up to the closing bracket, assumes the opening bracket has been read
+	 */
+	private String readComment(String message) throws IOException {
+		tokenLength = 0;
+		for (var ch = peek(); ch != ']'; ch = peek()) {
+			if (ch == -1 || ch == '[')
+				throw new IOException(message);
+			appendToken(ch);
+			advance();
+		}
+		advance();
+		return tokenToString();
+	}
+
+	private void appendToken(int ch) {
+		if (tokenLength == token.length)
+			token = Arrays.copyOf(token, 2 * token.length);
+		token[tokenLength++] = (char) ch;
+	}
+
+	/**
+	 * converts the current token to a string. For byte input, decodes UTF-8
+	 */
+	private String tokenToString() {
+		if (bytes != null) {
+			for (var i = 0; i < tokenLength; i++) {
+				if (token[i] >= 0x80) {
+					var array = new byte[tokenLength];
+					for (var j = 0; j < tokenLength; j++)
+						array[j] = (byte) token[j];
+					return new String(array, StandardCharsets.UTF_8);
+				}
+			}
+		}
+		return new String(token, 0, tokenLength);
+	}
+
+	/**
+	 * end of input? Outside of brackets, a line break also ends the input
+	 */
+	private boolean isEnd(int ch) {
+		return ch == -1 || (depth == 0 && (ch == '\n' || ch == '\r'));
+	}
+
+	private void skipSpaces() throws IOException {
+		for (var ch = peek(); ch != -1 && (Character.isSpaceChar(ch) || (Character.isWhitespace(ch) && !isEnd(ch))); ch = peek())
+			advance();
+	}
+
+	/**
+	 * skips spaces and a single line break
+	 */
+	private void skipLineEnd() throws IOException {
+		skipSpaces();
+		if (peek() == '\r')
+			advance();
+		if (peek() == '\n')
+			advance();
+	}
+
+	private void skipRestOfLine() throws IOException {
+		for (var ch = peek(); ch != -1; ch = peek()) {
+			advance();
+			if (ch == '\n')
+				break;
+		}
+	}
+
+	private static boolean isDouble(String str) {
+		try {
+			Double.parseDouble(str);
+			return true;
+		} catch (NumberFormatException ex) {
+			return false;
+		}
+	}
+
+	private long position() {
+		return bufferStart + bufferPos;
+	}
+
+	private long relativePosition() {
+		return position() - treeStart;
+	}
+
+	private int peek() throws IOException {
+		return bufferPos < bufferEnd || fill() ? buffer[bufferPos] : -1;
+	}
+
+	private void advance() {
+		bufferPos++;
+	}
+
+	/**
+	 * refills the buffer
+	 *
+	 * @return true, if more input is available
+	 */
+	private boolean fill() throws IOException {
+		bufferStart += bufferEnd;
+		bufferPos = 0;
+		bufferEnd = 0;
+		if (string != null) {
+			var count = (int) Math.min(buffer.length, string.length() - bufferStart);
+			if (count > 0) {
+				if (string instanceof String str)
+					str.getChars((int) bufferStart, (int) bufferStart + count, buffer, 0);
+				else {
+					for (var i = 0; i < count; i++)
+						buffer[i] = string.charAt((int) bufferStart + i);
+				}
+				bufferEnd = count;
+			}
+		} else if (reader != null) {
+			if (reader.markSupported()) {
+				reader.mark(buffer.length);
+				marked = true;
+			}
+			var count = reader.read(buffer, 0, buffer.length);
+			if (count > 0)
+				bufferEnd = count;
+		} else if (bytes != null) {
+			var count = Math.min(buffer.length, bytes.remaining());
+			bytes.get(byteBuffer, 0, count);
+			for (var i = 0; i < count; i++)
+				buffer[i] = (char) (byteBuffer[i] & 0xff);
+			bufferEnd = count;
+		}
+		return bufferEnd > 0;
+	}
+}
+
+// EOF
@@ -0,0 +1,106 @@
+/*
+ * NewickSplitter.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * splits a stream of trees in Newick format into the bytes of the individual trees, without parsing them.
+ * A tree ends at a semicolon outside of brackets, quotes and comments, or at a line break outside of brackets,
+ * if a bracket has been seen, using the same rules as NewickParser
+ * Daniel Huson, 2023
+ */
+class NewickSplitter {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InputStream ins;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPos = 0;
+	private int bufferEnd = 0;
+
+	private byte[] tree = new byte[1024];
+	private int treeLength;
+
+	/**
+	 * constructor
+	 *
+	 * @param ins input stream, will not be closed
+	 */
+	NewickSplitter(InputStream ins) {
+		this.ins = ins;
+	}
+
+	/**
+	 * gets the bytes of the next tree
+	 *
+	 * @return bytes of next tree, or null, if the end of the input has been reached
+	 */
+	byte[] next() throws IOException {
+		treeLength = 0;
+		var depth = 0;
+		var inQuotes = false;
+		var inComment = false;
+		var seenBracket = false;
+		var hasContent = false;
+
+		while (true) {
+			if (bufferPos == bufferEnd) {
+				bufferPos = 0;
+				bufferEnd = Math.max(0, ins.read(buffer, 0, buffer.length));
+				if (bufferEnd == 0)
+					return hasContent ? Arrays.copyOf(tree, treeLength) : null;
+			}
+			var ch = buffer[bufferPos++];
+			if (treeLength == tree.length)
+				tree = Arrays.copyOf(tree, 2 * tree.length);
+			tree[treeLength++] = ch;
+
+			if (inComment) {
+				if (ch == ']')
+					inComment = false;
+			} else if (ch == '\'') {
+				inQuotes = !inQuotes;
+			} else if (ch == '\n' || ch == '\r') {
+				if (depth <= 0 && seenBracket)
+					return Arrays.copyOf(tree, treeLength);
+			} else if (!inQuotes) {
+				switch (ch) {
+					case '[' -> inComment = true;
+					case '(' -> {
+						depth++;
+						seenBracket = true;
+					}
+					case ')' -> depth--;
+					case ';' -> {
+						if (depth <= 0)
+							return Arrays.copyOf(tree, treeLength);
+					}
+				}
+			}
+			if (!hasContent && !Character.isWhitespace(ch))
+				hasContent = true;
+		}
+	}
+}
+
+// EOF
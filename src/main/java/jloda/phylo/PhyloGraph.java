@@ -40,28 +40,32 @@ public class PhyloGraph extends Graph {
     private volatile EdgeDoubleArray edgeProbabilities;
     private volatile Map<Integer, Node> taxon2node;
     private volatile NodeArray<List<Integer>> node2taxa;
+    private volatile long taxaModificationCount = 0; // incremented whenever taxa are added to or removed from nodes
 
     // if you add anything here, make sure it gets added to copy, too!
 
     /**
-     * Construct a new empty phylogenetic graph. Also registers a listener that will update the taxon2node
-     * array if nodes are deleted.
+     * Construct a new empty phylogenetic graph.
      */
     public PhyloGraph() {
         super();
+    }
 
-        addGraphUpdateListener(new GraphUpdateAdapter() {
-            public void deleteNode(Node v) {
-                if (node2taxa != null && taxon2node != null) {
-                    var list = node2taxa.get(v);
-                    if (list != null) {
-                        for (Integer t : list) {
-                            taxon2node.put(t, null);
-                        }
-                    }
+    /**
+     * updates the taxon2node map when a node is deleted. This is done here rather than in a graph update listener,
+     * as listeners are not informed during a batch of changes
+     */
+    @Override
+    protected void fireDeleteNode(Node v) {
+        if (node2taxa != null && taxon2node != null) {
+            var list = node2taxa.get(v);
+            if (list != null) {
+                for (Integer t : list) {
+                    taxon2node.put(t, null);
                 }
             }
-        });
+        }
+        super.fireDeleteNode(v);
     }
 
     /**
@@ -78,6 +82,17 @@ public class PhyloGraph extends Graph {
     public void clearNode2Taxa() {
         taxon2node = null;
         node2taxa = null;
+        taxaModificationCount++;
+    }
+
+    /**
+     * gets the number of changes made to the assignment of taxa to nodes so far, using addTaxon(), clearTaxa() and removeTaxon().
+     * Changes made directly to the maps returned by getTaxonNodeMap() or getNodeTaxaMap() are not counted
+     *
+     * @return taxa modification count
+     */
+    public long getTaxaModificationCount() {
+        return taxaModificationCount;
     }
 
     public void clearEdgeWeights() {
@@ -322,6 +337,7 @@ public class PhyloGraph extends Graph {
      * @param taxId the id of the taxon to be added
      */
     public void addTaxon(Node v, int taxId) {
+        taxaModificationCount++;
         getTaxonNodeMap().put(taxId, v);
         var list = getNodeTaxaMap().get(v);
         if (list == null) {
@@ -340,6 +356,7 @@ public class PhyloGraph extends Graph {
 	* @param v the node
 	*/
     public void clearTaxa(Node v) {
+        taxaModificationCount++;
         if (taxon2node != null && node2taxa != null) {
             var list = node2taxa.get(v);
             if (list != null) {
@@ -378,6 +395,7 @@ public class PhyloGraph extends Graph {
      * Clears all taxa
      */
     public void clearTaxa() {
+		taxaModificationCount++;
 		if (node2taxa != null)
 			node2taxa.clear();
 		if (taxon2node != null)
@@ -389,6 +407,7 @@ public class PhyloGraph extends Graph {
      *
 	 */
     public void removeTaxon(int taxonId) {
+        taxaModificationCount++;
         if (taxon2node != null && taxonId > 0 && taxonId < taxon2node.size()) {
             taxon2node.put(taxonId, null);
             if (node2taxa != null) {
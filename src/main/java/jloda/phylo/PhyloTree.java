@@ -22,9 +22,7 @@ package jloda.phylo;
 
 import jloda.graph.*;
 import jloda.util.Basic;
-import jloda.util.BitSetUtils;
 import jloda.util.IteratorUtils;
-import jloda.util.Pair;
 
 import java.io.IOException;
 import java.util.*;
@@ -43,6 +41,8 @@ public class PhyloTree extends PhyloSplitsGraph {
 	private volatile EdgeSet reticulateEdges;
 	private volatile NodeArray<List<Node>> lsaChildrenMap; // keep track of children in LSA tree in network
 	private volatile EdgeSet transferAcceptorEdges;
+	private volatile TraversalOrder traversalOrder;
+	private volatile ClusterEdgeIndex clusterEdgeIndex;
 
 	/**
 	 * Construct a new empty phylogenetic tree.
@@ -68,6 +68,8 @@ public class PhyloTree extends PhyloSplitsGraph {
 		reticulateEdges = null;
 		transferAcceptorEdges = null;
 		lsaChildrenMap = null;
+		traversalOrder = null;
+		clusterEdgeIndex = null;
 	}
 
 	public void clearReticulateEdges() {
@@ -384,7 +386,7 @@ public class PhyloTree extends PhyloSplitsGraph {
 
 			var toDelete = new NodeSet(this);
 			toDelete.addAll();
-			extractTreeRec(src.getRoot(), null, collapsedNodes, oldNode2newNode, toDelete);
+			keepUncollapsedNodes(src, collapsedNodes, oldNode2newNode, toDelete);
 			while (!toDelete.isEmpty()) {
 				Node v = toDelete.getFirstElement();
 				toDelete.remove(v);
@@ -394,15 +396,21 @@ public class PhyloTree extends PhyloSplitsGraph {
 	}
 
 	/**
-	 * recursively does the work
+	 * removes all nodes that are not below a collapsed node from the set of nodes to delete, using an explicit stack
 	 */
-	private void extractTreeRec(Node v, Edge e, NodeSet collapsedNodes, NodeArray<Node> oldNode2newNode, NodeSet toDelete) {
-		if (oldNode2newNode != null)
-			toDelete.remove(oldNode2newNode.get(v));
-		if (!collapsedNodes.contains(v)) {
-			for (var f : v.adjacentEdges()) {
-				if (f != e && this.okToDescendDownThisEdgeInTraversal(f, v)) {
-					extractTreeRec(f.getOpposite(v), f, collapsedNodes, oldNode2newNode, toDelete);
+	private void keepUncollapsedNodes(PhyloTree src, NodeSet collapsedNodes, NodeArray<Node> oldNode2newNode, NodeSet toDelete) {
+		var stack = new NodeEdgeStack(); // nodes to visit, with the edge by which the node was reached
+		stack.push(src.getRoot(), null);
+		while (!stack.isEmpty()) {
+			var v = stack.peekNode();
+			var e = stack.peekEdge();
+			stack.pop();
+			if (oldNode2newNode != null)
+				toDelete.remove(oldNode2newNode.get(v));
+			if (!collapsedNodes.contains(v)) {
+				for (var f : v.adjacentEdges()) {
+					if (f != e && this.okToDescendDownThisEdgeInTraversal(f, v))
+						stack.push(f.getOpposite(v), f);
 				}
 			}
 		}
@@ -412,19 +420,22 @@ public class PhyloTree extends PhyloSplitsGraph {
 	 * redirect edges away from root. Assumes that reticulate edges already point away from root
 	 */
 	public void redirectEdgesAwayFromRoot() {
-		redirectEdgesAwayFromRootRec(getRoot(), null);
-
-	}
-
-	/**
-	 * recursively does the work
-	 */
-	private void redirectEdgesAwayFromRootRec(Node v, Edge e) {
-		if (e != null && v != e.getTarget() && !isReticulateEdge(e))
-			e.reverse();
-		for (var f : IteratorUtils.asList(v.adjacentEdges())) {
-			if (f != e && this.okToDescendDownThisEdgeInTraversal(f, v))
-				redirectEdgesAwayFromRootRec(f.getOpposite(v), f);
+		if (getRoot() == null)
+			return;
+		var stack = new NodeEdgeStack(); // nodes to visit, with the edge by which the node was reached
+		stack.push(getRoot(), null);
+		while (!stack.isEmpty()) {
+			var v = stack.peekNode();
+			var e = stack.peekEdge();
+			stack.pop();
+			if (e != null && v != e.getTarget() && !isReticulateEdge(e))
+				e.reverse();
+			var edges = IteratorUtils.asList(v.adjacentEdges());
+			for (var i = edges.size() - 1; i >= 0; i--) {
+				var f = edges.get(i);
+				if (f != e && this.okToDescendDownThisEdgeInTraversal(f, v))
+					stack.push(f.getOpposite(v), f);
+			}
 		}
 	}
 
@@ -505,22 +516,29 @@ public class PhyloTree extends PhyloSplitsGraph {
 	 * @return cycle for this tree
 	 */
 	public int[] getCycle(Node v) {
-		computeCycleRec(v, null, 0);
+		computeCycle(v);
 		return getCycle();
 	}
 
 	/**
-	 * recursively compute a cycle
+	 * compute a cycle, using an explicit stack
 	 */
-	private int computeCycleRec(Node v, Edge e, int pos) {
-		for (Integer t : getTaxa(v)) {
-			setTaxon2Cycle(t, ++pos);
-		}
-		for (var f : v.adjacentEdges()) {
-			if (f != e && this.okToDescendDownThisEdgeInTraversal(f, v))
-				pos = computeCycleRec(f.getOpposite(v), f, pos);
+	private void computeCycle(Node root) {
+		var pos = 0;
+		var stack = new NodeEdgeStack(); // nodes to visit, with the edge by which the node was reached
+		stack.push(root, null);
+		while (!stack.isEmpty()) {
+			var v = stack.peekNode();
+			var e = stack.peekEdge();
+			stack.pop();
+			for (Integer t : getTaxa(v)) {
+				setTaxon2Cycle(t, ++pos);
+			}
+			for (var f = v.getLastAdjacentEdge(); f != null; f = v.getPrevAdjacentEdge(f)) {
+				if (f != e && this.okToDescendDownThisEdgeInTraversal(f, v))
+					stack.push(f.getOpposite(v), f);
+			}
 		}
-		return pos;
 	}
 
 
@@ -542,90 +560,144 @@ public class PhyloTree extends PhyloSplitsGraph {
 	}
 
 	/**
-	 * applies method to all nodes in preorder traversal
+	 * applies method to all nodes in preorder traversal. If rooted network, visits each node only once.
+	 * Uses the cached traversal order, see getTraversalOrder()
 	 *
 	 * @param method method to apply
 	 */
 	public void preorderTraversal(Consumer<Node> method) {
-		preorderTraversal(getRoot(), method);
+		if (getRoot() != null)
+			getTraversalOrder().preorder(method);
 	}
 
 	/**
-	 * performs a pre-order traversal at node v. If rooted network, will visit some nodes more than once
+	 * performs a pre-order traversal at node v. If rooted network, visits each node only once
 	 *
 	 * @param v      the root node
 	 * @param method method to apply
 	 */
 	public void preorderTraversal(Node v, Consumer<Node> method) {
-		method.accept(v);
-		for (var e : v.outEdges()) {
-			preorderTraversal(e.getTarget(), method);
-		}
+		depthFirstTraversal(v, null, (level, w) -> method.accept(w), null);
 	}
 
 	/**
-	 * performs a pre-order traversal at node v. If rooted network, will visit some nodes more than once
+	 * performs a pre-order traversal at node v. If rooted network, visits each node only once
 	 *
 	 * @param v         the root node
 	 * @param condition must evaluate to true for node to be visited
 	 * @param method    method to apply
 	 */
 	public void preorderTraversal(Node v, Function<Node, Boolean> condition, Consumer<Node> method) {
-		if (condition.apply(v)) {
-			method.accept(v);
-			for (var e : v.outEdges()) {
-				preorderTraversal(e.getTarget(), condition, method);
-			}
-		}
+		depthFirstTraversal(v, condition, (level, w) -> method.accept(w), null);
 	}
 
 	/**
-	 * applies method to all nodes in postorder traversal. If rooted network, will visit some nodes more than once
+	 * applies method to all nodes in postorder traversal. If rooted network, visits each node only once.
+	 * Uses the cached traversal order, see getTraversalOrder()
 	 *
 	 * @param method method to apply
 	 */
 	public void postorderTraversal(Consumer<Node> method) {
-		postorderTraversal(getRoot(), method);
+		if (getRoot() != null)
+			getTraversalOrder().postorder(method);
 	}
 
 	/**
-	 * performs a post-order traversal at node v. If rooted network, will visit some nodes more than once
+	 * performs a post-order traversal at node v. If rooted network, visits each node only once
 	 *
 	 * @param v      the root node
 	 * @param method method to apply
 	 */
 	public void postorderTraversal(Node v, Consumer<Node> method) {
-		for (var e : v.outEdges()) {
-			postorderTraversal(e.getTarget(), method);
-		}
-		method.accept(v);
+		depthFirstTraversal(v, null, null, method);
 	}
 
 	/**
-	 * performs a post-order traversal at node v. If rooted network, will visit some nodes more than once
+	 * performs a post-order traversal at node v. If rooted network, visits each node only once
 	 *
 	 * @param v         the root node
 	 * @param condition must evaluate to true for node to be visited
 	 * @param method    method to apply
 	 */
 	public void postorderTraversal(Node v, Function<Node, Boolean> condition, Consumer<Node> method) {
-		if (condition.apply(v)) {
-			for (var e : v.outEdges()) {
-				postorderTraversal(e.getTarget(), condition, method);
-			}
-			method.accept(v);
-		}
+		depthFirstTraversal(v, condition, null, method);
 	}
 
+	/**
+	 * applies method to all nodes and their levels in pre-order, the root has level 1. If rooted network, visits each node only once.
+	 * Uses the cached traversal order, see getTraversalOrder()
+	 *
+	 * @param method method to apply
+	 */
 	public void breathFirstTraversal(BiConsumer<Integer, Node> method) {
-		breathFirstTraversal(getRoot(), 1, method);
+		if (getRoot() != null)
+			getTraversalOrder().preorderWithLevels(method);
 	}
 
+	/**
+	 * applies method to all nodes and their levels in pre-order, starting at node v. If rooted network, visits each node only once
+	 *
+	 * @param v      the root node
+	 * @param level  the level of v
+	 * @param method method to apply
+	 */
 	public void breathFirstTraversal(Node v, int level, BiConsumer<Integer, Node> method) {
-		method.accept(level, v);
-		for (var e : v.outEdges()) {
-			breathFirstTraversal(e.getTarget(), level + 1, method);
+		depthFirstTraversal(v, null, (depth, w) -> method.accept(level + depth - 1, w), null);
+	}
+
+	/**
+	 * performs a depth-first traversal along out-edges, using an explicit stack, so that very deep trees can be
+	 * traversed. Each node is visited only once, so in a rooted network, a reticulate node is only visited from its first parent
+	 *
+	 * @param v          the root node
+	 * @param condition  must evaluate to true for a node to be visited, or null
+	 * @param preMethod  applied to each node and its level (v has level 1) before its children, or null
+	 * @param postMethod applied to each node after its children, or null
+	 */
+	void depthFirstTraversal(Node v, Function<Node, Boolean> condition, BiConsumer<Integer, Node> preMethod, Consumer<Node> postMethod) {
+		if (condition != null && !condition.apply(v))
+			return;
+		try (var visited = newNodeSet()) {
+			var stack = new NodeEdgeStack(); // nodes on the current path, with the next out-edge to process, or null
+
+			visited.add(v);
+			if (preMethod != null)
+				preMethod.accept(1, v);
+			stack.push(v, v.getFirstOutEdge());
+
+			while (!stack.isEmpty()) {
+				var u = stack.peekNode();
+				var e = stack.peekEdge();
+				if (e == null) {
+					stack.pop();
+					if (postMethod != null)
+						postMethod.accept(u);
+				} else {
+					stack.setEdge(u.getNextOutEdge(e));
+					var w = e.getTarget();
+					if (!visited.contains(w) && (condition == null || condition.apply(w))) {
+						visited.add(w);
+						if (preMethod != null)
+							preMethod.accept(stack.size() + 1, w);
+						stack.push(w, w.getFirstOutEdge());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * gets the pre-order and post-order of all nodes, computing them only if the tree or root has changed since the last call
+	 *
+	 * @return traversal order
+	 */
+	public TraversalOrder getTraversalOrder() {
+		var order = traversalOrder;
+		if (order == null || !order.isValid(this)) {
+			order = new TraversalOrder(this);
+			traversalOrder = order;
 		}
+		return order;
 	}
 
 	/**
@@ -761,40 +833,71 @@ public class PhyloTree extends PhyloSplitsGraph {
 	}
 
 	/**
-	 * get the edge that separates the given cluster from other taxa
+	 * get the edge that separates the given cluster from other taxa. Uses the cached cluster index, see getClusterEdgeIndex()
 	 *
 	 * @param cluster the taxa to be separated
 	 * @return separating edge or null
 	 */
 	public Edge getEdgeForCluster(BitSet cluster) {
-		var pair = getEdgeForTaxaRec(getRoot(), cluster);
-		return pair == null ? null : pair.getFirst();
+		return getRoot() == null ? null : getClusterEdgeIndex().getEdge(cluster);
 	}
 
-	private Pair<Edge, BitSet> getEdgeForTaxaRec(Node v, BitSet cluster) {
-		var here = new BitSet();
-		for (var t : getTaxa(v)) {
-			here.set(t);
+	/**
+	 * gets the index of clusters and their edges, computing it only if the tree, its root or its taxa have changed since the last call
+	 *
+	 * @return cluster index
+	 */
+	public ClusterEdgeIndex getClusterEdgeIndex() {
+		var index = clusterEdgeIndex;
+		if (index == null || !index.isValid(this)) {
+			index = new ClusterEdgeIndex(this);
+			clusterEdgeIndex = index;
 		}
-		if (!BitSetUtils.contains(cluster, here))
-			return null;
-
-		var hasBadChild = false;
-		for (var w : v.children()) {
-			var pair = getEdgeForTaxaRec(w, cluster);
-			if (pair == null)
-				hasBadChild = true;
-			else if (pair.getFirst() != null) // result contains seeked edge
-				return pair;
-			else
-				here.or(pair.getSecond());
+		return index;
+	}
+
+	/**
+	 * a stack of nodes, each paired with an edge, which may be null. Uses parallel arrays, so that pushing doesn't allocate
+	 */
+	private static class NodeEdgeStack {
+		private Node[] nodes = new Node[16];
+		private Edge[] edges = new Edge[16];
+		private int size = 0;
+
+		void push(Node v, Edge e) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * size);
+				edges = Arrays.copyOf(edges, 2 * size);
+			}
+			nodes[size] = v;
+			edges[size++] = e;
+		}
+
+		void pop() {
+			size--;
+			nodes[size] = null;
+			edges[size] = null;
+		}
+
+		Node peekNode() {
+			return nodes[size - 1];
+		}
+
+		Edge peekEdge() {
+			return edges[size - 1];
+		}
+
+		void setEdge(Edge e) {
+			edges[size - 1] = e;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
 		}
-		if (hasBadChild)
-			return null;
-		else if (here.equals(cluster))
-			return new Pair<>(v.getFirstInEdge(), here);
-		else
-			return new Pair<>(null, here);
 	}
 }
 
@@ -0,0 +1,137 @@
+/*
+ * TraversalOrder.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo;
+
+import jloda.graph.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * pre-order and post-order of the nodes of a rooted tree or network, computed once and then reused until the
+ * tree or its root changes. In a rooted network, each node is visited only once.
+ * Obtain using PhyloTree.getTraversalOrder()
+ * Daniel Huson, 2023
+ */
+public class TraversalOrder {
+	private final Node root;
+	private final long modificationCount;
+	private final Node[] nodes; // nodes in pre-order
+	private final int[] postorder; // pre-order ranks of nodes, listed in post-order
+	private final int[] level; // level of each node, indexed by pre-order rank, root has level 1
+
+	/**
+	 * computes the traversal order of the given tree
+	 */
+	TraversalOrder(PhyloTree tree) {
+		this.root = tree.getRoot();
+		this.modificationCount = tree.getModificationCount();
+
+		var n = tree.getMaxNodeId() + 1; // upper bound on number of nodes, including hidden ones
+		var preNodes = new Node[n];
+		var preLevels = new int[n];
+		var postRanks = new int[n];
+		var counts = new int[2]; // number of nodes in pre-order and in post-order
+		if (root != null) {
+			var rank = tree.newNodeIntArray();
+			tree.depthFirstTraversal(root, null,
+					(depth, v) -> {
+						rank.set(v, counts[0]);
+						preNodes[counts[0]] = v;
+						preLevels[counts[0]++] = depth;
+					},
+					v -> postRanks[counts[1]++] = rank.getInt(v));
+		}
+		nodes = Arrays.copyOf(preNodes, counts[0]);
+		level = Arrays.copyOf(preLevels, counts[0]);
+		postorder = Arrays.copyOf(postRanks, counts[1]);
+	}
+
+	/**
+	 * is this still valid for the given tree?
+	 *
+	 * @return true, if neither the tree nor its root have changed since this was computed
+	 */
+	public boolean isValid(PhyloTree tree) {
+		return tree.getRoot() == root && tree.getModificationCount() == modificationCount;
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return number of nodes reachable from the root
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * applies the method to all nodes in pre-order
+	 */
+	public void preorder(Consumer<Node> method) {
+		for (var v : nodes) {
+			method.accept(v);
+		}
+	}
+
+	/**
+	 * applies the method to all nodes in post-order
+	 */
+	public void postorder(Consumer<Node> method) {
+		for (var i : postorder) {
+			method.accept(nodes[i]);
+		}
+	}
+
+	/**
+	 * applies the method to all nodes and their levels in pre-order, the root has level 1
+	 */
+	public void preorderWithLevels(BiConsumer<Integer, Node> method) {
+		for (var i = 0; i < nodes.length; i++) {
+			method.accept(level[i], nodes[i]);
+		}
+	}
+
+	/**
+	 * @return nodes in pre-order
+	 */
+	public List<Node> getPreorder() {
+		return Arrays.asList(nodes.clone());
+	}
+
+	/**
+	 * @return nodes in post-order
+	 */
+	public List<Node> getPostorder() {
+		var list = new ArrayList<Node>(postorder.length);
+		for (var i : postorder) {
+			list.add(nodes[i]);
+		}
+		return list;
+	}
+}
+
+// EOF
@@ -29,13 +29,17 @@ import jloda.util.IteratorUtils;
 import jloda.util.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /**
  * runs the cluster popping algorithm to create a rooted tree or network from a set of clusters
  * Daniel Huson, 8.2022
  */
 public class ClusterPoppingAlgorithm {
+	private static final int BLOCK_SIZE = 4096; // number of clusters for which containing clusters are computed in parallel
+
 	/**
 	 * runs the cluster popping algorithm to create a rooted tree or network from a set of clusters
 	 *
@@ -66,6 +70,25 @@ public class ClusterPoppingAlgorithm {
 	 * @param network            the resulting network
 	 */
 	public static void apply(Collection<BitSet> clusters0, Function<BitSet, Double> weightFunction, Function<BitSet, Double> confidenceFunction, PhyloTree network) {
+		apply(clusters0, weightFunction, confidenceFunction, Runtime.getRuntime().availableProcessors(), network);
+	}
+
+	/**
+	 * runs the cluster popping algorithm to create a rooted tree or network from a set of clusters.
+	 * <p>
+	 * Clusters are inserted in order of decreasing size. A cluster is placed below all nodes that contain it and
+	 * have no child that contains it, these are found by a search from the root that only visits nodes that contain the cluster.
+	 * To avoid set operations during the search, the set of earlier clusters that contain a given cluster is computed beforehand,
+	 * in parallel for blocks of clusters. Candidates are taken from an index that lists the clusters containing each taxon,
+	 * using the taxon with the shortest list, and are checked using a 64-bit signature, before testing containment word by word
+	 *
+	 * @param clusters0          input clusters
+	 * @param weightFunction     weights for clusters, may be null
+	 * @param confidenceFunction confidences for clusters, may be null
+	 * @param numberOfThreads    number of threads to use
+	 * @param network            the resulting network
+	 */
+	public static void apply(Collection<BitSet> clusters0, Function<BitSet, Double> weightFunction, Function<BitSet, Double> confidenceFunction, int numberOfThreads, PhyloTree network) {
 		network.clear();
 
 		if (!clusters0.isEmpty()) {
@@ -74,7 +97,7 @@ public class ClusterPoppingAlgorithm {
 
 			var taxa = BitSetUtils.union(clusters);
 
-			try (NodeArray<BitSet> nodeClusterMap = network.newNodeArray(); var visited = network.newNodeSet()) {
+			try (NodeArray<BitSet> nodeClusterMap = network.newNodeArray()) {
 				network.setRoot(network.newNode());
 				nodeClusterMap.put(network.getRoot(), taxa);
 
@@ -85,29 +108,48 @@ public class ClusterPoppingAlgorithm {
 					}
 				}
 
-				for (var cluster : clusters) {
-					var clusterNode = network.newNode();
-					nodeClusterMap.put(clusterNode, cluster);
-					visited.clear();
-
-					if (network.getNumberOfNodes() > 1 || cluster.cardinality() < taxa.cardinality()) { // skip first cluster if it contains all taxa
-						var stack = new Stack<Node>();
-						stack.push(network.getRoot());
-						while (!stack.isEmpty()) {
-							var v = stack.pop();
-							var isBelowAChild = false;
-							for (var w : v.children()) {
-								var clusterW = nodeClusterMap.get(w);
-								if (BitSetUtils.contains(clusterW, cluster)) {
-									isBelowAChild = true;
-									if (!visited.contains(w))
-										stack.push(w);
+				var index = new ContainmentIndex(clusters);
+				var containing = new int[Math.min(BLOCK_SIZE, clusters.size())][];
+				var stamp = new int[clusters.size()]; // stamp[i]==j+1, if cluster i contains cluster j
+				var pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+				try (var clusterIndex = network.newNodeIntArray(); var visitedStamp = network.newNodeIntArray()) { // cluster index+1 and stamp of visit
+					for (var j = 0; j < clusters.size(); j++) {
+						if (j % BLOCK_SIZE == 0) {
+							var first = j;
+							var count = Math.min(BLOCK_SIZE, clusters.size() - first);
+							pool.submit(() -> IntStream.range(0, count).parallel().forEach(k -> containing[k] = index.getContaining(first + k))).join();
+						}
+						var cluster = clusters.get(j);
+						var clusterNode = network.newNode();
+						nodeClusterMap.put(clusterNode, cluster);
+						clusterIndex.set(clusterNode, j + 1);
+
+						if (network.getNumberOfNodes() > 1 || cluster.cardinality() < taxa.cardinality()) { // skip first cluster if it contains all taxa
+							for (var i : containing[j % BLOCK_SIZE])
+								stamp[i] = j + 1;
+							var stack = new ArrayDeque<Node>();
+							stack.push(network.getRoot());
+							while (!stack.isEmpty()) {
+								var v = stack.pop();
+								if (visitedStamp.getInt(v) == j + 1) // already processed, would not add any edges
+									continue;
+								visitedStamp.set(v, j + 1);
+								var isBelowAChild = false;
+								for (var w : v.children()) {
+									var i = clusterIndex.getInt(w) - 1;
+									if (i == j || (i >= 0 && stamp[i] == j + 1)) {
+										isBelowAChild = true;
+										if (visitedStamp.getInt(w) != j + 1)
+											stack.push(w);
+									}
 								}
+								if (!isBelowAChild && v != clusterNode)
+									network.newEdge(v, clusterNode);
 							}
-							if (!isBelowAChild && v != clusterNode)
-								network.newEdge(v, clusterNode);
 						}
 					}
+				} finally {
+					pool.shutdown();
 				}
 
 				// make sure no node has indegree>1 and outdegree>1
@@ -161,6 +203,91 @@ public class ClusterPoppingAlgorithm {
 		}
 	}
 
+	/**
+	 * index for finding all clusters that contain a given cluster and come before it in the list of clusters
+	 */
+	private static class ContainmentIndex {
+		private final long[][] words;
+		private final long[] signatures;
+		private final int[] taxonStart;
+		private final int[] taxonClusters; // for each taxon, the indices of all clusters containing it, in increasing order
+
+		ContainmentIndex(List<BitSet> clusters) {
+			var n = clusters.size();
+			words = new long[n][];
+			signatures = new long[n];
+			var numberOfTaxa = 0;
+			for (var i = 0; i < n; i++) {
+				words[i] = clusters.get(i).toLongArray();
+				signatures[i] = computeSignature(words[i]);
+				numberOfTaxa = Math.max(numberOfTaxa, clusters.get(i).length());
+			}
+			taxonStart = new int[numberOfTaxa + 1];
+			for (var cluster : clusters) {
+				for (var t = cluster.nextSetBit(0); t != -1; t = cluster.nextSetBit(t + 1))
+					taxonStart[t + 1]++;
+			}
+			for (var t = 0; t < numberOfTaxa; t++)
+				taxonStart[t + 1] += taxonStart[t];
+			taxonClusters = new int[taxonStart[numberOfTaxa]];
+			var pos = Arrays.copyOf(taxonStart, numberOfTaxa);
+			for (var i = 0; i < n; i++) {
+				var cluster = clusters.get(i);
+				for (var t = cluster.nextSetBit(0); t != -1; t = cluster.nextSetBit(t + 1))
+					taxonClusters[pos[t]++] = i;
+			}
+		}
+
+		/**
+		 * gets the indices of all clusters before cluster j that contain it
+		 */
+		int[] getContaining(int j) {
+			var subset = words[j];
+			var signature = signatures[j];
+
+			// candidates are all earlier clusters that contain the member of cluster j that is contained in the fewest earlier clusters:
+			var from = 0;
+			var to = j;
+			var useIndex = false;
+			for (var w = 0; w < subset.length; w++) {
+				for (var bits = subset[w]; bits != 0; bits &= bits - 1) {
+					var t = 64 * w + Long.numberOfTrailingZeros(bits);
+					var end = Arrays.binarySearch(taxonClusters, taxonStart[t], taxonStart[t + 1], j); // j is contained in list
+					if (!useIndex || end - taxonStart[t] < to - from) {
+						from = taxonStart[t];
+						to = end;
+						useIndex = true;
+					}
+				}
+			}
+			var result = new int[to - from];
+			var count = 0;
+			for (var k = from; k < to; k++) {
+				var i = (useIndex ? taxonClusters[k] : k);
+				if ((signature & ~signatures[i]) == 0 && contains(words[i], subset))
+					result[count++] = i;
+			}
+			return Arrays.copyOf(result, count);
+		}
+
+		private static boolean contains(long[] set, long[] subset) {
+			if (subset.length > set.length)
+				return false;
+			for (var w = 0; w < subset.length; w++) {
+				if ((subset[w] & ~set[w]) != 0)
+					return false;
+			}
+			return true;
+		}
+
+		private static long computeSignature(long[] words) {
+			var signature = 0L;
+			for (var w = 0; w < words.length; w++)
+				signature |= Long.rotateLeft(words[w], 17 * w);
+			return signature;
+		}
+	}
+
 	public static void main(String[] args) {
 		var clusters = List.of(BitSetUtils.asBitSet(13, 14, 15), BitSetUtils.asBitSet(14, 15));
 		var tree = new PhyloTree();
@@ -24,9 +24,11 @@ import jloda.graph.Edge;
 import jloda.graph.Node;
 import jloda.graph.NodeIntArray;
 import jloda.phylo.PhyloTree;
+import jloda.util.Pair;
 
 import java.io.IOException;
 import java.util.BitSet;
+import java.util.List;
 
 /**
  * Compute the homoplasy score on a tree
@@ -109,6 +111,19 @@ public class HomoplasyScore {
         return Math.min(scoreA.get(root), scoreB.get(root)) - 1;
     }
 
+    /**
+     * computes the best homoplasy scores for many splits in one go. Gives the same scores as calling computeBestHomoplasyScoreForSplit() for each split,
+     * but sets up the tree only once and processes 64 splits at a time, in parallel
+     *
+     * @param splits          list of splits, each given by its two sides A and B
+     * @param numberOfThreads number of threads to use
+     * @return score for each split
+     * @throws IOException if a taxon of the tree is not contained in a split
+     */
+    static public int[] computeBestHomoplasyScoreForSplits(PhyloTree tree, List<Pair<BitSet, BitSet>> splits, int numberOfThreads) throws IOException {
+        return SplitScoring.apply(tree, splits, null, numberOfThreads);
+    }
+
     /**
      * recursively does the work
      *
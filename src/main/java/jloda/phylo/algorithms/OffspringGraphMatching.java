@@ -29,6 +29,8 @@ import jloda.phylo.PhyloTree;
 import jloda.util.CanceledException;
 import jloda.util.progress.ProgressListener;
 
+import java.util.Arrays;
+
 /**
  * computes the offspring graph matching
  * Daniel Huson, 1.2020
@@ -78,4 +80,105 @@ public class OffspringGraphMatching {
         return (tree.getNumberOfNodes() - tree.countLeaves()) - matching.size();
     }
 
+    /**
+     * is this rooted network tree-based? Same as isTreeBased(tree,compute(tree,progress)), but much faster
+     */
+    public static boolean isTreeBased(PhyloTree tree) {
+        return discrepancy(tree) == 0;
+    }
+
+    /**
+     * computes the discrepancy, that is, the number of non-leaf nodes not covered by a maximum matching of the offspring graph.
+     * The matching is computed on the compact view of the tree using the algorithm of Hopcroft and Karp (1973), in O(m*sqrt(n)) time,
+     * rather than building the offspring graph
+     *
+     * @return discrepancy, 0, if tree-based
+     */
+    public static int discrepancy(PhyloTree tree) {
+        var view = tree.freeze();
+        var n = view.getNumberOfNodes();
+        var parentMatch = new int[n]; // node as parent, matched to child, or -1
+        var childMatch = new int[n]; // node as child, matched to parent, or -1
+        Arrays.fill(parentMatch, -1);
+        Arrays.fill(childMatch, -1);
+
+        var matched = 0;
+        for (var u = 0; u < n; u++) { // greedy start
+            for (var k = view.outStart(u); k < view.outEnd(u); k++) {
+                if (childMatch[view.outTarget(k)] == -1) {
+                    parentMatch[u] = view.outTarget(k);
+                    childMatch[view.outTarget(k)] = u;
+                    matched++;
+                    break;
+                }
+            }
+        }
+
+        var dist = new int[n];
+        var next = new int[n]; // next out-edge to try in the current phase
+        var queue = new int[n];
+        var stack = new int[n];
+        while (true) {
+            // breadth-first search from all unmatched parents, along non-matching edges to children and matching edges back to parents:
+            var head = 0;
+            var tail = 0;
+            for (var u = 0; u < n; u++) {
+                if (parentMatch[u] == -1 && view.getOutDegree(u) > 0) {
+                    dist[u] = 0;
+                    queue[tail++] = u;
+                } else
+                    dist[u] = Integer.MAX_VALUE;
+            }
+            var found = false;
+            while (head < tail) {
+                var u = queue[head++];
+                for (var k = view.outStart(u); k < view.outEnd(u); k++) {
+                    var v = childMatch[view.outTarget(k)];
+                    if (v == -1)
+                        found = true;
+                    else if (dist[v] == Integer.MAX_VALUE) {
+                        dist[v] = dist[u] + 1;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+            if (!found)
+                break;
+
+            // depth-first search for vertex-disjoint shortest augmenting paths, using an explicit stack:
+            for (var u = 0; u < n; u++)
+                next[u] = view.outStart(u);
+            for (var root = 0; root < n; root++) {
+                if (parentMatch[root] != -1 || view.getOutDegree(root) == 0)
+                    continue;
+                var top = 0;
+                stack[top++] = root;
+                while (top > 0) {
+                    var u = stack[top - 1];
+                    if (next[u] == view.outEnd(u)) {
+                        dist[u] = Integer.MAX_VALUE; // dead end for the rest of this phase
+                        if (--top > 0)
+                            next[stack[top - 1]]++;
+                        continue;
+                    }
+                    var v = childMatch[view.outTarget(next[u])];
+                    if (v == -1) { // augment along the path on the stack
+                        for (var i = 0; i < top; i++) {
+                            var w = stack[i];
+                            var child = view.outTarget(next[w]);
+                            parentMatch[w] = child;
+                            childMatch[child] = w;
+                        }
+                        matched++;
+                        break;
+                    } else if (dist[v] == dist[u] + 1)
+                        stack[top++] = v;
+                    else
+                        next[u]++;
+                }
+            }
+        }
+        return (tree.getNumberOfNodes() - tree.countLeaves()) - matched;
+    }
+
 }
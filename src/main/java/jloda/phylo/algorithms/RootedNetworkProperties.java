@@ -21,13 +21,11 @@
 package jloda.phylo.algorithms;
 
 import jloda.graph.*;
-import jloda.graph.algorithms.CutPoints;
+import jloda.graph.algorithms.DominatorTree;
+import jloda.graph.algorithms.IsDAG;
 import jloda.phylo.PhyloTree;
-import jloda.util.BitSetUtils;
-import jloda.util.CanceledException;
 import jloda.util.IteratorUtils;
 import jloda.util.Single;
-import jloda.util.progress.ProgressSilent;
 
 import java.util.*;
 import java.util.function.Consumer;
@@ -66,24 +64,7 @@ public class RootedNetworkProperties {
      * @return true, if non-empty DAG
      */
     public static boolean isNonEmptyDAG(Graph graph) {
-        if (graph.getNumberOfNodes() == 0)
-            return false;
-        final var g = new Graph();
-        g.copy(graph);
-
-        while (g.getNumberOfNodes() > 0) {
-            var found = false;
-            for (var v : g.nodes()) {
-                if (v.getOutDegree() == 0) {
-                    g.deleteNode(v);
-                    found = true;
-                    break;
-                }
-            }
-            if (!found)
-                return false;
-        }
-        return true;
+        return graph.getNumberOfNodes() > 0 && IsDAG.apply(graph);
     }
 
     /**
@@ -157,7 +138,8 @@ public class RootedNetworkProperties {
     }
 
     /**
-     * compute all visible nodes
+     * compute all visible nodes. A node is visible, if it lies on all paths from the root to some leaf, that is,
+     * if it dominates some leaf. So, the visible nodes are the nodes that have a leaf below them in the dominator tree
      *
      * @return set of visible nodes
      */
@@ -166,26 +148,18 @@ public class RootedNetworkProperties {
             roots = graph.nodeStream().filter(v -> v.getInDegree() == 0).collect(Collectors.toList());
 
         var result = graph.newNodeSet();
+        var view = graph.freeze();
 
         for (var root : roots) {
             result.add(root);
 
-            try (NodeArray<BitSet> leavesBelow = graph.newNodeArray()) {
-                depthFirstDAG(root, v -> {
-                    if (v.getOutDegree() == 0) {
-                        leavesBelow.put(v, BitSetUtils.asBitSet(v.getId()));
-                        result.add(v);
-                    } else {
-                        var set = new BitSet();
-                        for (var w : v.children()) {
-                            set.or(leavesBelow.get(w));
-                        }
-                        leavesBelow.put(v, set);
-                    }
-                });
-
-                for (var nodeId : BitSetUtils.members(leavesBelow.get(root))) {
-                    result.addAll(CutPoints.apply(graph, v -> leavesBelow.get(v).get(nodeId)));
+            var dominatorTree = new DominatorTree(view, List.of(root));
+            var size = dominatorTree.size();
+            var visible = new boolean[size + 1];
+            for (var i = 0; i < size; i++) { // nodes are visited before their dominators
+                if (visible[i] || view.getOutDegree(dominatorTree.getNodeIndex(i)) == 0) {
+                    result.add(dominatorTree.getNode(i));
+                    visible[dominatorTree.getDominatorRank(i)] = true;
                 }
             }
         }
@@ -194,6 +168,7 @@ public class RootedNetworkProperties {
 
     /**
      * perform depth-first DAG traversal, visiting some nodes multiple times
+     * Use PhyloTree.postorderTraversal(Node, Consumer), which visits each node once, unless the calculation depends on nodes being visited once for each path
      *
      * @param root        root node
      * @param calculation calculation to be performed
@@ -236,120 +211,80 @@ public class RootedNetworkProperties {
 
     /**
      * determines all completely stable nodes, which are nodes that lie on all paths to all of their children
-     *
+     * A node v is completely stable, if and only if no edge leaves the subtree of v in the dominator tree,
+     * that is, if no node u in that subtree has a child w whose immediate dominator lies above v
      */
     public static NodeSet computeAllCompletelyStableInternal(PhyloTree graph) {
         var result = graph.newNodeSet();
 
         if (isNonEmptyDAG(graph)) {
-            for (var root : findRoots(graph))
-                computeAllCompletelyStableInternalRec(root, new HashSet<>(), new HashSet<>(), result);
-        }
-        return result;
-    }
-
-    /**
-     * recursively determines all stable nodes
-     */
-    private static void computeAllCompletelyStableInternalRec(Node v, Set<Node> below, Set<Node> parentsOfBelow, NodeSet result) {
-        if (v.getOutDegree() == 0) {
-            below.add(v);
-            parentsOfBelow.addAll(IteratorUtils.asList(v.parents()));
-        } else {
-            var belowV = new HashSet<Node>();
-            var parentsOfBelowV = new HashSet<Node>();
-
-            for (var w : v.children()) {
-                computeAllCompletelyStableInternalRec(w, belowV, parentsOfBelowV, result);
-            }
-            belowV.forEach(u -> parentsOfBelowV.addAll(IteratorUtils.asList(u.parents())));
-            belowV.add(v);
-
-            if (belowV.containsAll(parentsOfBelowV)) {
-                result.add(v);
+            var view = graph.freeze();
+            var dominatorTree = new DominatorTree(view, findRoots(graph));
+            var size = dominatorTree.size();
+
+            var depth = new int[size + 1]; // depth in dominator tree, virtual root has depth 0
+            for (var i = size - 1; i >= 0; i--)
+                depth[i] = depth[dominatorTree.getDominatorRank(i)] + 1;
+
+            // min depth of the immediate dominator of any child of any node in the subtree:
+            var minDepth = new int[size + 1];
+            Arrays.fill(minDepth, Integer.MAX_VALUE);
+            for (var i = 0; i < size; i++) { // nodes are visited before their dominators
+                var u = dominatorTree.getNodeIndex(i);
+                for (var k = view.outStart(u); k < view.outEnd(u); k++) {
+                    var w = dominatorTree.getRankOfIndex(view.outTarget(k));
+                    minDepth[i] = Math.min(minDepth[i], depth[dominatorTree.getDominatorRank(w)]);
+                }
+                if (view.getOutDegree(u) > 0 && minDepth[i] >= depth[i])
+                    result.add(dominatorTree.getNode(i));
+                var dom = dominatorTree.getDominatorRank(i);
+                minDepth[dom] = Math.min(minDepth[dom], minDepth[i]);
             }
-            below.addAll(belowV);
-            parentsOfBelow.addAll(parentsOfBelowV);
         }
+        return result;
     }
 
     /**
      * determines all stable nodes for the given query set. For each node in the query set, this
-     * is the set of nodes that lies on all paths to that member of the query set
+     * is the first node on all paths to that member of the query set at which two such paths diverge.
+     * <p>
+     * This is the immediate dominator of the topmost node t that dominates the query node (or is the query node) and has
+     * more than one in-edge, as a dominator with exactly one out-edge leading toward the query node is immediately followed
+     * by a node of in-degree one on the dominator chain
      */
     public static NodeSet computeAllLowestStableAncestors(PhyloTree graph, Collection<Node> query) {
         var result = graph.newNodeSet();
 
         if (isNonEmptyDAG(graph)) {
-            try (NodeArray<Set<Node>> below = graph.newNodeArray()) {
-                var remainingQuery = graph.newNodeSet();
-                for (var root : findRoots(graph)) {
-                    labelByDescendantsRec(root, query, below);
-                    if (below.get(root) != null) {
-                        remainingQuery.clear();
-                        remainingQuery.setAll(query);
-                        computeAllStableAncestorsRec(root, remainingQuery, below, result);
-                    }
-                }
-            }
-        }
-        return result;
-    }
-
-    /**
-     * label by all queries below
-     *
-     * @param v     current node
-     * @param query set of query nodes
-     * @param below will contain for each node, the set of query nodes on or below it
-     * @return query nodes on or below v
-     */
-    private static Set<Node> labelByDescendantsRec(Node v, Collection<Node> query, NodeArray<Set<Node>> below) {
-        Set<Node> belowV = null;
-
-        for (var w : v.children()) {
-            var belowW = labelByDescendantsRec(w, query, below);
-            if (belowW != null) {
-                if (belowV == null)
-                    belowV = new HashSet<>();
-                belowV.addAll(belowW);
-            }
-        }
-        if (query.contains(v)) {
-            if (belowV == null)
-                belowV = new HashSet<>();
-            belowV.add(v);
-        }
-        below.put(v, belowV);
-        return belowV;
-    }
-
-    /**
-     * recursively determines all stable nodes
-     */
-    private static void computeAllStableAncestorsRec(Node v, Set<Node> remainingQuery, NodeArray<Set<Node>> below, NodeSet result) {
-        if (!remainingQuery.isEmpty()) {
-            var count = new HashMap<Node, Integer>();
-            for (var w : v.children()) {
-                var belowW = below.get(w);
-                if (belowW != null) {
-                    for (var u : belowW) {
-                        if (remainingQuery.contains(u)) {
-                            count.merge(u, 1, Integer::sum);
+            var view = graph.freeze();
+            for (var root : findRoots(graph)) {
+                var dominatorTree = new DominatorTree(view, List.of(root));
+                var size = dominatorTree.size();
+
+                var top = new int[size + 1]; // rank of the topmost node t as described above, or -1
+                top[size] = -1;
+                for (var i = size - 1; i >= 0; i--) { // nodes are visited after their dominators
+                    var dom = dominatorTree.getDominatorRank(i);
+                    top[i] = (dom == size ? -1 : top[dom]);
+                    if (top[i] == -1 && dom < size) {
+                        var v = dominatorTree.getNodeIndex(i);
+                        var inDegree = 0;
+                        for (var k = view.inStart(v); k < view.inEnd(v); k++) {
+                            if (dominatorTree.getRankOfIndex(view.inSource(k)) != -1)
+                                inDegree++;
                         }
+                        if (inDegree > 1)
+                            top[i] = i;
                     }
                 }
-            }
-            for (var u : count.keySet()) {
-                if (count.get(u) > 1) {
-                    result.add(v);
-                    remainingQuery.remove(u);
+                for (var u : query) {
+                    var i = dominatorTree.getRank(u);
+                    if (i != -1 && top[i] != -1)
+                        result.add(dominatorTree.getNode(dominatorTree.getDominatorRank(top[i])));
                 }
             }
-            for (var w : v.children()) {
-                computeAllStableAncestorsRec(w, remainingQuery, below, result);
-            }
         }
+        return result;
     }
 
     /**
@@ -381,11 +316,7 @@ public class RootedNetworkProperties {
      * @return true, if tree-based
      */
     public static boolean isTreeBased(PhyloTree tree) {
-        try (var match = OffspringGraphMatching.compute(tree, new ProgressSilent())) {
-            return OffspringGraphMatching.isTreeBased(tree, match);
-        } catch (CanceledException neverHappens) {
-            return false;
-        }
+        return OffspringGraphMatching.isTreeBased(tree);
     }
 
     /**
@@ -0,0 +1,283 @@
+/*
+ * SplitScoring.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo.algorithms;
+
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import jloda.util.Pair;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * scores many splits on a tree in one go, using the recursion of HomoplasyScore.computeBestHomoplasyScoreForSplit(),
+ * which is also used by Distortion.computeDistortionForSplit().
+ * <p>
+ * The tree is traversed only once, to set up the post-order, the child lists and the taxa of all nodes as int arrays.
+ * Splits are then processed in blocks of 64: for each taxon, the sides of all splits in a block are encoded as two long words,
+ * so that the initial labeling of a node is obtained for all 64 splits by or-ing the words of its taxa. The scores of a block are
+ * kept in int arrays indexed by node and split, and each node is updated for all splits of the block in one loop.
+ * Blocks are processed in parallel
+ * Daniel Huson, 2023
+ */
+class SplitScoring {
+    private static final int BLOCK_SIZE = 64;
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * computes the scores for all splits
+     *
+     * @param root            the root to use, or null, to use the first node
+     * @param numberOfThreads number of threads to use
+     * @return score for each split
+     * @throws IOException if a taxon of the tree is not contained in a split
+     */
+    static int[] apply(PhyloTree tree, List<Pair<BitSet, BitSet>> splits, Node root, int numberOfThreads) throws IOException {
+        var scores = new int[splits.size()];
+        if (tree.getNumberOfNodes() < 2 || splits.isEmpty())
+            return scores;
+
+        var view = tree.freeze();
+        var n = view.getNumberOfNodes();
+
+        // taxa of all nodes:
+        var treeTaxa = new BitSet();
+        var taxaStart = new int[n + 1];
+        for (var v = 0; v < n; v++) {
+            for (var t : tree.getTaxa(view.getNode(v))) {
+                treeTaxa.set(t);
+                taxaStart[v + 1]++;
+            }
+        }
+        for (var v = 0; v < n; v++)
+            taxaStart[v + 1] += taxaStart[v];
+        var taxa = new int[taxaStart[n]];
+        for (var v = 0; v < n; v++) {
+            var pos = taxaStart[v];
+            for (var t : tree.getTaxa(view.getNode(v)))
+                taxa[pos++] = t;
+        }
+
+        // determine which splits need scoring, checking them in the given order:
+        var active = new boolean[splits.size()];
+        var anyActive = false;
+        for (var s = 0; s < splits.size(); s++) {
+            var A = splits.get(s).getFirst();
+            var B = splits.get(s).getSecond();
+            if (A.cardinality() <= 1 || B.cardinality() <= 1)
+                continue;
+            var missing = (BitSet) treeTaxa.clone();
+            missing.andNot(A);
+            missing.andNot(B);
+            if (!missing.isEmpty()) { // report the first missing taxon in the order of nodes
+                for (var t : taxa) {
+                    if (missing.get(t))
+                        throw new IOException("Taxon t=" + t + ": not present in split");
+                }
+            }
+            // if only 0 or 1 of either side of the split occurs in T, then score is 0:
+            if (intersectionCardinality(treeTaxa, A) <= 1 || intersectionCardinality(treeTaxa, B) <= 1)
+                continue;
+            active[s] = true;
+            anyActive = true;
+        }
+        if (!anyActive)
+            return scores;
+
+        // post-order of nodes, and children of each node, when rooted at the root:
+        var rootIndex = view.getIndex(root != null ? root : tree.getFirstNode());
+        var order = new int[n];
+        var count = 0;
+        var childStart = new int[n + 1];
+        var children = new int[n];
+        {
+            var parentEdge = new int[n];
+            var visited = new boolean[n];
+            var stack = new int[n];
+            var top = 0;
+            stack[top++] = rootIndex;
+            visited[rootIndex] = true;
+            parentEdge[rootIndex] = -1;
+            var preorder = new int[n];
+            var numberVisited = 0;
+            while (top > 0) {
+                var v = stack[--top];
+                preorder[numberVisited++] = v;
+                for (var k = view.outStart(v); k < view.outEnd(v); k++) {
+                    var w = view.outTarget(k);
+                    if (view.outEdge(k) != parentEdge[v] && !visited[w]) {
+                        visited[w] = true;
+                        parentEdge[w] = view.outEdge(k);
+                        stack[top++] = w;
+                    }
+                }
+                for (var k = view.inStart(v); k < view.inEnd(v); k++) {
+                    var w = view.inSource(k);
+                    if (view.inEdge(k) != parentEdge[v] && !visited[w]) {
+                        visited[w] = true;
+                        parentEdge[w] = view.inEdge(k);
+                        stack[top++] = w;
+                    }
+                }
+            }
+            // children are visited after their parent in pre-order, so reverse pre-order is a post-order:
+            var rank = new int[n];
+            for (var i = 0; i < numberVisited; i++) {
+                order[i] = preorder[numberVisited - 1 - i];
+                rank[order[i]] = i;
+            }
+            count = numberVisited;
+            for (var i = 0; i < count; i++) {
+                var v = order[i];
+                if (parentEdge[v] != -1)
+                    childStart[rank[view.getOpposite(parentEdge[v], v)] + 1]++;
+            }
+            for (var i = 0; i < count; i++)
+                childStart[i + 1] += childStart[i];
+            var pos = new int[count];
+            for (var i = 0; i < count; i++)
+                pos[i] = childStart[i];
+            for (var i = 0; i < count; i++) {
+                var v = order[i];
+                if (parentEdge[v] != -1) {
+                    var p = rank[view.getOpposite(parentEdge[v], v)];
+                    children[pos[p]++] = i;
+                }
+            }
+        }
+        // only the root and nodes of degree more than one are updated by the recursion:
+        var update = new boolean[count];
+        for (var i = 0; i < count; i++)
+            update[i] = (order[i] == rootIndex || view.getDegree(order[i]) > 1);
+        var numberOfNodes = count;
+        var maxTaxon = treeTaxa.length();
+
+        var numberOfBlocks = (splits.size() - 1) / BLOCK_SIZE + 1;
+        var pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+        try {
+            pool.submit(() -> IntStream.range(0, numberOfBlocks).parallel().forEach(block -> {
+                var first = block * BLOCK_SIZE;
+                var width = Math.min(BLOCK_SIZE, splits.size() - first);
+                var blockActive = false;
+                for (var s = first; s < first + width; s++)
+                    blockActive |= active[s];
+                if (!blockActive)
+                    return;
+
+                // for each taxon, which splits have it on side A and which on side B:
+                var maskA = new long[maxTaxon];
+                var maskB = new long[maxTaxon];
+                for (var s = 0; s < width; s++) {
+                    var bit = 1L << s;
+                    var A = splits.get(first + s).getFirst();
+                    var B = splits.get(first + s).getSecond();
+                    for (var t = A.nextSetBit(0); t != -1 && t < maxTaxon; t = A.nextSetBit(t + 1))
+                        maskA[t] |= bit;
+                    for (var t = B.nextSetBit(0); t != -1 && t < maxTaxon; t = B.nextSetBit(t + 1))
+                        maskB[t] |= bit;
+                }
+
+                // setup scoring arrays:
+                var scoreA = new int[numberOfNodes * width]; // optimal score for subtree labeled A at root
+                var scoreB = new int[numberOfNodes * width]; // optimal score for subtree labeled B at root
+                for (var i = 0; i < numberOfNodes; i++) {
+                    var v = order[i];
+                    var hasA = 0L;
+                    var hasB = 0L;
+                    for (var k = taxaStart[v]; k < taxaStart[v + 1]; k++) {
+                        hasA |= maskA[taxa[k]];
+                        hasB |= (maskB[taxa[k]] & ~maskA[taxa[k]]);
+                    }
+                    if ((hasA | hasB) != 0) {
+                        var base = i * width;
+                        for (var s = 0; s < width; s++) {
+                            var a = (hasA >>> s) & 1L;
+                            var b = (hasB >>> s) & 1L;
+                            if (a != 0 && b == 0)
+                                scoreB[base + s] = INFINITY;
+                            else if (a == 0 && b != 0)
+                                scoreA[base + s] = INFINITY;
+                            else if (a != 0)
+                                scoreA[base + s] = scoreB[base + s] = 1;
+                        }
+                    }
+                }
+
+                var countA = new int[width];
+                var countB = new int[width];
+                var changeA = new int[width];
+                var changeB = new int[width];
+                for (var i = 0; i < numberOfNodes; i++) {
+                    if (!update[i])
+                        continue;
+                    // this might be a labeled internal node, treat it as an additional leaf node:
+                    var base = i * width;
+                    for (var s = 0; s < width; s++) {
+                        var a = scoreA[base + s];
+                        var b = scoreB[base + s];
+                        var aMuchBetter = (a <= b - 1);
+                        var bMuchBetter = (b <= a - 1);
+                        countB[s] = (aMuchBetter ? a : b);
+                        countA[s] = (bMuchBetter ? b : a);
+                        changeB[s] = (aMuchBetter ? 1 : 0);
+                        changeA[s] = (bMuchBetter ? 1 : 0);
+                    }
+                    for (var k = childStart[i]; k < childStart[i + 1]; k++) {
+                        var childBase = children[k] * width;
+                        for (var s = 0; s < width; s++) {
+                            var a = scoreA[childBase + s];
+                            var b = scoreB[childBase + s];
+                            var aMuchBetter = (a <= b - 1);
+                            var bMuchBetter = (b <= a - 1);
+                            countB[s] += (aMuchBetter ? a : b);
+                            countA[s] += (bMuchBetter ? b : a);
+                            changeB[s] |= (aMuchBetter ? 1 : 0);
+                            changeA[s] |= (bMuchBetter ? 1 : 0);
+                        }
+                    }
+                    // add 1 for change, if necessary:
+                    for (var s = 0; s < width; s++) {
+                        scoreA[base + s] = countA[s] + changeA[s];
+                        scoreB[base + s] = countB[s] + changeB[s];
+                    }
+                }
+
+                var rootBase = (numberOfNodes - 1) * width; // root is last in post-order
+                for (var s = 0; s < width; s++) {
+                    if (active[first + s])
+                        scores[first + s] = Math.min(scoreA[rootBase + s], scoreB[rootBase + s]) - 1;
+                }
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+        return scores;
+    }
+
+    private static int intersectionCardinality(BitSet a, BitSet b) {
+        var intersection = (BitSet) a.clone();
+        intersection.and(b);
+        return intersection.cardinality();
+    }
+}
@@ -20,13 +20,22 @@
 
 package jloda.seq;
 
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * compute the edit distance between two sequences
+ * Distances are computed using the bit-parallel algorithm of Myers (1999), in the block-based version of Hyyrö (2003),
+ * or, for a small maximum distance, using a band of the dynamic programming matrix (Ukkonen, 1985).
+ * Alignments are computed in linear space using Hirschberg's algorithm (1975)
  * Daniel Huson, 2003
  */
 public class EditDistance {
+    private static final int BASE_CASE_SIZE = 1 << 16; // align subproblems up to this size using the full matrix
+
     private String sequence1 = null;
     private String sequence2 = null;
     private String aligned1 = null;
@@ -39,36 +48,287 @@ public class EditDistance {
      * @return edit distance
      */
     static public int compute(String seq1, String seq2) {
-        int rows = seq1.length();
-        int cols = seq2.length();
+        return compute(seq1.toCharArray(), seq2.toCharArray(), -1);
+    }
 
-        int[][] D = new int[rows + 1][cols + 1];
+    /**
+     * compute the edit distance between two sequences, if it does not exceed the given maximum distance
+     *
+     * @param maxDistance the maximum distance of interest
+     * @return edit distance, or -1, if the edit distance exceeds maxDistance
+     */
+    static public int compute(String seq1, String seq2, int maxDistance) {
+        if (maxDistance < 0)
+            throw new IllegalArgumentException("maxDistance: " + maxDistance);
+        return compute(seq1.toCharArray(), seq2.toCharArray(), maxDistance);
+    }
 
-        // set base conditions:
-        for (int r = 0; r <= rows; r++)
-            D[r][0] = r;
-        for (int c = 0; c <= cols; c++)
-            D[0][c] = c;
+    /**
+     * compute the edit distances between all pairs of sequences in parallel
+     *
+     * @param numberOfThreads number of threads to use
+     * @return symmetric matrix of edit distances
+     */
+    static public int[][] computeAll(List<String> sequences, int numberOfThreads) {
+        return computeAll(sequences, Integer.MAX_VALUE, numberOfThreads);
+    }
 
-        // recursion:
-        for (int r = 1; r <= rows; r++) {
-            for (int c = 1; c <= cols; c++) {
-                D[r][c] = min(D[r - 1][c] + 1,
-                        D[r][c - 1] + 1,
-                        D[r - 1][c - 1] + match(seq1.charAt(r - 1), seq2.charAt(c - 1)));
+    /**
+     * compute the edit distances between all pairs of sequences in parallel, if they do not exceed the given maximum distance
+     *
+     * @param maxDistance     the maximum distance of interest
+     * @param numberOfThreads number of threads to use
+     * @return symmetric matrix of edit distances, with -1 for all pairs whose distance exceeds maxDistance
+     */
+    static public int[][] computeAll(List<String> sequences, int maxDistance, int numberOfThreads) {
+        if (maxDistance < 0)
+            throw new IllegalArgumentException("maxDistance: " + maxDistance);
+        var n = sequences.size();
+        var chars = new char[n][];
+        for (var i = 0; i < n; i++)
+            chars[i] = sequences.get(i).toCharArray();
+        var matrix = new int[n][n];
+        var maxLength = 0;
+        for (var seq : chars)
+            maxLength = Math.max(maxLength, seq.length);
+        var bounded = (maxDistance < maxLength);
+
+        var pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+                for (var j = i + 1; j < n; j++) {
+                    matrix[i][j] = matrix[j][i] = compute(chars[i], chars[j], bounded ? maxDistance : -1);
+                }
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+        return matrix;
+    }
+
+    /**
+     * computes the edit distance
+     *
+     * @param maxDistance maximum distance of interest, or -1, for no maximum
+     * @return edit distance or -1, if it exceeds maxDistance
+     */
+    private static int compute(char[] seq1, char[] seq2, int maxDistance) {
+        if (seq1.length > seq2.length) { // use the shorter sequence as pattern
+            var tmp = seq1;
+            seq1 = seq2;
+            seq2 = tmp;
+        }
+        if (maxDistance >= 0 && seq2.length - seq1.length > maxDistance)
+            return -1;
+        if (seq1.length == 0)
+            return seq2.length;
+
+        var words = (seq1.length + 63) >>> 6;
+        if (maxDistance >= 0 && 2L * maxDistance + 1 <= 4L * words)
+            return computeBanded(seq1, seq2, maxDistance);
+        else
+            return computeBitParallel(seq1, seq2, maxDistance);
+    }
 
+    /**
+     * computes the edit distance using the bit-parallel algorithm, processing the pattern in blocks of 64 letters.
+     * For each column of the dynamic programming matrix, the vertical differences (+1 or -1) between neighboring
+     * entries are encoded in the bit vectors P and M
+     *
+     * @param pattern     the pattern, not empty
+     * @param text        the text
+     * @param maxDistance maximum distance of interest, or -1
+     * @return edit distance or -1, if it exceeds maxDistance
+     */
+    private static int computeBitParallel(char[] pattern, char[] text, int maxDistance) {
+        var m = pattern.length;
+        var n = text.length;
+        var words = (m + 63) >>> 6;
+
+        // match vectors, indexed by letter id and block, letter id 0 is used for all letters not contained in the pattern:
+        var ascii = new int[256];
+        HashMap<Character, Integer> other = null;
+        var numberOfLetters = 1;
+        for (var a : pattern) {
+            if (a < 256) {
+                if (ascii[a] == 0)
+                    ascii[a] = numberOfLetters++;
+            } else {
+                if (other == null)
+                    other = new HashMap<>();
+                if (!other.containsKey(a))
+                    other.put(a, numberOfLetters++);
             }
         }
+        var peq = new long[numberOfLetters * words];
+        for (var i = 0; i < m; i++) {
+            var a = pattern[i];
+            var id = (a < 256 ? ascii[a] : other.get(a));
+            peq[id * words + (i >>> 6)] |= (1L << (i & 63));
+        }
 
-        return D[rows][cols];
+        var P = new long[words];
+        var M = new long[words];
+        Arrays.fill(P, -1L);
+        var lastBit = 1L << ((m - 1) & 63);
+        var score = m;
+
+        for (var j = 0; j < n; j++) {
+            var a = text[j];
+            var eqOffset = (a < 256 ? ascii[a] : (other == null ? 0 : other.getOrDefault(a, 0))) * words;
+            var hin = 1; // top row increases by one in each column
+            for (var b = 0; b < words; b++) {
+                var eq = peq[eqOffset + b];
+                var pv = P[b];
+                var mv = M[b];
+                var xv = eq | mv;
+                if (hin < 0)
+                    eq |= 1L;
+                var xh = (((eq & pv) + pv) ^ pv) | eq;
+                var ph = mv | ~(xh | pv);
+                var mh = pv & xh;
+                var hibit = (b + 1 < words ? Long.MIN_VALUE : lastBit);
+                var hout = ((ph & hibit) != 0 ? 1 : ((mh & hibit) != 0 ? -1 : 0));
+                ph <<= 1;
+                mh <<= 1;
+                if (hin < 0)
+                    mh |= 1L;
+                else if (hin > 0)
+                    ph |= 1L;
+                P[b] = mh | ~(xv | ph);
+                M[b] = ph & xv;
+                hin = hout;
+            }
+            score += hin;
+            // the last row can decrease by at most one per remaining column:
+            if (maxDistance >= 0 && score - (n - 1 - j) > maxDistance)
+                return -1;
+        }
+        return score;
+    }
+
+    /**
+     * computes the edit distance restricted to the band of diagonals -maxDistance..maxDistance, stopping as soon
+     * as all entries of a row exceed maxDistance
+     *
+     * @return edit distance or -1, if it exceeds maxDistance
+     */
+    private static int computeBanded(char[] seq1, char[] seq2, int maxDistance) {
+        var rows = seq1.length;
+        var cols = seq2.length;
+        var infinity = maxDistance + 1;
+
+        var prev = new int[cols + 1];
+        var cur = new int[cols + 1];
+        for (var c = 0; c <= Math.min(cols, maxDistance); c++)
+            prev[c] = c;
+        if (maxDistance + 1 <= cols)
+            prev[maxDistance + 1] = infinity;
+
+        for (var r = 1; r <= rows; r++) {
+            var lo = Math.max(1, r - maxDistance);
+            var hi = Math.min(cols, r + maxDistance);
+            cur[lo - 1] = (lo == 1 ? Math.min(r, infinity) : infinity);
+            var rowMin = cur[lo - 1];
+            var a = seq1[r - 1];
+            for (var c = lo; c <= hi; c++) {
+                var value = Math.min(Math.min(prev[c], cur[c - 1]) + 1, prev[c - 1] + (a == seq2[c - 1] ? 0 : 1));
+                if (value > infinity)
+                    value = infinity;
+                cur[c] = value;
+                if (value < rowMin)
+                    rowMin = value;
+            }
+            if (hi < cols)
+                cur[hi + 1] = infinity;
+            if (rowMin > maxDistance)
+                return -1;
+            var tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[cols] <= maxDistance ? prev[cols] : -1;
     }
 
     /**
      * computes the edit distance and an alignment
      */
     public void compute() {
-        int rows = getSequence1().length();
-        int cols = getSequence2().length();
+        var seq1 = getSequence1().toCharArray();
+        var seq2 = getSequence2().toCharArray();
+
+        var buffer1 = new StringBuilder(seq1.length + seq2.length);
+        var buffer2 = new StringBuilder(seq1.length + seq2.length);
+        var forward = new int[seq2.length + 1];
+        var reverse = new int[seq2.length + 1];
+        var distance = align(seq1, 0, seq1.length, seq2, 0, seq2.length, forward, reverse, buffer1, buffer2);
+
+        setAligned1(buffer1.toString());
+        setAligned2(buffer2.toString());
+        setScore(distance);
+    }
+
+    /**
+     * aligns seq1[a0,a1) and seq2[b0,b1) using Hirschberg's divide-and-conquer algorithm, appending the aligned
+     * sequences to the two buffers
+     *
+     * @param forward array of length at least b1-b0+1 used for computations
+     * @param reverse array of length at least b1-b0+1 used for computations
+     * @return edit distance between the two segments
+     */
+    private static int align(char[] seq1, int a0, int a1, char[] seq2, int b0, int b1, int[] forward, int[] reverse, StringBuilder buffer1, StringBuilder buffer2) {
+        if (a1 - a0 <= 1 || (long) (a1 - a0) * (b1 - b0) <= BASE_CASE_SIZE) {
+            return alignFullMatrix(seq1, a0, a1, seq2, b0, b1, buffer1, buffer2);
+        } else {
+            var middle = (a0 + a1) >>> 1;
+            var length = b1 - b0;
+
+            // forward[c]: distance between seq1[a0,middle) and seq2[b0,b0+c)
+            for (var c = 0; c <= length; c++)
+                forward[c] = c;
+            for (var r = a0; r < middle; r++) {
+                var diagonal = forward[0];
+                forward[0] = r - a0 + 1;
+                var a = seq1[r];
+                for (var c = 1; c <= length; c++) {
+                    var tmp = forward[c];
+                    forward[c] = Math.min(Math.min(forward[c], forward[c - 1]) + 1, diagonal + (a == seq2[b0 + c - 1] ? 0 : 1));
+                    diagonal = tmp;
+                }
+            }
+
+            // reverse[c]: distance between seq1[middle,a1) and seq2[b0+c,b1)
+            for (var c = 0; c <= length; c++)
+                reverse[c] = length - c;
+            for (var r = a1 - 1; r >= middle; r--) {
+                var diagonal = reverse[length];
+                reverse[length] = a1 - r;
+                var a = seq1[r];
+                for (var c = length - 1; c >= 0; c--) {
+                    var tmp = reverse[c];
+                    reverse[c] = Math.min(Math.min(reverse[c], reverse[c + 1]) + 1, diagonal + (a == seq2[b0 + c] ? 0 : 1));
+                    diagonal = tmp;
+                }
+            }
+
+            var split = 0;
+            for (var c = 1; c <= length; c++) {
+                if (forward[c] + reverse[c] < forward[split] + reverse[split])
+                    split = c;
+            }
+            return align(seq1, a0, middle, seq2, b0, b0 + split, forward, reverse, buffer1, buffer2)
+                    + align(seq1, middle, a1, seq2, b0 + split, b1, forward, reverse, buffer1, buffer2);
+        }
+    }
+
+    /**
+     * aligns seq1[a0,a1) and seq2[b0,b1) using the full dynamic programming matrix and trace back
+     *
+     * @return edit distance between the two segments
+     */
+    private static int alignFullMatrix(char[] seq1, int a0, int a1, char[] seq2, int b0, int b1, StringBuilder buffer1, StringBuilder buffer2) {
+        int rows = a1 - a0;
+        int cols = b1 - b0;
 
         int[][] D = new int[rows + 1][cols + 1];
 
@@ -83,47 +343,44 @@ public class EditDistance {
             for (int c = 1; c <= cols; c++) {
                 D[r][c] = min(D[r - 1][c] + 1,
                         D[r][c - 1] + 1,
-                        D[r - 1][c - 1]
-                        + match(getSequence1().charAt(r - 1), getSequence2().charAt(c - 1)));
+                        D[r - 1][c - 1] + match(seq1[a0 + r - 1], seq2[b0 + c - 1]));
 
             }
         }
 
-        // trace back alignment:
+        // trace back alignment, in reverse order:
+        var start = buffer1.length();
         int r = rows;
         int c = cols;
-        var stack1 = new Stack<Character>();
-        var stack2 = new Stack<Character>();
-
         while (r > 0 || c > 0) {
-            if (r == 0 || D[r][c] == D[r - 1][c] + 1) // insertion in x
+            if (r > 0 && (c == 0 || D[r][c] == D[r - 1][c] + 1)) // insertion in x
             {
-                stack1.push(getSequence1().charAt(r-- - 1));
-                stack2.push('-');
-            } else if (c == 0 || D[r][c] == D[r][c - 1] + 1) // insertion in y
+                buffer1.append(seq1[a0 + r-- - 1]);
+                buffer2.append('-');
+            } else if (c > 0 && (r == 0 || D[r][c] == D[r][c - 1] + 1)) // insertion in y
             {
-                stack1.push('-');
-                stack2.push(getSequence2().charAt(c-- - 1));
+                buffer1.append('-');
+                buffer2.append(seq2[b0 + c-- - 1]);
             } else // match-mismatch
             {
-                stack1.push(getSequence1().charAt(r-- - 1));
-                stack2.push(getSequence2().charAt(c-- - 1));
+                buffer1.append(seq1[a0 + r-- - 1]);
+                buffer2.append(seq2[b0 + c-- - 1]);
             }
         }
+        reverse(buffer1, start);
+        reverse(buffer2, start);
+        return D[rows][cols];
+    }
 
-        // setup aligned sequences
-        StringBuilder buffer1 = new StringBuilder();
-        StringBuilder buffer2 = new StringBuilder();
-
-        while (!stack1.empty())
-            buffer1.append(stack1.pop());
-        setAligned1(buffer1.toString());
-
-        while (!stack2.empty())
-            buffer2.append(stack2.pop());
-        setAligned2(buffer2.toString());
-
-        setScore(D[rows][cols]);
+    /**
+     * reverses the suffix of the buffer that starts at the given position
+     */
+    private static void reverse(StringBuilder buffer, int start) {
+        for (int i = start, j = buffer.length() - 1; i < j; i++, j--) {
+            var tmp = buffer.charAt(i);
+            buffer.setCharAt(i, buffer.charAt(j));
+            buffer.setCharAt(j, tmp);
+        }
     }
 
     /**
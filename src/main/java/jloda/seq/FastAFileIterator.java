@@ -238,18 +238,15 @@ public class FastAFileIterator implements IFastAIterator, Closeable {
     }
 
     /**
-     * choose fastA or fastQ as fastA getLetterCodeIterator
+     * choose fastA or fastQ as fastA getLetterCodeIterator. Both are read by a SequenceRecordReader
      *
      * @return getLetterCodeIterator
 	 */
     public static IFastAIterator getFastAOrFastQAsFastAIterator(String inputFile) throws IOException {
         try (BufferedReader r = new BufferedReader(new InputStreamReader(FileUtils.getInputStreamPossiblyZIPorGZIP(inputFile)))) {
             String aLine = r.readLine();
-            if (aLine.startsWith(">"))
-                return new FastAFileIterator(inputFile);
-            else if (aLine.startsWith("@"))
-                return new
-                        FastQAsFastAFileIterator(inputFile);
+            if (aLine.startsWith(">") || aLine.startsWith("@"))
+                return new SequenceRecordReader(inputFile).asFastAIterator();
             else
                 throw new IOException("File empty or not in FastA or FastQ format: " + inputFile);
         }
@@ -0,0 +1,403 @@
+/*
+ * SequenceRecordReader.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.seq;
+
+import jloda.util.FileUtils;
+import jloda.util.IFastAIterator;
+import jloda.util.Pair;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * reads the records of a FastA or FastQ file, possibly gzipped, working on bytes rather than strings.
+ * The input is read in blocks into a fixed buffer, so compressed input is decompressed into a bounded buffer.
+ * The header, sequence and quality values of the current record are provided as views, that is, as arrays and lengths, and these arrays are
+ * reused for the next record, so that reading does not allocate any objects per record or line.
+ * White space is removed from sequences. Headers include the leading '>' or '@'
+ * Daniel Huson, 2023
+ */
+public class SequenceRecordReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream ins;
+    private final long maxProgress;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private long bufferStart = 0; // position of buffer[0] in stream
+    private boolean eof = false;
+    private boolean closed = false;
+
+    private int format = 0; // '>' for FastA, '@' for FastQ, 0 if not yet known
+
+    private byte[] header = new byte[256];
+    private int headerLength = 0;
+    private byte[] sequence = new byte[BUFFER_SIZE];
+    private int sequenceLength = 0;
+    private byte[] quality = new byte[0];
+    private int qualityLength = 0;
+    private long recordStart = 0;
+    private long recordEnd = 0;
+    private long numberOfRecords = 0;
+
+    /**
+     * constructor
+     *
+     * @param fileName FastA or FastQ file, possibly gzipped
+     */
+    public SequenceRecordReader(String fileName) throws IOException {
+        this(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName), FileUtils.guessUncompressedSizeOfFile(fileName));
+    }
+
+    /**
+     * constructor
+     *
+     * @param ins         input stream
+     * @param maxProgress size of input, used for progress reporting
+     */
+    public SequenceRecordReader(InputStream ins, long maxProgress) {
+        this.ins = ins;
+        this.maxProgress = maxProgress;
+    }
+
+    /**
+     * reads the next record
+     *
+     * @return true, if a record was read, false, if there are no more records
+     */
+    public boolean readNext() throws IOException {
+        return readNext(null);
+    }
+
+    /**
+     * reads the next record, passing the letters of its sequence to the given consumer as they are read, rather than collecting them.
+     * The sequence is passed as a series of views into the read buffer that must not be modified or retained, and is not available via getSequence().
+     * This uses a bounded amount of memory, regardless of the length of the sequence. Quality values are skipped
+     *
+     * @param consumer receives the letters of the sequence, white space removed, or null, to collect the sequence and quality values as usual
+     * @return true, if a record was read, false, if there are no more records
+     */
+    public boolean readNext(SequenceConsumer consumer) throws IOException {
+        headerLength = 0;
+        sequenceLength = 0;
+        qualityLength = 0;
+
+        if (!skipWhiteSpace())
+            return false;
+        var first = buffer[pos];
+        if (format == 0) {
+            if (first != '>' && first != '@')
+                throw new IOException("Not in FastA or FastQ format");
+            format = first;
+        } else if (first != format)
+            throw new IOException("Expected '" + (char) format + "' at position " + (bufferStart + pos) + ", found: '" + (char) first + "'");
+
+        recordStart = bufferStart + pos;
+        readLine(Target.Header, null);
+        if (format == '>') {
+            while (fill() && buffer[pos] != '>') {
+                readLine(Target.Sequence, consumer);
+            }
+        } else {
+            readLine(Target.Sequence, consumer);
+            if (fill() && buffer[pos] == '+') {
+                readLine(Target.None, null);
+                readLine(consumer == null ? Target.Quality : Target.None, null);
+            }
+        }
+        recordEnd = bufferStart + pos;
+        numberOfRecords++;
+        return true;
+    }
+
+    /**
+     * @return header of current record, including leading '>' or '@', in the first getHeaderLength() bytes
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    public String getHeaderString() {
+        return new String(header, 0, headerLength);
+    }
+
+    /**
+     * @return sequence of current record in the first getSequenceLength() bytes
+     */
+    public byte[] getSequence() {
+        return sequence;
+    }
+
+    public int getSequenceLength() {
+        return sequenceLength;
+    }
+
+    public String getSequenceString() {
+        return new String(sequence, 0, sequenceLength);
+    }
+
+    /**
+     * @return quality values of current FastQ record in the first getQualityLength() bytes
+     */
+    public byte[] getQuality() {
+        return quality;
+    }
+
+    public int getQualityLength() {
+        return qualityLength;
+    }
+
+    /**
+     * @return position of current record in the (uncompressed) input
+     */
+    public long getPosition() {
+        return recordStart;
+    }
+
+    /**
+     * @return number of bytes occupied by the current record in the (uncompressed) input
+     */
+    public long getNumberOfBytes() {
+        return recordEnd - recordStart;
+    }
+
+    public boolean isFastQ() {
+        return format == '@';
+    }
+
+    public long getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    public long getMaximumProgress() {
+        return maxProgress;
+    }
+
+    public long getProgress() {
+        return bufferStart + pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            ins.close();
+        }
+    }
+
+    /**
+     * gets an iterator over all records as pairs of header and sequence strings, as provided by FastAFileIterator and, for FastQ input,
+     * by FastQAsFastAFileIterator
+     */
+    public IFastAIterator asFastAIterator() {
+        return new IFastAIterator() {
+            private boolean peeked = false;
+            private boolean hasNext = false;
+            private long position;
+            private long numberOfBytes;
+
+            @Override
+            public boolean hasNext() {
+                if (!peeked) {
+                    peeked = true;
+                    try {
+                        hasNext = !closed && readNext();
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                    if (!hasNext) {
+                        try {
+                            close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Pair<String, String> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                peeked = false;
+                position = SequenceRecordReader.this.getPosition();
+                numberOfBytes = SequenceRecordReader.this.getNumberOfBytes();
+                var headerString = (isFastQ() ? ">" + new String(header, 1, headerLength - 1) : getHeaderString());
+                return new Pair<>(headerString, getSequenceString());
+            }
+
+            @Override
+            public long getPosition() {
+                return position;
+            }
+
+            @Override
+            public long getNumberOfBytes() {
+                return numberOfBytes;
+            }
+
+            @Override
+            public Stream<Pair<String, String>> stream() {
+                return StreamSupport.stream(((Iterable<Pair<String, String>>) () -> this).spliterator(), false);
+            }
+
+            @Override
+            public void close() throws IOException {
+                SequenceRecordReader.this.close();
+            }
+
+            @Override
+            public long getMaximumProgress() {
+                return SequenceRecordReader.this.getMaximumProgress();
+            }
+
+            @Override
+            public long getProgress() {
+                return position;
+            }
+        };
+    }
+
+    /**
+     * receives the letters of a sequence, as views into the read buffer
+     */
+    public interface SequenceConsumer {
+        void accept(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private enum Target {Header, Sequence, Quality, None}
+
+    /**
+     * reads the rest of the current line, including the end of line, and appends it to the target.
+     * White space is removed from sequence and quality values, and a trailing carriage return from the header.
+     * If a consumer is given, then the letters of a sequence are passed to it instead
+     */
+    private void readLine(Target target, SequenceConsumer consumer) throws IOException {
+        while (fill()) {
+            var end = pos;
+            while (end < limit && buffer[end] != '\n')
+                end++;
+            switch (target) {
+                case Header -> {
+                    header = ensureCapacity(header, headerLength + (end - pos));
+                    System.arraycopy(buffer, pos, header, headerLength, end - pos);
+                    headerLength += end - pos;
+                    if (end < limit && headerLength > 0 && header[headerLength - 1] == '\r')
+                        headerLength--;
+                }
+                case Sequence -> {
+                    if (consumer != null)
+                        passNonWhiteSpace(buffer, pos, end, consumer);
+                    else {
+                        sequence = ensureCapacity(sequence, sequenceLength + (end - pos));
+                        sequenceLength = appendNonWhiteSpace(buffer, pos, end, sequence, sequenceLength);
+                    }
+                }
+                case Quality -> {
+                    quality = ensureCapacity(quality, qualityLength + (end - pos));
+                    qualityLength = appendNonWhiteSpace(buffer, pos, end, quality, qualityLength);
+                }
+                case None -> {
+                }
+            }
+            if (end < limit) {
+                pos = end + 1;
+                return;
+            } else
+                pos = end;
+        }
+    }
+
+    private static int appendNonWhiteSpace(byte[] src, int from, int to, byte[] target, int length) {
+        for (var i = from; i < to; i++) {
+            var ch = src[i];
+            if (ch > ' ')
+                target[length++] = ch;
+        }
+        return length;
+    }
+
+    private static void passNonWhiteSpace(byte[] src, int from, int to, SequenceConsumer consumer) throws IOException {
+        while (from < to) {
+            while (from < to && src[from] <= ' ')
+                from++;
+            var stop = from;
+            while (stop < to && src[stop] > ' ')
+                stop++;
+            if (stop > from)
+                consumer.accept(src, from, stop - from);
+            from = stop;
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int capacity) {
+        if (capacity <= array.length)
+            return array;
+        return Arrays.copyOf(array, Math.max(capacity, (int) Math.min(Integer.MAX_VALUE - 8, 2L * array.length)));
+    }
+
+    /**
+     * skips white space, including empty lines
+     *
+     * @return true, if not at end of input
+     */
+    private boolean skipWhiteSpace() throws IOException {
+        while (fill()) {
+            if (buffer[pos] > ' ')
+                return true;
+            pos++;
+        }
+        return false;
+    }
+
+    /**
+     * ensures that at least one byte is available
+     *
+     * @return false, if at end of input
+     */
+    private boolean fill() throws IOException {
+        while (pos == limit) {
+            if (eof || closed)
+                return false;
+            bufferStart += limit;
+            pos = 0;
+            limit = 0;
+            var count = ins.read(buffer, 0, buffer.length);
+            if (count == -1)
+                eof = true;
+            else
+                limit = count;
+        }
+        return true;
+    }
+}
+
+// EOF
@@ -476,11 +476,22 @@ public class SequenceUtils {
      * @return usage
      */
     public static int[] computeUsageCounts(byte[] sequence, byte[] symbols) {
+        return computeUsageCounts(sequence, 0, sequence.length, symbols);
+    }
+
+    /**
+     * counts how many times each of the given symbols have been used in a segment, such as the sequence provided by a SequenceRecordReader
+     *
+     * @param offset start of segment
+     * @param length length of segment
+     * @return usage
+     */
+    public static int[] computeUsageCounts(byte[] sequence, int offset, int length, byte[] symbols) {
         int[] counts = new int[symbols.length];
 
-        for (byte b : sequence) {
+        for (int i = offset; i < offset + length; i++) {
             for (int j = 0; j < symbols.length; j++) {
-                if (symbols[j] == b)
+                if (symbols[j] == sequence[i])
                     counts[j]++;
             }
         }
@@ -506,9 +517,20 @@ public class SequenceUtils {
      * @return number of gaps
      */
     public static int countGaps(byte[] sequence) {
+        return countGaps(sequence, 0, sequence.length);
+    }
+
+    /**
+     * count the number of gaps ('-') in a segment of a sequence
+     *
+     * @param offset start of segment
+     * @param length length of segment
+     * @return number of gaps
+     */
+    public static int countGaps(byte[] sequence, int offset, int length) {
         int count = 0;
-        for (byte aSequence : sequence)
-            if (aSequence == '-')
+        for (int i = offset; i < offset + length; i++)
+            if (sequence[i] == '-')
                 count++;
         return count;
     }
@@ -22,23 +22,40 @@ package jloda.util;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * File iterator
+ * Reads the file in large blocks of bytes and scans each block for line ends, rather than reading one char at a time.
+ * Lines may be terminated by \n, \r\n or \r, empty lines are skipped. All positions are byte offsets in the (uncompressed) file.
+ * An uncompressed file can be split into disjoint ranges of lines, each of which is iterated by its own iterator, see split()
  * Daniel Huson, 2014
  */
 public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
+    private static final int BUFFER_SIZE = 1 << 16;
+
     private byte[] bytes = new byte[1000];
 
-    private final InputStreamReader reader;
+    private final InputStream ins;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos = 0;
+    private int bufferLimit = 0;
+    private long bufferStart; // position of buffer[0] in the uncompressed file
+
+    private final long end; // lines starting at or after this position are not reported
 
     private long linePosition = 0;
     private int lineLength = 0;
 
     private byte firstByteOfNextLine;
-
-    private long position = 0; // this is the position in the unzipped file
+    private long nextLinePosition;
 
     private final long maxProgress;
 
@@ -47,22 +64,75 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
      *
 	 */
     public FileLineBytesIterator(String fileName) throws IOException {
-		reader = new InputStreamReader(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName));
+		ins = FileUtils.getInputStreamPossiblyZIPorGZIP(fileName);
 		if (FileUtils.isZIPorGZIPFile(fileName))
 			maxProgress = 20 * ((new File(fileName))).length();
 		else
 			maxProgress = ((new File(fileName))).length();
+		bufferStart = 0;
+		end = Long.MAX_VALUE;
 
 		// get first letter
-		firstByteOfNextLine = (byte) reader.read();
-		if (hasNext())
-			position++;
-		while (firstByteOfNextLine == '\r' || firstByteOfNextLine == '\n' && hasNext()) {
-			firstByteOfNextLine = (byte) reader.read();
-            if (hasNext())
-                position++;
+		moveToNextLine();
+    }
+
+    /**
+     * constructor for a range of an uncompressed file. Reports all lines that start in the given range, so
+     * iterators on consecutive ranges together report every line of the file exactly once
+     *
+     * @param fileName uncompressed file
+     * @param start    start of range, inclusive
+     * @param end      end of range, exclusive
+     */
+    public FileLineBytesIterator(String fileName, long start, long end) throws IOException {
+        if (FileUtils.isZIPorGZIPFile(fileName))
+            throw new IOException("Can't iterate over range of compressed file: " + fileName);
+        var channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        try {
+            end = Math.min(end, channel.size());
+            this.end = end;
+            maxProgress = end;
+            if (start <= 0) {
+                bufferStart = 0;
+                ins = Channels.newInputStream(channel);
+            } else {
+                // a line starts at start only if the previous byte ends a line
+                var previous = ByteBuffer.allocate(1);
+                channel.read(previous, start - 1);
+                bufferStart = start;
+                ins = Channels.newInputStream(channel.position(start));
+                if (previous.get(0) != '\r' && previous.get(0) != '\n')
+                    skipRestOfLine();
+            }
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
         }
+        // get first letter
+        moveToNextLine();
+    }
 
+    /**
+     * splits an uncompressed file into ranges at line boundaries and returns an iterator for each range.
+     * The iterators can be consumed by different threads and together report all lines of the file in order
+     *
+     * @param fileName       uncompressed file
+     * @param numberOfRanges desired number of ranges
+     * @return iterators, in file order
+     */
+    public static List<FileLineBytesIterator> split(String fileName, int numberOfRanges) throws IOException {
+        var length = (new File(fileName)).length();
+        var count = (int) Math.max(1, Math.min(numberOfRanges, length / BUFFER_SIZE));
+        var list = new ArrayList<FileLineBytesIterator>(count);
+        try {
+            for (var i = 0; i < count; i++) {
+                list.add(new FileLineBytesIterator(fileName, i * length / count, (i + 1 == count ? length : (i + 1) * length / count)));
+            }
+        } catch (IOException ex) {
+            list.forEach(FileLineBytesIterator::close);
+            throw ex;
+        }
+        return list;
     }
 
     @Override
@@ -78,42 +148,87 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
     @Override
     public byte[] next() { // get bytes as 0 terminated
         try {
-            linePosition = position - 1; // -1 because we have already read the first character on the line
+            linePosition = nextLinePosition;
 
             lineLength = 0;
-            while (firstByteOfNextLine != '\r' && firstByteOfNextLine != '\n') {
-                if ((lineLength + 3) == bytes.length) {
-                    byte[] tmp = new byte[2 * bytes.length];
-                    System.arraycopy(bytes, 0, tmp, 0, bytes.length);
+            while (true) {
+                var pos = bufferPos;
+                var limit = bufferLimit;
+                var buf = buffer;
+                while (pos < limit && buf[pos] != '\n' && buf[pos] != '\r')
+                    pos++;
+                var count = pos - bufferPos;
+                if (lineLength + count + 2 > bytes.length) {
+                    byte[] tmp = new byte[Math.max(2 * bytes.length, lineLength + count + 2)];
+                    System.arraycopy(bytes, 0, tmp, 0, lineLength);
                     bytes = tmp;
                 }
-                bytes[lineLength++] = firstByteOfNextLine;
-                if (hasNext()) {
-                    firstByteOfNextLine = (byte) reader.read();
-                    if (hasNext())
-                        position++;
-                } else
+                System.arraycopy(buf, bufferPos, bytes, lineLength, count);
+                lineLength += count;
+                bufferPos = pos;
+                if (pos < limit || !fillBuffer())
                     break;
             }
             bytes[lineLength++] = '\n';
             bytes[lineLength] = 0;
 
             // move to next first letter...
-            firstByteOfNextLine = (byte) reader.read();
-            if (hasNext())
-                position++;
-            while (firstByteOfNextLine == '\r' || firstByteOfNextLine == '\n' && hasNext()) {
-                firstByteOfNextLine = (byte) reader.read();
-                if (hasNext())
-                    position++;
-            }
-
+            moveToNextLine();
         } catch (IOException e) {
             return null;
         }
         return bytes;
     }
 
+    /**
+     * skips line ends and sets the first letter and position of the next line
+     */
+    private void moveToNextLine() throws IOException {
+        while (true) {
+            while (bufferPos < bufferLimit && (buffer[bufferPos] == '\n' || buffer[bufferPos] == '\r'))
+                bufferPos++;
+            if (bufferPos < bufferLimit || !fillBuffer())
+                break;
+        }
+        nextLinePosition = bufferStart + bufferPos;
+        if (bufferPos < bufferLimit && nextLinePosition < end)
+            firstByteOfNextLine = buffer[bufferPos];
+        else
+            firstByteOfNextLine = -1;
+    }
+
+    /**
+     * skips to the end of the current line, without consuming the line end
+     */
+    private void skipRestOfLine() throws IOException {
+        while (true) {
+            while (bufferPos < bufferLimit && buffer[bufferPos] != '\n' && buffer[bufferPos] != '\r')
+                bufferPos++;
+            if (bufferPos < bufferLimit || !fillBuffer())
+                break;
+        }
+    }
+
+    /**
+     * refills the buffer, once all bytes in it have been consumed
+     *
+     * @return false, if end of file reached
+     */
+    private boolean fillBuffer() throws IOException {
+        bufferStart += bufferLimit;
+        bufferPos = 0;
+        bufferLimit = 0;
+        while (true) {
+            var count = ins.read(buffer, 0, buffer.length);
+            if (count == -1)
+                return false;
+            else if (count > 0) {
+                bufferLimit = count;
+                return true;
+            }
+        }
+    }
+
     /**
      * peeks at the next byte.
      *
@@ -155,7 +270,10 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
      * @return current position
      */
     public long getPosition() {
-        return position;
+        if (hasNext())
+            return nextLinePosition + 1; // we have already read the first character on the next line
+        else
+            return Math.min(end, bufferStart + bufferPos);
     }
 
     @Override
@@ -166,7 +284,7 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
     @Override
     public void close() {
         try {
-            reader.close();
+            ins.close();
         } catch (IOException e) {
             Basic.caught(e);
         }
@@ -179,6 +297,6 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
 
     @Override
     public long getProgress() {
-        return position;
+        return getPosition();
     }
 }
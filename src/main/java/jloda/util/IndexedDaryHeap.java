@@ -0,0 +1,178 @@
+/*
+ * IndexedDaryHeap.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * an indexed d-ary min-heap on the items 0..capacity-1, with double priorities.
+ * Supports decrease-key in O(log_d n) and does not allocate after construction
+ * Daniel Huson, 2023
+ */
+public class IndexedDaryHeap {
+	private final int d;
+	private final int[] heap; // position to item
+	private final int[] position; // item to position, or -1
+	private final double[] priority; // item to priority
+	private int size = 0;
+
+	/**
+	 * constructs a 4-ary heap
+	 *
+	 * @param capacity items must be in range 0..capacity-1
+	 */
+	public IndexedDaryHeap(int capacity) {
+		this(capacity, 4);
+	}
+
+	/**
+	 * constructs a d-ary heap
+	 *
+	 * @param capacity items must be in range 0..capacity-1
+	 * @param d        arity, at least 2
+	 */
+	public IndexedDaryHeap(int capacity, int d) {
+		if (d < 2)
+			throw new IllegalArgumentException("d must be at least 2");
+		this.d = d;
+		heap = new int[capacity];
+		position = new int[capacity];
+		priority = new double[capacity];
+		Arrays.fill(position, -1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int item) {
+		return position[item] != -1;
+	}
+
+	/**
+	 * gets the current priority of an item contained in the heap
+	 */
+	public double getPriority(int item) {
+		return priority[item];
+	}
+
+	/**
+	 * inserts a new item or decreases the priority of an item already present
+	 *
+	 * @return true, if item was inserted or its priority was decreased
+	 */
+	public boolean insertOrDecrease(int item, double value) {
+		if (position[item] == -1) {
+			priority[item] = value;
+			position[item] = size;
+			heap[size++] = item;
+			siftUp(position[item]);
+			return true;
+		} else if (value < priority[item]) {
+			priority[item] = value;
+			siftUp(position[item]);
+			return true;
+		} else
+			return false;
+	}
+
+	/**
+	 * gets the item of minimum priority without removing it
+	 */
+	public int peek() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		return heap[0];
+	}
+
+	/**
+	 * removes and returns the item of minimum priority
+	 */
+	public int poll() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		var result = heap[0];
+		position[result] = -1;
+		if (--size > 0) {
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		return result;
+	}
+
+	/**
+	 * removes all items
+	 */
+	public void clear() {
+		for (var i = 0; i < size; i++)
+			position[heap[i]] = -1;
+		size = 0;
+	}
+
+	private void siftUp(int pos) {
+		var item = heap[pos];
+		var value = priority[item];
+		while (pos > 0) {
+			var parentPos = (pos - 1) / d;
+			var parent = heap[parentPos];
+			if (priority[parent] <= value)
+				break;
+			heap[pos] = parent;
+			position[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = item;
+		position[item] = pos;
+	}
+
+	private void siftDown(int pos) {
+		var item = heap[pos];
+		var value = priority[item];
+		while (true) {
+			var first = d * pos + 1;
+			if (first >= size)
+				break;
+			var last = Math.min(first + d, size);
+			var best = first;
+			var bestValue = priority[heap[first]];
+			for (var c = first + 1; c < last; c++) {
+				var cValue = priority[heap[c]];
+				if (cValue < bestValue) {
+					best = c;
+					bestValue = cValue;
+				}
+			}
+			if (bestValue >= value)
+				break;
+			heap[pos] = heap[best];
+			position[heap[pos]] = pos;
+			pos = best;
+		}
+		heap[pos] = item;
+		position[item] = pos;
+	}
+}
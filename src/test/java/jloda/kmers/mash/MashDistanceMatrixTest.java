@@ -0,0 +1,147 @@
+/*
+ * MashDistanceMatrixTest.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.mash;
+
+import jloda.graph.algorithms.DistanceMatrix;
+import jloda.kmers.GenomeDistanceType;
+import jloda.util.progress.ProgressSilent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * tests MashDistanceMatrix on hand-built sketches and on sketches of related sequences, comparing with MashDistance.compute
+ * Daniel Huson, 2023
+ */
+class MashDistanceMatrixTest {
+
+    /**
+     * a and b share 5 of the 10 smallest values of their union, c shares none, d equals a
+     */
+    @Test
+    void handBuiltSketches() {
+        var a = sketch("a", 0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        var b = sketch("b", 5, 6, 7, 8, 9, 10, 11, 12, 13, 14);
+        var c = sketch("c", 100, 101, 102, 103, 104, 105, 106, 107, 108, 109);
+        var d = sketch("d", 0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        var matrix = new MashDistanceMatrix(List.of(a, b, c, d), GenomeDistanceType.JaccardIndex);
+
+        assertEquals(5, matrix.computeIntersection(0, 1));
+        assertEquals(0, matrix.computeIntersection(0, 2));
+        assertEquals(10, matrix.computeIntersection(0, 3));
+        assertEquals(0.5, matrix.computeDistance(0, 1));
+        assertEquals(1.0, matrix.computeDistance(1, 2));
+
+        assertEquals(List.of(new MashDistanceMatrix.Neighbor(0, 1, 0.5), new MashDistanceMatrix.Neighbor(0, 3, 0.0), new MashDistanceMatrix.Neighbor(1, 3, 0.5)),
+                matrix.computeNeighbors(0.5, 2));
+        // at this threshold, 6 shared values are required, so the merge of a and b stops early, after 5 values of a:
+        assertEquals(List.of(new MashDistanceMatrix.Neighbor(0, 3, 0.0)), matrix.computeNeighbors(0.4, 2));
+        assertEquals(List.of(), matrix.computeNeighbors(-0.1, 2));
+    }
+
+    /**
+     * all distances, computed into heap and memory-mapped matrices, using more sketches than fit into one tile
+     */
+    @Test
+    void allDistances(@TempDir Path tempDir) throws IOException {
+        var sketches = relatedSketches(100, 200, 15);
+        for (var type : GenomeDistanceType.values()) {
+            var matrix = new MashDistanceMatrix(sketches, type);
+            try (var heap = matrix.computeAll(1); var mapped = DistanceMatrix.createMapped(sketches.size(), tempDir.resolve(type + ".dist"))) {
+                matrix.computeAll(mapped, 4);
+                for (var i = 0; i < sketches.size(); i++) {
+                    for (var j = 0; j < sketches.size(); j++) {
+                        var expected = (i == j ? 0.0 : MashDistance.compute(sketches.get(i), sketches.get(j), type));
+                        assertEquals(expected, heap.get(i, j), type + " " + i + " " + j);
+                        assertEquals(expected, mapped.get(i, j), type + " " + i + " " + j);
+                        assertEquals(expected, matrix.computeDistance(i, j), type + " " + i + " " + j);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * neighbors at thresholds that require most values to be shared, so that most merges stop early
+     */
+    @Test
+    void neighbors() {
+        var sketches = relatedSketches(100, 200, 15);
+        for (var type : GenomeDistanceType.values()) {
+            var matrix = new MashDistanceMatrix(sketches, type);
+            for (var maxDistance : (type == GenomeDistanceType.Mash ? new double[]{0.0, 0.01, 0.03, 0.1} : new double[]{0.0, 0.2, 0.5, 0.9})) {
+                var expected = new ArrayList<MashDistanceMatrix.Neighbor>();
+                for (var i = 0; i < sketches.size(); i++) {
+                    for (var j = i + 1; j < sketches.size(); j++) {
+                        var distance = MashDistance.compute(sketches.get(i), sketches.get(j), type);
+                        if (distance <= maxDistance)
+                            expected.add(new MashDistanceMatrix.Neighbor(i, j, distance));
+                    }
+                }
+                assertEquals(expected, matrix.computeNeighbors(maxDistance, 1), type + " " + maxDistance);
+                assertEquals(expected, matrix.computeNeighbors(maxDistance, 4), type + " " + maxDistance);
+            }
+        }
+    }
+
+    private static MashSketch sketch(String name, long... values) {
+        var bottomHashes = new BottomHashes(values.length, false);
+        for (var value : values)
+            bottomHashes.add(value, null, 0, 21);
+        var sketch = new MashSketch(values.length, 21, name, true);
+        sketch.setValues(bottomHashes);
+        return sketch;
+    }
+
+    /**
+     * computes sketches of copies of a few sequences, mutated at different rates, so that distances cover the full range
+     */
+    private static List<MashSketch> relatedSketches(int count, int sketchSize, int kSize) {
+        var random = new Random(1);
+        var ancestors = new ArrayList<byte[]>();
+        for (var i = 0; i < 3; i++) {
+            var sequence = new byte[5000];
+            for (var p = 0; p < sequence.length; p++)
+                sequence[p] = (byte) "ACGT".charAt(random.nextInt(4));
+            ancestors.add(sequence);
+        }
+        var sketches = new ArrayList<MashSketch>();
+        for (var i = 0; i < count; i++) {
+            var sequence = ancestors.get(i % ancestors.size()).clone();
+            var mutationRate = (i % 10) * 0.01;
+            for (var p = 0; p < sequence.length; p++) {
+                if (random.nextDouble() < mutationRate)
+                    sequence[p] = (byte) "ACGT".charAt(random.nextInt(4));
+            }
+            sketches.add(MashSketch.compute("s" + i, List.of(sequence), true, sketchSize, kSize, 42, false, new ProgressSilent()));
+        }
+        return sketches;
+    }
+}
+
+// EOF
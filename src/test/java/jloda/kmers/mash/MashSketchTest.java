@@ -0,0 +1,97 @@
+/*
+ * MashSketchTest.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.kmers.mash;
+
+import jloda.seq.SequenceUtils;
+import jloda.thirdparty.MurmurHash;
+import jloda.util.progress.ProgressSilent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * tests canonical k-mer hashing and Mash sketches on sequences with known answers
+ * Daniel Huson, 2023
+ */
+class MashSketchTest {
+    private static final String DNA = "GATTACACCGTAGGCTTAACGGATCCNNAATGCGTTAGCCATGCAAGTCGATCGGCTAAGTCCA";
+    private static final String PROTEIN = "MKVLAAGIVGLLLAQWERTYHHKPSTV";
+
+    /**
+     * sketch values of the sequences above, as computed by earlier versions, so that stored sketches remain comparable
+     */
+    @Test
+    void knownSketches() {
+        var dna = MashSketch.compute("dna", List.of(DNA.getBytes()), true, 8, 11, 42, false, new ProgressSilent());
+        assertArrayEquals(new long[]{-8736259526968823025L, -8214939560459433478L, -7363400453162695335L, -6941787274636922112L,
+                -6439102572054756510L, -6398462600401919132L, -6259079605682293665L, -5892088217199346387L}, dna.getValues());
+
+        var protein = MashSketch.compute("protein", List.of(PROTEIN.getBytes()), false, 6, 5, 7, false, new ProgressSilent());
+        assertArrayEquals(new long[]{-9205161366109961951L, -7671980799388496059L, -6677819199836292324L, -6261051943877857429L,
+                -5409879586123648299L, -3190587017166225153L}, protein.getValues());
+    }
+
+    /**
+     * the canonical k-mer of each window is the smaller of the k-mer and its reverse complement, windows containing N are skipped
+     */
+    @Test
+    void canonicalKMers() throws Exception {
+        var sequence = "ATGCGTAANCCA".getBytes();
+        var expected = List.of("ATGC", "CGCA", "ACGC", "CGTA", "GTAA");
+        var expectedHashes = expected.stream().map(kmer -> MurmurHash.hash64(kmer.getBytes(), 0, 4, 42)).toList();
+
+        var kmers = new ArrayList<String>();
+        var hashes = new ArrayList<Long>();
+        new CanonicalKMerHasher(4, true, 42).apply(sequence, (hash, array, offset) -> {
+            kmers.add(new String(array, offset, 4));
+            hashes.add(hash);
+        });
+        assertEquals(expected, kmers);
+        assertEquals(expectedHashes, hashes);
+
+        var count = new int[1];
+        new CanonicalKMerHasher(3, true, 42).apply("ACNGTNNTTNA".getBytes(), (hash, array, offset) -> count[0]++);
+        assertEquals(0, count[0]);
+    }
+
+    /**
+     * a sequence and its reverse complement have the same sketch, also for k larger than 32 and for letters other than A, C, G and T
+     */
+    @Test
+    void reverseComplement() {
+        for (var sequence : List.of(DNA, DNA.toLowerCase(), DNA.replace('T', 'Y'))) {
+            var forward = sequence.getBytes();
+            var reverse = SequenceUtils.getReverseComplement(forward);
+            for (var kSize : new int[]{1, 5, 21, 32, 33}) {
+                var a = MashSketch.compute("forward", List.of(forward), true, 10, kSize, 42, false, true, new ProgressSilent());
+                var b = MashSketch.compute("reverse", List.of(reverse), true, 10, kSize, 42, false, true, new ProgressSilent());
+                assertArrayEquals(a.getValues(), b.getValues(), sequence + " k=" + kSize);
+                assertEquals(a.getKMersString(), b.getKMersString(), sequence + " k=" + kSize);
+            }
+        }
+    }
+}
+
+// EOF
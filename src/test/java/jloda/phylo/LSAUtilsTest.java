@@ -0,0 +1,171 @@
+/*
+ * LSAUtilsTest.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo;
+
+import jloda.graph.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests the computation of the LSAs of reticulations on small networks with known LSAs, and compares with the path-set algorithm
+ * on random networks
+ * Daniel Huson, 2023
+ */
+class LSAUtilsTest {
+
+	/**
+	 * h has parents p1 and p2, whose lowest common ancestor is u. However, p2 is a reticulation that can also be reached via w,
+	 * avoiding u, so the LSA of h, and of p2, is the root
+	 */
+	@Test
+	void lsaAboveCommonAncestorOfParents() {
+		var tree = network(new HashMap<>(), "r>u", "r>w", "u>p1", "u>p2", "w>p2", "p1>h", "p2>h", "h>x", "u>y");
+		assertEquals(Map.of("h", "r", "p2", "r"), lsas(tree));
+	}
+
+	/**
+	 * h2 lies below h1, and its LSA is the reticulation h1 itself, while the LSA of h1 lies below the root
+	 */
+	@Test
+	void nestedReticulations() {
+		var tree = network(new HashMap<>(), "r>a", "r>z", "a>b", "a>c", "b>h1", "c>h1", "h1>e", "h1>f", "e>h2", "f>h2", "h2>x", "e>y", "f>v", "b>h3", "z>h3", "h3>t");
+		assertEquals(Map.of("h1", "a", "h2", "h1", "h3", "r"), lsas(tree));
+	}
+
+	/**
+	 * getLSATree() computes the LSA children of a network that does not have them yet, and places each reticulation below its LSA
+	 */
+	@Test
+	void lsaTreeWithoutLSAChildrenMap() {
+		var nodes = new HashMap<String, Node>();
+		var tree = network(nodes, "r>a", "r>z", "a>b", "a>c", "b>h1", "c>h1", "h1>e", "h1>f", "e>h2", "f>h2", "h2>x", "e>y", "f>v", "b>h3", "z>h3", "h3>t");
+		assertFalse(tree.hasLSAChildrenMap());
+
+		var lsaTree = LSAUtils.getLSATree(tree);
+		assertNotSame(tree, lsaTree);
+		assertEquals(tree.getNumberOfNodes(), lsaTree.getNumberOfNodes());
+		assertFalse(lsaTree.isReticulated());
+		var parent = new HashMap<String, String>();
+		for (var v : lsaTree.nodes()) {
+			if (v != lsaTree.getRoot())
+				parent.put(lsaTree.getLabel(v), lsaTree.getLabel(v.getParent()));
+		}
+		assertEquals("a", parent.get("h1"));
+		assertEquals("h1", parent.get("h2"));
+		assertEquals("r", parent.get("h3"));
+		// all other nodes keep their parents:
+		for (var label : new String[]{"a", "z", "b", "c", "e", "f", "x", "y", "v", "t"})
+			assertEquals(tree.getLabel(nodes.get(label).getFirstInEdge().getSource()), parent.get(label), label);
+
+		assertTrue(tree.isReticulated()); // the network itself is unchanged
+		assertEquals(16, tree.getNumberOfEdges());
+	}
+
+	@Test
+	void sameLSAsAsPathSets() {
+		var random = new Random(666);
+		for (var run = 0; run < 2000; run++) {
+			var tree = randomNetwork(random, 1 + random.nextInt(run < 1000 ? 20 : 200), random.nextDouble() * 0.5);
+			try (var expected = tree.<Node>newNodeArray(); var lsa = tree.<Node>newNodeArray()) {
+				LSAUtils.computeReticulation2LSAUsingPathSets(tree, expected);
+				LSAUtils.computeReticulation2LSA(tree, lsa);
+				for (var v : tree.nodes()) {
+					assertEquals(expected.get(v), lsa.get(v), "run " + run + " node " + v.getId());
+				}
+			}
+		}
+	}
+
+	/**
+	 * computes the LSAs of all reticulations using both algorithms, and checks that they agree
+	 *
+	 * @return map from label of reticulation to label of its LSA
+	 */
+	private static Map<String, String> lsas(PhyloTree tree) {
+		try (var expected = tree.<Node>newNodeArray(); var lsa = tree.<Node>newNodeArray()) {
+			LSAUtils.computeReticulation2LSAUsingPathSets(tree, expected);
+			LSAUtils.computeReticulation2LSA(tree, lsa);
+			var map = new HashMap<String, String>();
+			for (var v : tree.nodes()) {
+				assertEquals(expected.get(v), lsa.get(v), tree.getLabel(v));
+				if (lsa.get(v) != null)
+					map.put(tree.getLabel(v), tree.getLabel(lsa.get(v)));
+			}
+			return map;
+		}
+	}
+
+	/**
+	 * builds a labeled network from edges given as source>target, rooted at the source of the first edge
+	 */
+	private static PhyloTree network(Map<String, Node> nodes, String... edges) {
+		var tree = new PhyloTree();
+		for (var edge : edges) {
+			var tokens = edge.split(">");
+			var v = nodes.computeIfAbsent(tokens[0], label -> newNode(tree, label));
+			var w = nodes.computeIfAbsent(tokens[1], label -> newNode(tree, label));
+			if (tree.getRoot() == null)
+				tree.setRoot(v);
+			tree.newEdge(v, w);
+		}
+		tree.edgeStream().filter(e -> e.getTarget().getInDegree() > 1).forEach(e -> tree.setReticulate(e, true));
+		return tree;
+	}
+
+	private static Node newNode(PhyloTree tree, String label) {
+		var v = tree.newNode();
+		tree.setLabel(v, label);
+		return v;
+	}
+
+	/**
+	 * generates a random rooted network in which each node other than the root has one or more parents among the nodes created before it
+	 */
+	private static PhyloTree randomNetwork(Random random, int numberOfNodes, double reticulateProbability) {
+		var tree = new PhyloTree();
+		var nodes = new ArrayList<Node>();
+		tree.setRoot(tree.newNode());
+		nodes.add(tree.getRoot());
+		for (var i = 1; i < numberOfNodes; i++) {
+			var v = tree.newNode();
+			var parents = new HashSet<Node>();
+			parents.add(nodes.get(random.nextInt(nodes.size())));
+			while (parents.size() < i && random.nextDouble() < reticulateProbability)
+				parents.add(nodes.get(random.nextInt(nodes.size())));
+			for (var p : parents) {
+				var e = tree.newEdge(p, v);
+				if (parents.size() > 1)
+					tree.setReticulate(e, true);
+			}
+			nodes.add(v);
+		}
+		return tree;
+	}
+}
+
+// EOF
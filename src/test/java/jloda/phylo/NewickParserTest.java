@@ -0,0 +1,166 @@
+/*
+ * NewickParserTest.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests the iterative Newick parser on trees and networks with known structure
+ * Daniel Huson, 2023
+ */
+class NewickParserTest {
+
+	@Test
+	void tree() throws IOException {
+		var tree = parse("((a:1.5,b:2)x:3,c:4)root;");
+		assertEquals(5, tree.getNumberOfNodes());
+		assertEquals(4, tree.getNumberOfEdges());
+		assertEquals("root", tree.getLabel(tree.getRoot()));
+		assertEquals(List.of("x->a 1.5", "x->b 2.0", "root->x 3.0", "root->c 4.0"), edges(tree));
+		assertEquals("((a:1.5,b:2)x:3,c:4)root", NewickIO.toString(tree, true));
+	}
+
+	@Test
+	void reticulateNetwork() throws IOException {
+		var tree = parse("((a,(b)#H1),(#H1,c));");
+		assertEquals(7, tree.getNumberOfNodes());
+		assertEquals(7, tree.getNumberOfEdges());
+		var reticulations = tree.nodeStream().filter(v -> v.getInDegree() > 1).toList();
+		assertEquals(1, reticulations.size());
+		var r = reticulations.get(0);
+		assertNull(tree.getLabel(r));
+		assertEquals("b", tree.getLabel(r.getFirstOutEdge().getTarget()));
+		assertTrue(r.inEdgesStream(false).allMatch(tree::isReticulateEdge));
+		assertEquals(2, tree.edgeStream().filter(tree::isReticulateEdge).count());
+		assertTrue(r.inEdgesStream(false).noneMatch(tree::isTransferAcceptorEdge));
+	}
+
+	@Test
+	void transferNetwork() throws IOException {
+		var tree = parse("((a,b)#LGT1,(##LGT1,c));");
+		assertEquals(6, tree.getNumberOfNodes());
+		var r = tree.nodeStream().filter(v -> v.getInDegree() > 1).findFirst().orElseThrow();
+		assertEquals(2, r.getOutDegree());
+		assertEquals(1, r.inEdgesStream(false).filter(tree::isTransferAcceptorEdge).count());
+		assertTrue(r.inEdgesStream(false).allMatch(tree::isReticulateEdge));
+	}
+
+	@Test
+	void unmatchedReticulation() {
+		var ex = assertThrows(IOException.class, () -> parse("((a,(b)#H1),(#H2,c));"));
+		assertTrue(ex.getMessage().startsWith("Unmatched reticulate node"), ex.getMessage());
+	}
+
+	@Test
+	void quotedLabels() throws IOException {
+		var tree = parse("('x y',' q ','a,b','(c)':2,'it''s');");
+		assertEquals(List.of("null->x y 1.0", "null->q 1.0", "null->a,b 1.0", "null->(c) 2.0", "null->its 1.0"), edges(tree));
+	}
+
+	@Test
+	void comments() throws IOException {
+		var comments = new ArrayList<String>();
+		var newickIO = new NewickIO();
+		newickIO.setNewickLeadingCommentConsumer(c -> comments.add("leading " + c));
+		newickIO.setNewickNodeCommentConsumer((v, c) -> comments.add((v == null ? "null " : "node ") + c));
+		var tree = new PhyloTree();
+		newickIO.parseBracketNotation(tree, "[one][two](a[&c=1],(b,c)inner:2[&x])root;", true);
+		assertEquals(List.of("leading one", "leading two", "node &c=1", "node &x"), comments);
+		assertEquals(List.of("root->a 1.0", "inner->b 1.0", "inner->c 1.0", "root->inner 2.0"), edges(tree));
+
+		var ex = assertThrows(IOException.class, () -> parse("(a,b[unclosed);"));
+		assertEquals("Error in edge label at position: 4", ex.getMessage());
+	}
+
+	/**
+	 * a caterpillar tree of depth 100000, which would overflow the stack of a recursive parser
+	 */
+	@Test
+	void deepCaterpillar() throws IOException {
+		var n = 100000;
+		var buf = new StringBuilder();
+		buf.append("(".repeat(n - 1)).append("t0");
+		for (var i = 1; i < n; i++)
+			buf.append(",t").append(i).append(")");
+		buf.append(";");
+
+		var tree = parse(buf.toString());
+		assertEquals(2 * n - 1, tree.getNumberOfNodes());
+		assertEquals(n, tree.nodeStream().filter(v -> v.isLeaf()).count());
+		var depth = 0;
+		var v = tree.getRoot();
+		while (!v.isLeaf()) {
+			assertEquals(2, v.getOutDegree());
+			assertEquals("t" + (n - 1 - depth), tree.getLabel(v.getLastOutEdge().getTarget()));
+			v = v.getFirstOutEdge().getTarget();
+			depth++;
+		}
+		assertEquals(n - 1, depth);
+		assertEquals("t0", tree.getLabel(v));
+	}
+
+	@Test
+	void sameTreesFromStringReaderAndBytes() throws IOException {
+		var trees = List.of("((a:1,b:2)x:3,c:4)root;", "[comment] ((a,(b)#H1),(#H1,c));", "('x y','it''s');", "(a,(b,(c,(d,e))));");
+		var input = String.join("\n", trees) + "\n";
+
+		var reader = new StringReader(input);
+		var bytes = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+		for (var newick : trees) {
+			var newickIO = new NewickIO();
+			var fromString = new PhyloTree();
+			newickIO.parseBracketNotation(fromString, newick, true);
+			var fromReader = new PhyloTree();
+			newickIO.read(fromReader, reader);
+			var fromBytes = new PhyloTree();
+			assertTrue(newickIO.read(fromBytes, bytes));
+
+			assertEquals(NewickIO.toString(fromString, true), NewickIO.toString(fromReader, true), newick);
+			assertEquals(NewickIO.toString(fromString, true), NewickIO.toString(fromBytes, true), newick);
+		}
+		assertEquals(-1, reader.read());
+		assertEquals(0, bytes.remaining());
+	}
+
+	private static PhyloTree parse(String newick) throws IOException {
+		var tree = new PhyloTree();
+		new NewickIO().parseBracketNotation(tree, newick, true);
+		return tree;
+	}
+
+	/**
+	 * lists all edges in order of creation, that is, in post-order, giving the labels of their endpoints and their weights
+	 */
+	private static List<String> edges(PhyloTree tree) {
+		return tree.edgeStream().map(e -> tree.getLabel(e.getSource()) + "->" + tree.getLabel(e.getTarget()) + " " + tree.getWeight(e)).toList();
+	}
+}
+
+// EOF
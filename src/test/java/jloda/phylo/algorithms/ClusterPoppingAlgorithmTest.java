@@ -0,0 +1,168 @@
+/*
+ * ClusterPoppingAlgorithmTest.java Copyright (C) 2023 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package jloda.phylo.algorithms;
+
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import jloda.util.BitSetUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests the cluster popping algorithm on small sets of clusters with known networks, and on a large set of clusters,
+ * using different numbers of threads
+ * Daniel Huson, 2023
+ */
+class ClusterPoppingAlgorithmTest {
+
+	@Test
+	void tree() {
+		var network = apply(1, List.of(set(1, 2, 3, 4, 5), set(1, 2, 3), set(1, 2), set(4, 5), set(3)), c -> (double) c.cardinality(), null);
+		checkProperties(network);
+		assertEquals(List.of("{1, 2, 3, 4, 5}->{1, 2, 3, 4, 5}", "{1, 2, 3, 4, 5}->{1, 2, 3}", "{1, 2, 3}->{1, 2}", "{1, 2, 3, 4, 5}->{4, 5}",
+				"{1, 2, 3}->{3}", "{1, 2}->{1}", "{1, 2}->{2}", "{4, 5}->{4}", "{4, 5}->{5}"), edges(network));
+		assertEquals(0, network.edgeStream().filter(network::isReticulateEdge).count());
+		// weights are set on edges into cluster nodes, but not on the added leaf edges:
+		assertEquals(List.of(5.0, 3.0, 2.0, 2.0, 1.0, 1.0, 1.0, 1.0, 1.0), network.edgeStream().map(network::getWeight).toList());
+	}
+
+	/**
+	 * cluster {2,3} lies below {1,2,3} and {2,3,4}, and has two children, so a node is inserted above it to separate the
+	 * reticulate in-edges from the out-edges. The search for {2} reaches {2,3} along two paths, but adds only one edge
+	 */
+	@Test
+	void reticulation() {
+		var network = apply(1, List.of(set(1, 2, 3), set(2, 3, 4), set(2, 3), set(2), set(1), set(3), set(4)), null, null);
+		checkProperties(network);
+		assertEquals(List.of("{1, 2, 3, 4}->{1, 2, 3}", "{1, 2, 3, 4}->{2, 3, 4}", "{2, 3}->{2}", "{1, 2, 3}->{1}", "{2, 3}->{3}", "{2, 3, 4}->{4}",
+				"{2, 3, 4}->{2, 3}", "{1, 2, 3}->{2, 3}", "{2, 3}->{2, 3}"), edges(network));
+		var reticulation = network.nodeStream().filter(v -> v.getInDegree() > 1).toList();
+		assertEquals(1, reticulation.size());
+		assertEquals(1, reticulation.get(0).getOutDegree());
+		assertTrue(reticulation.get(0).inEdgesStream(false).allMatch(network::isReticulateEdge));
+		assertEquals(2, network.edgeStream().filter(network::isReticulateEdge).count());
+	}
+
+	/**
+	 * a leaf cluster with more than one taxon receives one leaf per taxon
+	 */
+	@Test
+	void leafEdges() {
+		var network = apply(1, List.of(set(1, 2, 3), set(2, 3, 4)), null, null);
+		checkProperties(network);
+		assertEquals(List.of("{1, 2, 3, 4}->{1, 2, 3}", "{1, 2, 3, 4}->{2, 3, 4}", "{1, 2, 3}->{1}", "{1, 2, 3}->{2}", "{1, 2, 3}->{3}",
+				"{2, 3, 4}->{2}", "{2, 3, 4}->{3}", "{2, 3, 4}->{4}"), edges(network));
+	}
+
+	/**
+	 * two overlapping chains of nested clusters and all singletons, more than BLOCK_SIZE in total, so that containing clusters are computed in several blocks
+	 */
+	@Test
+	void sameNetworkForDifferentNumbersOfThreads() {
+		var n = 1500;
+		var clusters = new ArrayList<BitSet>();
+		for (var i = 1; i <= n; i++) {
+			var prefix = new BitSet();
+			prefix.set(1, i + 1);
+			clusters.add(prefix);
+			if (i > 1) {
+				var suffix = new BitSet();
+				suffix.set(i, n + 1);
+				clusters.add(suffix);
+				clusters.add(BitSetUtils.asBitSet(i));
+			}
+		}
+		assertTrue(clusters.size() > 4096);
+
+		var expected = apply(1, clusters, null, null);
+		checkProperties(expected);
+		assertEquals(n, expected.nodeStream().filter(Node::isLeaf).count());
+		for (var threads : new int[]{2, 8}) {
+			var network = apply(threads, clusters, null, null);
+			assertEquals(expected.getNumberOfNodes(), network.getNumberOfNodes());
+			assertEquals(describe(expected), describe(network), threads + " threads");
+		}
+	}
+
+	private static PhyloTree apply(int threads, List<BitSet> clusters, Function<BitSet, Double> weights, Function<BitSet, Double> confidences) {
+		var network = new PhyloTree();
+		ClusterPoppingAlgorithm.apply(clusters, weights, confidences, threads, network);
+		return network;
+	}
+
+	/**
+	 * checks that there are no duplicate edges, that no node has both more than one in-edge and more than one out-edge,
+	 * that each leaf has exactly one taxon, and that exactly the in-edges of reticulations are reticulate
+	 */
+	private static void checkProperties(PhyloTree network) {
+		var pairs = new HashSet<String>();
+		for (var e : network.edges()) {
+			assertTrue(pairs.add(e.getSource().getId() + "->" + e.getTarget().getId()), "duplicate edge");
+			assertEquals(e.getTarget().getInDegree() > 1, network.isReticulateEdge(e));
+		}
+		for (var v : network.nodes()) {
+			assertFalse(v.getInDegree() > 1 && v.getOutDegree() > 1);
+			assertEquals(v.isLeaf() ? 1 : 0, network.getNumberOfTaxa(v));
+		}
+	}
+
+	/**
+	 * lists all edges in order of creation, giving the clusters of taxa below their endpoints
+	 */
+	private static List<String> edges(PhyloTree network) {
+		try (var clusters = network.<BitSet>newNodeArray()) {
+			network.postorderTraversal(network.getRoot(), v -> {
+				var cluster = BitSetUtils.asBitSet(network.getTaxa(v));
+				for (var w : v.children())
+					cluster.or(clusters.get(w));
+				clusters.put(v, cluster);
+			});
+			return network.edgeStream().map(e -> clusters.get(e.getSource()) + "->" + clusters.get(e.getTarget())).toList();
+		}
+	}
+
+	/**
+	 * describes nodes, edges and adjacency order
+	 */
+	private static String describe(PhyloTree network) {
+		var buf = new StringBuilder();
+		for (var v : network.nodes()) {
+			buf.append(v.getId()).append(" ").append(network.getNumberOfTaxa(v) > 0 ? network.getTaxon(v) : "").append(":");
+			for (var e : v.adjacentEdges())
+				buf.append(" ").append(e.getId()).append("=").append(e.getSource().getId()).append("->").append(e.getTarget().getId());
+			buf.append("\n");
+		}
+		return buf.toString();
+	}
+
+	private static BitSet set(int... taxa) {
+		return BitSetUtils.asBitSet(taxa);
+	}
+}
+
+// EOF